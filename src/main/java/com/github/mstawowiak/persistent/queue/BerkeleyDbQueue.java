@@ -1,208 +1,682 @@
 package com.github.mstawowiak.persistent.queue;
 
+import com.github.mstawowiak.commons.logging.ContextLogger;
+import com.github.mstawowiak.commons.logging.ContextLoggerFactory;
 import com.github.mstawowiak.persistent.queue.exception.EnqueueException;
-import com.sleepycat.je.Cursor;
-import com.sleepycat.je.Database;
-import com.sleepycat.je.DatabaseConfig;
-import com.sleepycat.je.DatabaseEntry;
-import com.sleepycat.je.Environment;
-import com.sleepycat.je.EnvironmentConfig;
-import com.sleepycat.je.LockMode;
+import com.github.mstawowiak.persistent.queue.util.Preconditions;
 import java.io.File;
-import java.io.Serializable;
-import java.math.BigInteger;
-import java.util.Comparator;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.concurrent.Semaphore;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * {@link StorageQueue} stored in a Berkeley DB JE environment by {@link BerkeleyDbQueueStorage}, with features
+ * of the environment on top: mirroring, compaction, cache preload, deduplication and consumer groups.
+ *
+ * @param <P> the type of payload held in this queue
+ */
+public class BerkeleyDbQueue<P extends Payload> extends StorageQueue<P> {
+
+    private static final ContextLogger LOGGER = ContextLoggerFactory.getLogger();
+
+    private static final String RETRY_STORAGE_SUFFIX = ".retry.";
+    private static final String DEDUP_DATABASE_SUFFIX = ".dedup";
+    private static final String BLOB_DIRECTORY_SUFFIX = ".blobs";
 
-public class BerkeleyDbQueue<P extends Payload> implements Queue<P> {
+    /**
+     * Storage holding records and metadata of the queue
+     */
+    private final BerkeleyDbQueueStorage storage;
 
     /**
-     * Berkley DB environment
+     * Name of this queue
      */
-    private final Environment dbEnvironment;
+    private final String queueName;
 
     /**
-     * Berkley DB instance for the queue
+     * Utilization of the log (in percent) below which background compaction is triggered
      */
-    private final Database queueDatabase;
+    private final int compactionThreshold;
 
     /**
-     * Name of this queue
+     * Executor running background compaction and purging of deduplication keys, {@code null} when both
+     * are disabled
      */
-    private final String queueName;
+    private final ScheduledExecutorService maintenanceExecutor;
 
     /**
-     * Number of payloads used during flush it is allowed to loose in case of system crash.
+     * Keys of recently pushed payloads, {@code null} when deduplication is disabled
      */
-    private final int batchSize;
+    private final Deduplicator deduplicator;
 
     /**
-     * Queue operation counter, which is used to sync the queue database to disk periodically.
+     * Consumer groups reading the queue, guarded by the lock. Records are deleted once all groups have read them.
      */
-    private int opsCounter;
+    private final Map<String, ConsumerGroup> consumerGroups = new LinkedHashMap<>();
 
     /**
-     * Semaphore provides blocking queue future
+     * Asynchronous copy of the queue in another environment, {@code null} if mirroring is disabled
      */
-    protected final Semaphore semaphore;
+    private final QueueMirror mirror;
 
     public BerkeleyDbQueue(final String queueEnvPath, final String queueName) {
         this(queueEnvPath, queueName, 1);
     }
 
     public BerkeleyDbQueue(final String queueEnvPath, final String queueName, final int batchSize) {
-        // Create parent dirs for queue environment directory
-        new File(queueEnvPath).mkdirs();
-
-        // Setup database environment
-        final EnvironmentConfig dbEnvConfig = new EnvironmentConfig();
-        dbEnvConfig.setTransactional(false);
-        dbEnvConfig.setAllowCreate(true);
-        this.dbEnvironment = new Environment(new File(queueEnvPath), dbEnvConfig);
-
-        // Setup non-transactional deferred-write queue database
-        DatabaseConfig dbConfig = new DatabaseConfig();
-        dbConfig.setTransactional(false);
-        dbConfig.setAllowCreate(true);
-        dbConfig.setDeferredWrite(true);
-        dbConfig.setBtreeComparator(new KeyComparator());
-
-        this.queueDatabase = dbEnvironment.openDatabase(null, queueName, dbConfig);
-        this.semaphore = new Semaphore((int) queueDatabase.count());
-        this.queueName = queueName;
-        this.batchSize = batchSize;
-        this.opsCounter = 0;
+        this(queueEnvPath, queueName, new BerkeleyDbQueueConfig.Builder()
+                .batchSize(batchSize)
+                .build());
     }
 
-    private static class KeyComparator implements Comparator<byte[]>, Serializable {
+    public BerkeleyDbQueue(final String queueEnvPath, final String queueName, final BerkeleyDbQueueConfig config) {
+        this(queueName, config, openStorage(queueEnvPath, queueName, config),
+                new File(queueEnvPath, queueName + BLOB_DIRECTORY_SUFFIX));
+    }
+
+    private BerkeleyDbQueue(final String queueName, final BerkeleyDbQueueConfig config,
+            final BerkeleyDbQueueStorage storage, final File blobDirectory) {
+        super(queueName, storage, config, blobDirectory);
+        this.storage = storage;
+        this.queueName = queueName;
 
-        private static final long serialVersionUID = 1138169225069531524L;
+        loadConsumerGroups();
 
-        @Override
-        public int compare(byte[] key1, byte[] key2) {
-            return new BigInteger(key1).compareTo(new BigInteger(key2));
+        if (config.isMirrorEnabled()) {
+            this.mirror = new QueueMirror(queueName, config);
+            this.mirror.start(storage, this::inline);
+        } else {
+            this.mirror = null;
+        }
+
+        if (config.isPreloadEnabled()) {
+            storage.preload(config.getPreloadBytes(), config.getPreloadTimeoutMillis());
         }
 
+        if (config.isDeduplicationEnabled()) {
+            this.deduplicator = new Deduplicator(storage.environment(), queueName + DEDUP_DATABASE_SUFFIX,
+                    config.getDeduplicationRetentionMillis(), config.getDeduplicationExpectedKeys(),
+                    System.currentTimeMillis());
+        } else {
+            this.deduplicator = null;
+        }
+
+        this.compactionThreshold = config.getCompactionThreshold();
+        if (config.isCompactionEnabled() || config.isDeduplicationEnabled() || config.isExpiryPurgeEnabled()) {
+            this.maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "queue-maintenance-" + queueName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.maintenanceExecutor = null;
+        }
+        if (config.isCompactionEnabled()) {
+            this.maintenanceExecutor.scheduleWithFixedDelay(this::compactIfNeeded,
+                    config.getCompactionIntervalMillis(), config.getCompactionIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+        if (config.isDeduplicationEnabled()) {
+            this.maintenanceExecutor.scheduleWithFixedDelay(this::purgeDeduplicationKeys,
+                    config.getDeduplicationRetentionMillis(), config.getDeduplicationRetentionMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+        if (config.isExpiryPurgeEnabled()) {
+            this.maintenanceExecutor.scheduleWithFixedDelay(this::purgeExpired,
+                    config.getExpiryPurgeIntervalMillis(), config.getExpiryPurgeIntervalMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static BerkeleyDbQueueStorage openStorage(final String queueEnvPath, final String queueName,
+            final BerkeleyDbQueueConfig config) {
+        Preconditions.checkArgument(!config.isMirrorEnabled() || !new File(queueEnvPath).getAbsoluteFile().toPath()
+                        .normalize().equals(new File(config.getMirrorEnvPath()).getAbsoluteFile().toPath().normalize()),
+                "Queue may not be mirrored to its own environment " + queueEnvPath);
+
+        return new BerkeleyDbQueueStorage(queueEnvPath, queueName, config);
     }
 
+    /**
+     * Opens the mirror of a queue as a primary queue, e.g. when the disk holding the primary environment
+     * failed. The mirror holds all records appended and not removed before the last batch applied to it,
+     * so payloads pushed or polled shortly before the failure may be missing or delivered again. Consumer
+     * groups and deduplication keys are not mirrored.
+     * <p>
+     * The mirror may not be in use by the primary queue, which has to be closed or lost. The given config
+     * may enable mirroring of the promoted queue to another environment.
+     *
+     * @param mirrorEnvPath environment path of the mirror
+     * @param queueName     name of the mirrored queue
+     * @param config        config of the promoted queue
+     * @param <P>           the type of payload held in the queue
+     * @return queue opened from the mirror
+     */
+    public static <P extends Payload> BerkeleyDbQueue<P> promoteMirror(final String mirrorEnvPath,
+            final String queueName, final BerkeleyDbQueueConfig config) {
+        LOGGER.info(queueName, "Promoting mirror to primary queue [mirrorEnvPath={}]", mirrorEnvPath);
+        return new BerkeleyDbQueue<>(mirrorEnvPath, queueName, config);
+    }
+
+    /**
+     * Persists positions of consumer groups and deduplication keys along with the queue.
+     */
     @Override
-    public synchronized void push(Payload payload) {
-        DatabaseEntry key = new DatabaseEntry();
-        DatabaseEntry data = new DatabaseEntry();
-        Cursor cursor = queueDatabase.openCursor(null, null);
-        try {
-            cursor.getLast(key, data, LockMode.RMW);
+    void onSync() {
+        for (ConsumerGroup group : consumerGroups.values()) {
+            group.sync();
+        }
+        if (deduplicator != null) {
+            deduplicator.sync();
+        }
+    }
 
-            BigInteger prevKeyValue;
-            if (key.getData() == null) {
-                prevKeyValue = BigInteger.valueOf(-1);
-            } else {
-                prevKeyValue = new BigInteger(key.getData());
-            }
-            BigInteger newKeyValue = prevKeyValue.add(BigInteger.ONE);
+    /**
+     * Hands over the appended record to the mirror.
+     */
+    @Override
+    void onAppend(long key, byte[] header, byte[] payload) {
+        if (mirror != null) {
+            mirror.append(key, RecordFormat.toRecord(header, payload));
+        }
+    }
 
-            final DatabaseEntry newKey = new DatabaseEntry(newKeyValue.toByteArray());
-            final DatabaseEntry newData = new DatabaseEntry(payload.serialize());
-            queueDatabase.put(null, newKey, newData);
+    /**
+     * Hands over removal of records before the head to the mirror.
+     */
+    @Override
+    void onRemoveHead(long newHeadKey) {
+        if (mirror != null) {
+            mirror.removeHead(newHeadKey);
+        }
+    }
 
-            opsCounter++;
-            if (opsCounter >= batchSize) {
-                queueDatabase.sync();
-                opsCounter = 0;
-            }
+    @Override
+    void onClose() {
+        for (ConsumerGroup group : consumerGroups.values()) {
+            group.retries.close();
+        }
+        if (deduplicator != null) {
+            deduplicator.close();
+        }
+    }
 
-            semaphore.release();
-        } catch (Exception ex) {
-            throw new EnqueueException("Unable to enqueue payload", ex);
-        } finally {
-            cursor.close();
+    @Override
+    void checkPollable() {
+        if (!consumerGroups.isEmpty()) {
+            throw new IllegalStateException("Queue is read by consumer groups " + consumerGroups.keySet()
+                    + ", poll a consumer group instead");
         }
     }
 
     @Override
-    public P poll() {
-        final DatabaseEntry key = new DatabaseEntry();
-        final DatabaseEntry data = new DatabaseEntry();
-        final Cursor cursor = queueDatabase.openCursor(null, null);
+    boolean hasManyReaders() {
+        return !consumerGroups.isEmpty();
+    }
+
+    /**
+     * Inserts the payload into this queue unless a payload with the same deduplication key was pushed
+     * within the retention period. Requires deduplication to be enabled in {@link BerkeleyDbQueueConfig}.
+     *
+     * @param payload  the payload to add
+     * @param dedupKey key identifying the payload, e.g. id of a message retried by an upstream system
+     * @return {@code true} if the payload was added, {@code false} if it is a duplicate
+     * @throws EnqueueException if the payload cannot be inserted, e.g. because the queue is full
+     */
+    public boolean push(P payload, String dedupKey) {
+        if (deduplicator == null) {
+            throw new IllegalStateException("Deduplication is not enabled for queue " + queueName);
+        }
+        Preconditions.checkArgument(dedupKey != null, "Deduplication key may not be null");
+
+        final byte[] key = dedupKey.getBytes(StandardCharsets.UTF_8);
+        final byte[] header = header(timeToLiveMillis());
+        final byte[] data = serialize(payload);
+        lock.lock();
         try {
-            cursor.getFirst(key, data, LockMode.RMW);
-            if (data.getData() == null) {
-                return null;
+            final long now = System.currentTimeMillis();
+            if (deduplicator.isDuplicate(key, now)) {
+                return false;
             }
-            final P payload = Payload.deserialize(data.getData());
-            cursor.delete();
-            opsCounter++;
-            if (opsCounter >= batchSize) {
-                queueDatabase.sync();
-                opsCounter = 0;
+            if (!hasRoomFor(data.length)) {
+                throw queueFull();
             }
-            return payload;
+            append(header, data);
+            deduplicator.register(key, now);
+            return true;
         } finally {
-            cursor.close();
+            lock.unlock();
         }
     }
 
-    @Override
-    public P remove() {
-        P payload = poll();
-        if (payload != null) {
-            return payload;
-        } else {
-            throw new NoSuchElementException();
+    private void purgeDeduplicationKeys() {
+        try {
+            long purged = deduplicator.purgeExpired(System.currentTimeMillis());
+            LOGGER.debug(queueName, "Expired deduplication keys purged [keys={}]", purged);
+        } catch (Exception ex) {
+            LOGGER.warn(queueName, "Error occurred during purging deduplication keys", ex);
         }
     }
 
-    @Override
-    public P peek() {
-        final DatabaseEntry key = new DatabaseEntry();
-        final DatabaseEntry data = new DatabaseEntry();
-        final Cursor cursor = queueDatabase.openCursor(null, null);
+    /**
+     * Returns number of appends and removals of the queue not applied to its mirror yet. The lag is bounded
+     * by {@link BerkeleyDbQueueConfig#getMirrorMaxLag()}.
+     *
+     * @return the mirror lag in operations, {@code -1} if mirroring is disabled or the mirror failed
+     */
+    public long getMirrorLag() {
+        return mirror == null ? -1 : mirror.getLag();
+    }
+
+    /**
+     * Returns age of the oldest append or removal of the queue not applied to its mirror yet.
+     *
+     * @return the mirror lag in milliseconds, {@code -1} if mirroring is disabled or the mirror failed
+     */
+    public long getMirrorLagMillis() {
+        return mirror == null ? -1 : mirror.getLagMillis();
+    }
+
+    /**
+     * Returns consumer group with the given name, registering it if it does not exist yet. Each group
+     * reads all records of the queue independently of other groups, starting from the oldest record kept
+     * in the queue, and its read position survives reopening of the queue. A record is deleted once every
+     * group has read it. While any group is registered, the queue itself cannot be polled.
+     * <p>
+     * Payloads pushed to a group are pushed to the queue and seen by all groups. Payloads requeued to
+     * a group are kept aside and seen by that group only. Closing a group persists its position,
+     * the queue has to be closed separately.
+     *
+     * @param groupName name of the consumer group
+     * @return view of the queue read by the consumer group
+     */
+    public Queue<P> consumerGroup(String groupName) {
+        Preconditions.checkArgument(groupName != null && !groupName.isEmpty(),
+                "Consumer group name may not be empty");
+        lock.lock();
         try {
-            cursor.getFirst(key, data, LockMode.RMW);
-            if (data.getData() == null) {
-                return null;
+            ConsumerGroup group = consumerGroups.get(groupName);
+            if (group == null) {
+                group = new ConsumerGroup(groupName, headKey());
+                consumerGroups.put(groupName, group);
+                sync();
+                LOGGER.info(queueName, "Consumer group registered [group={}, position={}]", groupName, headKey());
             }
-            return Payload.deserialize(data.getData());
+            return group;
         } finally {
-            cursor.close();
+            lock.unlock();
         }
     }
 
-    @Override
-    public P element() {
-        P payload = peek();
-        if (payload != null) {
-            return payload;
-        } else {
-            throw new NoSuchElementException();
+    /**
+     * Unregisters the consumer group, discarding payloads requeued to it. Records read by all remaining
+     * groups are deleted.
+     *
+     * @param groupName name of the consumer group
+     */
+    public void removeConsumerGroup(String groupName) {
+        lock.lock();
+        try {
+            ConsumerGroup group = consumerGroups.remove(groupName);
+            if (group == null) {
+                return;
+            }
+            storage.deletePosition(groupName);
+            group.retries.close();
+            storage.removeStorage(retryStorageName(groupName));
+            trimHead();
+            sync();
+            LOGGER.info(queueName, "Consumer group removed [group={}]", groupName);
+        } finally {
+            lock.unlock();
         }
     }
 
-    @Override
-    public long size() {
-        return queueDatabase.count();
+    /**
+     * Returns names of registered consumer groups
+     *
+     * @return names of consumer groups
+     */
+    public Set<String> consumerGroupNames() {
+        lock.lock();
+        try {
+            return Collections.unmodifiableSet(new TreeSet<>(consumerGroups.keySet()));
+        } finally {
+            lock.unlock();
+        }
     }
 
-    @Override
-    public boolean isEmpty() {
-        return queueDatabase.count() == 0;
+    private String retryStorageName(String groupName) {
+        return queueName + RETRY_STORAGE_SUFFIX + groupName;
     }
 
-    @Override
-    public String name() {
-        return queueName;
+    /**
+     * Restores consumer groups and their read positions from the storage.
+     */
+    private void loadConsumerGroups() {
+        for (Map.Entry<String, Long> position : storage.readPositions().entrySet()) {
+            consumerGroups.put(position.getKey(),
+                    new ConsumerGroup(position.getKey(), Math.max(position.getValue(), headKey())));
+        }
+        if (!consumerGroups.isEmpty()) {
+            LOGGER.info(queueName, "Consumer groups restored [groups={}]", consumerGroups.keySet());
+        }
     }
 
-    @Override
-    public void close() {
-        queueDatabase.close();
-        dbEnvironment.close();
+    /**
+     * Deletes records already read by all consumer groups, must be called with the lock held.
+     */
+    private void trimHead() {
+        long minPosition = Long.MAX_VALUE;
+        for (ConsumerGroup group : consumerGroups.values()) {
+            minPosition = Math.min(minPosition, group.position);
+        }
+        if (minPosition != Long.MAX_VALUE) {
+            removeUpTo(minPosition);
+        }
+    }
+
+    /**
+     * View of the queue read by a consumer group. All state is guarded by the lock of the queue.
+     */
+    private final class ConsumerGroup implements Queue<P>, Reader {
+
+        private final String groupName;
+
+        /**
+         * Payloads requeued to this group, polled before the records of the queue
+         */
+        private final BerkeleyDbQueueStorage retries;
+
+        /**
+         * Key of the next record of the queue to be read by this group
+         */
+        private long position;
+
+        /**
+         * Key of the first payload requeued to this group
+         */
+        private long retryHeadKey;
+
+        ConsumerGroup(String groupName, long position) {
+            this.groupName = groupName;
+            this.position = position;
+            this.retries = storage.openStorage(retryStorageName(groupName));
+
+            final QueueStorage.Record retryHead = retries.readHead(0, 0);
+            this.retryHeadKey = retryHead == null ? retries.lastKey() + 1 : retryHead.getKey();
+        }
+
+        void sync() {
+            storage.writePosition(groupName, position);
+            retries.sync();
+        }
+
+        @Override
+        public long available() {
+            return retries.count() + Math.max(0, tailKey() - Math.max(position, headKey()) + 1);
+        }
+
+        /**
+         * Reads the next record of this group, must be called with the lock held.
+         */
+        @Override
+        public byte[] readNext() {
+            final long now = System.currentTimeMillis();
+            QueueStorage.Record retried;
+            while ((retried = retries.removeHead(retryHeadKey)) != null) {
+                retryHeadKey = retried.getKey() + 1;
+                syncIfNeeded();
+                if (!RecordFormat.isExpired(retried.getData(), now)) {
+                    return delivered(retried.getData(), now);
+                }
+                expired();
+            }
+            if (position > tailKey()) {
+                return null;
+            }
+
+            final QueueStorage.Record record = readUnexpired(storage, Math.max(position, headKey()), true);
+            final byte[] delivered = record == null ? null : delivered(record.getData(), now);
+            position = record == null ? tailKey() + 1 : record.getKey() + 1;
+            trimHead();
+            syncIfNeeded();
+            return delivered;
+        }
+
+        @Override
+        public void push(P payload) {
+            BerkeleyDbQueue.this.push(payload);
+        }
+
+        @Override
+        public boolean offer(P payload) {
+            return BerkeleyDbQueue.this.offer(payload);
+        }
+
+        @Override
+        public boolean offer(P payload, long timeout, TimeUnit unit) throws InterruptedException {
+            return BerkeleyDbQueue.this.offer(payload, timeout, unit);
+        }
+
+        @Override
+        public void put(P payload) throws InterruptedException {
+            BerkeleyDbQueue.this.put(payload);
+        }
+
+        @Override
+        public void requeue(P payload) {
+            requeueRaw(serialize(payload));
+        }
+
+        @Override
+        public void pushRaw(byte[] data) {
+            BerkeleyDbQueue.this.pushRaw(data);
+        }
+
+        @Override
+        public void requeueRaw(byte[] data) {
+            final byte[] header = header(timeToLiveMillis());
+            lock.lock();
+            try {
+                retries.append(retries.lastKey() + 1, header, data);
+                syncIfNeeded();
+                signalAllNotEmpty();
+            } catch (Exception ex) {
+                throw new EnqueueException("Unable to requeue payload", ex);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public P poll() {
+            return decodeDelivered(pollFrom(this));
+        }
+
+        @Override
+        public P poll(long timeout, TimeUnit unit) throws InterruptedException {
+            return decodeDelivered(pollFrom(this, timeout, unit));
+        }
+
+        @Override
+        public P take() throws InterruptedException {
+            return decodeDelivered(takeFrom(this));
+        }
+
+        @Override
+        public byte[] pollRaw() {
+            return readDelivered(pollFrom(this));
+        }
+
+        @Override
+        public byte[] pollRaw(long timeout, TimeUnit unit) throws InterruptedException {
+            return readDelivered(pollFrom(this, timeout, unit));
+        }
+
+        @Override
+        public P remove() {
+            P payload = poll();
+            if (payload != null) {
+                return payload;
+            } else {
+                throw new NoSuchElementException();
+            }
+        }
+
+        @Override
+        public P peek() {
+            lock.lock();
+            try {
+                QueueStorage.Record record = readUnexpired(retries, retryHeadKey, false);
+                if (record == null) {
+                    record = readUnexpired(storage, Math.max(position, headKey()), false);
+                }
+                return record == null ? null : decode(record.getData());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public byte[] peekRaw() {
+            lock.lock();
+            try {
+                QueueStorage.Record record = readUnexpired(retries, retryHeadKey, false);
+                if (record == null) {
+                    record = readUnexpired(storage, Math.max(position, headKey()), false);
+                }
+                return record == null ? null : payloadOf(record.getData());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public P element() {
+            P payload = peek();
+            if (payload != null) {
+                return payload;
+            } else {
+                throw new NoSuchElementException();
+            }
+        }
+
+        @Override
+        public Iterator<P> iterator() {
+            return Spliterators.iterator(spliterator());
+        }
+
+        /**
+         * Scans payloads requeued to this group, followed by records of the queue not yet read by this group.
+         */
+        @Override
+        public Spliterator<P> spliterator() {
+            lock.lock();
+            try {
+                return Stream.concat(
+                        StreamSupport.stream(new KeyRangeSpliterator<P>(retries, retryHeadKey, retries.lastKey(),
+                                BerkeleyDbQueue.this::decode), false),
+                        StreamSupport.stream(BerkeleyDbQueue.this.spliterator(position), false))
+                        .spliterator();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public String name() {
+            return queueName + ":" + groupName;
+        }
+
+        @Override
+        public long size() {
+            lock.lock();
+            try {
+                return available();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        /**
+         * Persists position of the group, the queue stays open.
+         */
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                BerkeleyDbQueue.this.sync();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Reclaims disk space occupied by obsolete (already polled) records. Flushes the queue database,
+     * cleans log files until no more files qualify for cleaning and forces a checkpoint, so that
+     * cleaned files can be deleted.
+     *
+     * @return number of cleaned log files
+     */
+    public int compact() {
+        return storage.compact();
+    }
+
+    /**
+     * Returns live versus total bytes of the queue environment log, as tracked by the JE cleaner.
+     *
+     * @return current disk usage of the queue environment
+     */
+    public DiskUsage diskUsage() {
+        return storage.diskUsage();
+    }
+
+    private void compactIfNeeded() {
+        try {
+            DiskUsage before = diskUsage();
+            if (before.getUtilization() < compactionThreshold) {
+                int cleanedFiles = compact();
+                LOGGER.info(queueName, "Queue compacted [cleanedFiles={}, before={}, after={}]",
+                        cleanedFiles, before, diskUsage());
+            }
+        } catch (Exception ex) {
+            LOGGER.warn(queueName, "Error occurred during background compaction", ex);
+        }
     }
 
     @Override
-    public Semaphore getSemaphore() {
-        return semaphore;
+    public void close() {
+        if (maintenanceExecutor != null) {
+            maintenanceExecutor.shutdown();
+            try {
+                maintenanceExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException ex) {
+                LOGGER.warn(queueName, "Interrupted during waiting for maintenance termination", ex);
+                Thread.currentThread().interrupt();
+            }
+        }
+        super.close();
+        if (mirror != null) {
+            mirror.close();
+        }
     }
 
 }
@@ -0,0 +1,364 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.util.Preconditions;
+import java.util.concurrent.TimeUnit;
+
+public class BerkeleyDbQueueConfig {
+
+    /**
+     * Value of {@code compactionThreshold} which disables background compaction
+     */
+    public static final int COMPACTION_DISABLED = 0;
+
+    /**
+     * Value of {@code blobThreshold} which disables offloading of large payloads to blobs
+     */
+    public static final int BLOBS_DISABLED = 0;
+
+    private static final long DEFAULT_EXPIRY_PURGE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final int batchSize;
+    private final int cleanerMinUtilization;
+    private final long logFileMaxBytes;
+    private final int compactionThreshold;
+    private final long compactionIntervalMillis;
+    private final long preloadBytes;
+    private final long preloadTimeoutMillis;
+    private final long capacity;
+    private final long capacityBytes;
+    private final long deduplicationRetentionMillis;
+    private final long deduplicationExpectedKeys;
+    private final long timeToLiveMillis;
+    private final long expiryPurgeIntervalMillis;
+    private final String mirrorEnvPath;
+    private final int mirrorMaxLag;
+    private final int mirrorBatchSize;
+    private final int blobThreshold;
+
+    private BerkeleyDbQueueConfig(Builder builder) {
+        this.batchSize = builder.batchSize;
+        this.cleanerMinUtilization = builder.cleanerMinUtilization;
+        this.logFileMaxBytes = builder.logFileMaxBytes;
+        this.compactionThreshold = builder.compactionThreshold;
+        this.compactionIntervalMillis = builder.compactionIntervalMillis;
+        this.preloadBytes = builder.preloadBytes;
+        this.preloadTimeoutMillis = builder.preloadTimeoutMillis;
+        this.capacity = builder.capacity;
+        this.capacityBytes = builder.capacityBytes;
+        this.deduplicationRetentionMillis = builder.deduplicationRetentionMillis;
+        this.deduplicationExpectedKeys = builder.deduplicationExpectedKeys;
+        this.timeToLiveMillis = builder.timeToLiveMillis;
+        this.expiryPurgeIntervalMillis = builder.expiryPurgeIntervalMillis == 0 && builder.timeToLiveMillis > 0
+                ? DEFAULT_EXPIRY_PURGE_INTERVAL_MILLIS : builder.expiryPurgeIntervalMillis;
+        this.mirrorEnvPath = builder.mirrorEnvPath;
+        this.mirrorMaxLag = builder.mirrorMaxLag;
+        this.mirrorBatchSize = builder.mirrorBatchSize;
+        this.blobThreshold = builder.blobThreshold;
+    }
+
+    public static class Builder {
+
+        private int batchSize = 1;
+        private int cleanerMinUtilization = 50;
+        private long logFileMaxBytes = 10_000_000L;
+        private int compactionThreshold = COMPACTION_DISABLED;
+        private long compactionIntervalMillis = TimeUnit.MINUTES.toMillis(1);
+        private long preloadBytes;
+        private long preloadTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+        private long capacity = Long.MAX_VALUE;
+        private long capacityBytes = Long.MAX_VALUE;
+        private long deduplicationRetentionMillis;
+        private long deduplicationExpectedKeys = 1_000_000L;
+        private long timeToLiveMillis;
+        private long expiryPurgeIntervalMillis;
+        private String mirrorEnvPath;
+        private int mirrorMaxLag = 10_000;
+        private int mirrorBatchSize = 1000;
+        private int blobThreshold = BLOBS_DISABLED;
+
+        /**
+         * Number of operations after which the queue database is synced to disk.
+         */
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Log utilization (in percent) below which the JE cleaner starts reclaiming log files.
+         * A queue deletes every record soon after it is written, so a higher value keeps disk usage
+         * closer to the actual backlog at the cost of more cleaner work.
+         */
+        public Builder cleanerMinUtilization(int cleanerMinUtilization) {
+            this.cleanerMinUtilization = cleanerMinUtilization;
+            return this;
+        }
+
+        /**
+         * Maximum size of a single JE log file. Smaller files are cleaned and deleted sooner.
+         */
+        public Builder logFileMaxBytes(long logFileMaxBytes) {
+            this.logFileMaxBytes = logFileMaxBytes;
+            return this;
+        }
+
+        /**
+         * Enables background compaction which runs {@link BerkeleyDbQueue#compact()} whenever log
+         * utilization (in percent) drops below the given threshold.
+         */
+        public Builder compactionThreshold(int compactionThreshold) {
+            this.compactionThreshold = compactionThreshold;
+            return this;
+        }
+
+        /**
+         * How often the log utilization is checked by background compaction.
+         */
+        public Builder compactionInterval(long interval, TimeUnit timeUnit) {
+            Preconditions.checkArgument(timeUnit != null, "The time unit may not be null");
+
+            this.compactionIntervalMillis = timeUnit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * Enables warmup of the JE cache on open. The queue database is loaded in key order, so the
+         * head of the queue, which is polled first, is loaded until the given number of bytes is reached.
+         */
+        public Builder preloadBytes(long preloadBytes) {
+            this.preloadBytes = preloadBytes;
+            return this;
+        }
+
+        /**
+         * Maximum time spent on cache warmup when the queue is opened.
+         */
+        public Builder preloadTimeout(long timeout, TimeUnit timeUnit) {
+            Preconditions.checkArgument(timeUnit != null, "The time unit may not be null");
+
+            this.preloadTimeoutMillis = timeUnit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Maximum number of payloads in the queue. Unbounded by default.
+         */
+        public Builder capacity(long capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Maximum total size of serialized payloads in the queue. Unbounded by default.
+         * A single payload larger than the limit is accepted only by an empty queue.
+         */
+        public Builder capacityBytes(long capacityBytes) {
+            this.capacityBytes = capacityBytes;
+            return this;
+        }
+
+        /**
+         * Enables deduplication by {@link BerkeleyDbQueue#push(Payload, String)}, which rejects a payload
+         * if a payload with the same key was pushed within the retention period. Keys are kept in
+         * a separate database and all keys within the retention period are read when the queue is opened.
+         */
+        public Builder deduplicationRetention(long retention, TimeUnit timeUnit) {
+            Preconditions.checkArgument(timeUnit != null, "The time unit may not be null");
+
+            this.deduplicationRetentionMillis = timeUnit.toMillis(retention);
+            return this;
+        }
+
+        /**
+         * Expected number of keys pushed within the retention period, used to size in-memory Bloom filters
+         * which spare a database read for keys which were certainly not pushed before.
+         */
+        public Builder deduplicationExpectedKeys(long deduplicationExpectedKeys) {
+            this.deduplicationExpectedKeys = deduplicationExpectedKeys;
+            return this;
+        }
+
+        /**
+         * Time after which pushed payloads expire. Expired payloads are skipped by polls without being
+         * deserialized. Payloads never expire by default.
+         */
+        public Builder timeToLive(long timeToLive, TimeUnit timeUnit) {
+            Preconditions.checkArgument(timeUnit != null, "The time unit may not be null");
+
+            this.timeToLiveMillis = timeUnit.toMillis(timeToLive);
+            return this;
+        }
+
+        /**
+         * How often expired payloads are deleted from the head of the queue in the background. Every minute
+         * if {@code timeToLive} is set, disabled otherwise, which may be overridden for payloads pushed with
+         * their own time to live.
+         */
+        public Builder expiryPurgeInterval(long interval, TimeUnit timeUnit) {
+            Preconditions.checkArgument(timeUnit != null, "The time unit may not be null");
+
+            this.expiryPurgeIntervalMillis = timeUnit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * Enables asynchronous mirroring of the queue to an environment at the given path, preferably
+         * on another disk. Appends and removals are applied to the mirror in the background, so that
+         * the mirror may be opened by {@link BerkeleyDbQueue#promoteMirror} when the primary is lost.
+         */
+        public Builder mirror(String mirrorEnvPath) {
+            this.mirrorEnvPath = mirrorEnvPath;
+            return this;
+        }
+
+        /**
+         * Maximum number of appends and removals waiting to be applied to the mirror. Operations
+         * of the queue block when the mirror falls behind by that many operations.
+         */
+        public Builder mirrorMaxLag(int mirrorMaxLag) {
+            this.mirrorMaxLag = mirrorMaxLag;
+            return this;
+        }
+
+        /**
+         * Maximum number of operations applied to the mirror between syncs of the mirror.
+         */
+        public Builder mirrorBatchSize(int mirrorBatchSize) {
+            this.mirrorBatchSize = mirrorBatchSize;
+            return this;
+        }
+
+        /**
+         * Size of serialized payload in bytes above which the payload is written to a separate blob file,
+         * while its record in the queue database keeps a small reference only. Rare large payloads then
+         * do not evict the B-tree from the JE cache or bloat the log. Disabled by default.
+         */
+        public Builder blobThreshold(int blobThreshold) {
+            this.blobThreshold = blobThreshold;
+            return this;
+        }
+
+        @SuppressWarnings("PMD.AccessorClassGeneration")
+        public BerkeleyDbQueueConfig build() {
+            Preconditions.checkArgument(batchSize > 0, "batchSize must be > 0 but is " + batchSize);
+            Preconditions.checkArgument(cleanerMinUtilization >= 0 && cleanerMinUtilization <= 90,
+                    "cleanerMinUtilization must be in range [0, 90] but is " + cleanerMinUtilization);
+            Preconditions.checkArgument(logFileMaxBytes >= 1_000_000L,
+                    "logFileMaxBytes must be >= 1000000 but is " + logFileMaxBytes);
+            Preconditions.checkArgument(compactionThreshold >= 0 && compactionThreshold <= 100,
+                    "compactionThreshold must be in range [0, 100] but is " + compactionThreshold);
+            Preconditions.checkArgument(compactionIntervalMillis > 0,
+                    "compactionInterval must be > 0 but is " + compactionIntervalMillis);
+            Preconditions.checkArgument(preloadBytes >= 0, "preloadBytes must be >= 0 but is " + preloadBytes);
+            Preconditions.checkArgument(preloadTimeoutMillis > 0,
+                    "preloadTimeout must be > 0 but is " + preloadTimeoutMillis);
+            Preconditions.checkArgument(capacity > 0, "capacity must be > 0 but is " + capacity);
+            Preconditions.checkArgument(capacityBytes > 0, "capacityBytes must be > 0 but is " + capacityBytes);
+            Preconditions.checkArgument(deduplicationRetentionMillis >= 0,
+                    "deduplicationRetention must be >= 0 but is " + deduplicationRetentionMillis);
+            Preconditions.checkArgument(timeToLiveMillis >= 0, "timeToLive must be >= 0 but is " + timeToLiveMillis);
+            Preconditions.checkArgument(expiryPurgeIntervalMillis >= 0,
+                    "expiryPurgeInterval must be >= 0 but is " + expiryPurgeIntervalMillis);
+            Preconditions.checkArgument(deduplicationExpectedKeys > 0,
+                    "deduplicationExpectedKeys must be > 0 but is " + deduplicationExpectedKeys);
+            Preconditions.checkArgument(mirrorMaxLag > 0, "mirrorMaxLag must be > 0 but is " + mirrorMaxLag);
+            Preconditions.checkArgument(mirrorBatchSize > 0,
+                    "mirrorBatchSize must be > 0 but is " + mirrorBatchSize);
+            Preconditions.checkArgument(blobThreshold >= 0, "blobThreshold must be >= 0 but is " + blobThreshold);
+
+            return new BerkeleyDbQueueConfig(this);
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getCleanerMinUtilization() {
+        return cleanerMinUtilization;
+    }
+
+    public long getLogFileMaxBytes() {
+        return logFileMaxBytes;
+    }
+
+    public int getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    public long getCompactionIntervalMillis() {
+        return compactionIntervalMillis;
+    }
+
+    public boolean isCompactionEnabled() {
+        return compactionThreshold != COMPACTION_DISABLED;
+    }
+
+    public long getPreloadBytes() {
+        return preloadBytes;
+    }
+
+    public long getPreloadTimeoutMillis() {
+        return preloadTimeoutMillis;
+    }
+
+    public boolean isPreloadEnabled() {
+        return preloadBytes > 0;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    public long getDeduplicationRetentionMillis() {
+        return deduplicationRetentionMillis;
+    }
+
+    public long getDeduplicationExpectedKeys() {
+        return deduplicationExpectedKeys;
+    }
+
+    public boolean isDeduplicationEnabled() {
+        return deduplicationRetentionMillis > 0;
+    }
+
+    public long getTimeToLiveMillis() {
+        return timeToLiveMillis;
+    }
+
+    public long getExpiryPurgeIntervalMillis() {
+        return expiryPurgeIntervalMillis;
+    }
+
+    public boolean isExpiryPurgeEnabled() {
+        return expiryPurgeIntervalMillis > 0;
+    }
+
+    public String getMirrorEnvPath() {
+        return mirrorEnvPath;
+    }
+
+    public int getMirrorMaxLag() {
+        return mirrorMaxLag;
+    }
+
+    public int getMirrorBatchSize() {
+        return mirrorBatchSize;
+    }
+
+    public boolean isMirrorEnabled() {
+        return mirrorEnvPath != null;
+    }
+
+    public int getBlobThreshold() {
+        return blobThreshold;
+    }
+
+    public boolean isBlobOffloadEnabled() {
+        return blobThreshold != BLOBS_DISABLED;
+    }
+}
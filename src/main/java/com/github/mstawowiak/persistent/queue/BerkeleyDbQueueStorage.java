@@ -0,0 +1,558 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.commons.logging.ContextLogger;
+import com.github.mstawowiak.commons.logging.ContextLoggerFactory;
+import com.sleepycat.je.CheckpointConfig;
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+import com.sleepycat.je.PreloadConfig;
+import java.io.File;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Durable {@link QueueStorage} in a Berkeley DB JE environment, the storage of {@link BerkeleyDbQueue}.
+ * Records are kept in a non-transactional deferred-write database ordered by {@link KeyCodec}, so writes
+ * reach the disk on {@link #sync()} only. Head, last key, count and bytes are written as {@link QueueMetadata}
+ * to a metadata database on sync and validated against the first and last key when the storage is reopened,
+ * so opening takes O(log n). Missing or stale metadata falls back to counting records.
+ * <p>
+ * The metadata database also holds named read positions, e.g. of consumer groups, and further storages
+ * may be opened in the same environment.
+ */
+public final class BerkeleyDbQueueStorage implements QueueStorage {
+
+    private static final ContextLogger LOGGER = ContextLoggerFactory.getLogger();
+
+    static final String METADATA_DATABASE_SUFFIX = ".metadata";
+    private static final DatabaseEntry METADATA_KEY = new DatabaseEntry(new byte[] {0});
+    private static final byte POSITION_KEY_PREFIX = 1;
+
+    /**
+     * Size of the largest record assembled in the reused append buffer, larger records are concatenated
+     */
+    private static final int MAX_APPEND_BUFFER_SIZE = 64 * 1024;
+
+    private final String storageName;
+    private final Environment environment;
+
+    /**
+     * Whether the environment is closed together with this storage, {@code false} for storages opened
+     * in the environment of another one
+     */
+    private final boolean ownsEnvironment;
+
+    /**
+     * Berkley DB instance holding the records
+     */
+    private final Database database;
+
+    /**
+     * Berkley DB instance holding {@link QueueMetadata} and read positions
+     */
+    private final Database metadataDatabase;
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile long lastKey;
+
+    /**
+     * Key of the first record or a lower key with no records below, so searches for the first record
+     * skip deleted ones not yet compressed out of the tree
+     */
+    private volatile long headKey;
+
+    /**
+     * Entries and key buffers reused by appends and by deletes, each called by one thread at a time
+     */
+    private final byte[] appendKeyBuffer = new byte[KeyCodec.MAX_KEY_LENGTH];
+    private final DatabaseEntry appendKeyEntry = new DatabaseEntry();
+    private final DatabaseEntry appendDataEntry = new DatabaseEntry();
+    private byte[] appendBuffer = new byte[0];
+    private final byte[] deleteKeyBuffer = new byte[KeyCodec.MAX_KEY_LENGTH];
+    private final DatabaseEntry deleteKeyEntry = new DatabaseEntry();
+    private final DatabaseEntry deleteDataEntry = new DatabaseEntry();
+
+    public BerkeleyDbQueueStorage(final String queueEnvPath, final String storageName) {
+        this(queueEnvPath, storageName, new BerkeleyDbQueueConfig.Builder().build());
+    }
+
+    /**
+     * Opens the storage, only cleaner and log file settings of the config apply.
+     */
+    public BerkeleyDbQueueStorage(final String queueEnvPath, final String storageName,
+            final BerkeleyDbQueueConfig config) {
+        this(openEnvironment(queueEnvPath, config), true, storageName);
+    }
+
+    private BerkeleyDbQueueStorage(Environment environment, boolean ownsEnvironment, String storageName) {
+        this.storageName = storageName;
+        this.environment = environment;
+        this.ownsEnvironment = ownsEnvironment;
+        this.database = environment.openDatabase(null, storageName, databaseConfig());
+        this.metadataDatabase = environment.openDatabase(null, storageName + METADATA_DATABASE_SUFFIX,
+                metadataDatabaseConfig());
+
+        loadMetadata();
+    }
+
+    private static Environment openEnvironment(String queueEnvPath, BerkeleyDbQueueConfig config) {
+        // Create parent dirs for queue environment directory
+        new File(queueEnvPath).mkdirs();
+
+        final EnvironmentConfig dbEnvConfig = new EnvironmentConfig();
+        dbEnvConfig.setTransactional(false);
+        dbEnvConfig.setAllowCreate(true);
+        dbEnvConfig.setConfigParam(EnvironmentConfig.CLEANER_MIN_UTILIZATION,
+                String.valueOf(config.getCleanerMinUtilization()));
+        dbEnvConfig.setConfigParam(EnvironmentConfig.LOG_FILE_MAX,
+                String.valueOf(config.getLogFileMaxBytes()));
+        return new Environment(new File(queueEnvPath), dbEnvConfig);
+    }
+
+    /**
+     * Returns config of a non-transactional metadata database, its writes are flushed to disk along with
+     * the sync of the records.
+     */
+    private static DatabaseConfig metadataDatabaseConfig() {
+        DatabaseConfig metadataDbConfig = new DatabaseConfig();
+        metadataDbConfig.setTransactional(false);
+        metadataDbConfig.setAllowCreate(true);
+        return metadataDbConfig;
+    }
+
+    /**
+     * Returns config of a non-transactional deferred-write database keyed by record numbers.
+     */
+    private static DatabaseConfig databaseConfig() {
+        DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setTransactional(false);
+        dbConfig.setAllowCreate(true);
+        dbConfig.setDeferredWrite(true);
+        dbConfig.setBtreeComparator(new KeyComparator());
+        return dbConfig;
+    }
+
+    private static class KeyComparator implements Comparator<byte[]>, Serializable {
+
+        private static final long serialVersionUID = 1138169225069531524L;
+
+        @Override
+        public int compare(byte[] key1, byte[] key2) {
+            return KeyCodec.compare(key1, key2);
+        }
+
+    }
+
+    /**
+     * Restores head, last key, count and bytes from the metadata database. Stored metadata is
+     * validated against the first and last key of the database, both found in O(log n).
+     * Missing or stale metadata (e.g. after a crash between syncs) falls back to counting records.
+     */
+    private void loadMetadata() {
+        final DatabaseEntry data = new DatabaseEntry();
+        final QueueMetadata stored = metadataDatabase.get(null, METADATA_KEY, data, LockMode.DEFAULT)
+                == OperationStatus.SUCCESS ? QueueMetadata.fromBytes(data.getData()) : null;
+
+        final DatabaseEntry firstKeyEntry = new DatabaseEntry();
+        final DatabaseEntry lastKeyEntry = new DatabaseEntry();
+        final DatabaseEntry ignored = new DatabaseEntry();
+        ignored.setPartial(0, 0, true);
+        final Cursor cursor = database.openCursor(null, null);
+        try {
+            cursor.getFirst(firstKeyEntry, ignored, LockMode.READ_UNCOMMITTED);
+            cursor.getLast(lastKeyEntry, ignored, LockMode.READ_UNCOMMITTED);
+        } finally {
+            cursor.close();
+        }
+
+        if (isValid(stored, firstKeyEntry.getData(), lastKeyEntry.getData())) {
+            headKey = stored.getHead();
+            lastKey = stored.getTail();
+            count.set(stored.getCount());
+            bytes.set(stored.getBytes());
+            return;
+        }
+
+        LOGGER.info(storageName, "Queue metadata missing or stale, counting records [metadata={}]", stored);
+        final long storedLastKey = stored == null ? -1 : stored.getTail();
+        lastKey = lastKeyEntry.getData() == null
+                ? storedLastKey : Math.max(storedLastKey, KeyCodec.fromKey(lastKeyEntry.getData()));
+        headKey = firstKeyEntry.getData() == null ? lastKey + 1 : KeyCodec.fromKey(firstKeyEntry.getData());
+        countRecords();
+        sync();
+    }
+
+    /**
+     * Walks the whole database to compute number and total size of records.
+     */
+    private void countRecords() {
+        long recordsCount = 0;
+        long recordsBytes = 0;
+        final DatabaseEntry key = new DatabaseEntry();
+        final DatabaseEntry data = new DatabaseEntry();
+        final Cursor cursor = database.openCursor(null, null);
+        try {
+            while (cursor.getNext(key, data, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+                recordsCount++;
+                recordsBytes += RecordFormat.payloadSize(data.getData());
+            }
+        } finally {
+            cursor.close();
+        }
+        count.set(recordsCount);
+        bytes.set(recordsBytes);
+    }
+
+    private static boolean isValid(QueueMetadata metadata, byte[] firstKey, byte[] lastKey) {
+        if (metadata == null) {
+            return false;
+        }
+        if (firstKey == null) {
+            return metadata.getCount() == 0;
+        }
+        return metadata.getHead() == KeyCodec.fromKey(firstKey)
+                && metadata.getTail() == KeyCodec.fromKey(lastKey)
+                && metadata.getCount() > 0
+                && metadata.getCount() <= metadata.getTail() - metadata.getHead() + 1;
+    }
+
+    @Override
+    public void append(long key, byte[] record) {
+        appendDataEntry.setData(record);
+        put(key, RecordFormat.payloadSize(record));
+    }
+
+    /**
+     * {@inheritDoc} JE copies the record into its own node, so records up to {@link #MAX_APPEND_BUFFER_SIZE}
+     * are assembled in a reused buffer.
+     */
+    @Override
+    public void append(long key, byte[] header, byte[] payload) {
+        final int length = header.length + payload.length;
+        if (length > MAX_APPEND_BUFFER_SIZE) {
+            append(key, RecordFormat.toRecord(header, payload));
+            return;
+        }
+        if (appendBuffer.length < length) {
+            appendBuffer = new byte[Math.min(Math.max(length, 2 * appendBuffer.length), MAX_APPEND_BUFFER_SIZE)];
+        }
+        System.arraycopy(header, 0, appendBuffer, 0, header.length);
+        System.arraycopy(payload, 0, appendBuffer, header.length, payload.length);
+        appendDataEntry.setData(appendBuffer, 0, length);
+        put(key, payload.length);
+    }
+
+    private void put(long key, int payloadSize) {
+        appendKeyEntry.setData(appendKeyBuffer, 0, KeyCodec.writeKey(key, appendKeyBuffer));
+        database.put(null, appendKeyEntry, appendDataEntry);
+        lastKey = key;
+        count.incrementAndGet();
+        bytes.addAndGet(payloadSize);
+    }
+
+    @Override
+    public Record readHead(long fromKey) {
+        return readHead(fromKey, new DatabaseEntry());
+    }
+
+    /**
+     * {@inheritDoc} Only the requested part of the record is copied out of the database.
+     */
+    @Override
+    public Record readHead(long fromKey, int maxLength) {
+        final DatabaseEntry data = new DatabaseEntry();
+        data.setPartial(0, maxLength, true);
+        return readHead(fromKey, data);
+    }
+
+    private Record readHead(long fromKey, DatabaseEntry data) {
+        final DatabaseEntry key = new DatabaseEntry(KeyCodec.toKey(fromKey));
+        final Cursor cursor = database.openCursor(null, null);
+        try {
+            if (cursor.getSearchKeyRange(key, data, LockMode.READ_UNCOMMITTED) != OperationStatus.SUCCESS) {
+                return null;
+            }
+        } finally {
+            cursor.close();
+        }
+        return new Record(KeyCodec.fromKey(key.getData()), data.getData());
+    }
+
+    /**
+     * {@inheritDoc} Records are read by a single short-lived cursor with {@link LockMode#READ_UNCOMMITTED},
+     * so a read never holds locks which could block appends or deletes.
+     */
+    @Override
+    public List<Record> readRange(long fromKey, long toKey, int maxRecords) {
+        final List<Record> records = new ArrayList<>();
+        final DatabaseEntry key = new DatabaseEntry(KeyCodec.toKey(fromKey));
+        final DatabaseEntry data = new DatabaseEntry();
+        final Cursor cursor = database.openCursor(null, null);
+        try {
+            OperationStatus status = cursor.getSearchKeyRange(key, data, LockMode.READ_UNCOMMITTED);
+            while (status == OperationStatus.SUCCESS && records.size() < maxRecords) {
+                final long keyValue = KeyCodec.fromKey(key.getData());
+                if (keyValue > toKey) {
+                    break;
+                }
+                records.add(new Record(keyValue, data.getData()));
+                status = cursor.getNext(key, data, LockMode.READ_UNCOMMITTED);
+            }
+        } finally {
+            cursor.close();
+        }
+        return records;
+    }
+
+    @Override
+    public Record removeHead(long fromKey) {
+        final DatabaseEntry key = deleteKeyEntry;
+        final DatabaseEntry data = deleteDataEntry;
+        key.setData(deleteKeyBuffer, 0, KeyCodec.writeKey(fromKey, deleteKeyBuffer));
+        final Cursor cursor = database.openCursor(null, null);
+        try {
+            if (cursor.getSearchKeyRange(key, data, LockMode.RMW) != OperationStatus.SUCCESS) {
+                return null;
+            }
+            cursor.delete();
+        } finally {
+            cursor.close();
+        }
+        final long keyValue = KeyCodec.fromKey(key.getData());
+        count.decrementAndGet();
+        bytes.addAndGet(-RecordFormat.payloadSize(data.getData()));
+        if (fromKey <= headKey) {
+            headKey = keyValue + 1;
+        }
+        return new Record(keyValue, data.getData());
+    }
+
+    /**
+     * {@inheritDoc} The search starts at {@code fromKey}, so records deleted before and not yet
+     * compressed out of the tree are not visited.
+     */
+    @Override
+    public long deleteRange(long fromKey, long toKey) {
+        final long emptyHeadKey = lastKey + 1;
+        long deleted = 0;
+        long deletedBytes = 0;
+        final DatabaseEntry key = deleteKeyEntry;
+        final DatabaseEntry data = deleteDataEntry;
+        key.setData(deleteKeyBuffer, 0, KeyCodec.writeKey(fromKey, deleteKeyBuffer));
+        final Cursor cursor = database.openCursor(null, null);
+        OperationStatus status;
+        try {
+            status = cursor.getSearchKeyRange(key, data, LockMode.RMW);
+            while (status == OperationStatus.SUCCESS && KeyCodec.fromKey(key.getData()) < toKey) {
+                cursor.delete();
+                deleted++;
+                deletedBytes += RecordFormat.payloadSize(data.getData());
+                status = cursor.getNext(key, data, LockMode.RMW);
+            }
+        } finally {
+            cursor.close();
+        }
+        count.addAndGet(-deleted);
+        bytes.addAndGet(-deletedBytes);
+        if (fromKey <= headKey) {
+            headKey = status == OperationStatus.SUCCESS
+                    ? KeyCodec.fromKey(key.getData()) : Math.max(headKey, Math.min(toKey, emptyHeadKey));
+        }
+        return deleted;
+    }
+
+    /**
+     * Writes metadata and syncs the database, which flushes the metadata write as well.
+     */
+    @Override
+    public void sync() {
+        metadataDatabase.put(null, METADATA_KEY, new DatabaseEntry(metadata().toBytes()));
+        database.sync();
+    }
+
+    @Override
+    public long count() {
+        return count.get();
+    }
+
+    @Override
+    public long bytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public long lastKey() {
+        return lastKey;
+    }
+
+    /**
+     * Returns current head, last key, count and bytes of the storage.
+     */
+    QueueMetadata metadata() {
+        return new QueueMetadata(headKey, lastKey, count.get(), bytes.get());
+    }
+
+    /**
+     * Replaces all records of this storage by records of the source storage, each passed through
+     * the transformer, which drops the record by returning {@code null}. The source may not be modified
+     * meanwhile. The copy is synced.
+     */
+    void copyFrom(BerkeleyDbQueueStorage source, UnaryOperator<byte[]> transformer) {
+        final DatabaseEntry key = new DatabaseEntry();
+        final DatabaseEntry data = new DatabaseEntry();
+        final Cursor cursor = database.openCursor(null, null);
+        try {
+            while (cursor.getNext(key, data, LockMode.RMW) == OperationStatus.SUCCESS) {
+                cursor.delete();
+            }
+        } finally {
+            cursor.close();
+        }
+
+        long copiedCount = 0;
+        long copiedBytes = 0;
+        final Cursor sourceCursor = source.database.openCursor(null, null);
+        try {
+            while (sourceCursor.getNext(key, data, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+                final byte[] record = transformer.apply(data.getData());
+                if (record != null) {
+                    database.put(null, key, new DatabaseEntry(record));
+                    copiedCount++;
+                    copiedBytes += RecordFormat.payloadSize(record);
+                }
+            }
+        } finally {
+            sourceCursor.close();
+        }
+        headKey = source.headKey;
+        lastKey = source.lastKey;
+        count.set(copiedCount);
+        bytes.set(copiedBytes);
+        sync();
+    }
+
+    /**
+     * Opens another storage in the environment of this one. It has to be closed before this one.
+     *
+     * @param name name of the storage
+     * @return the opened storage
+     */
+    BerkeleyDbQueueStorage openStorage(String name) {
+        return new BerkeleyDbQueueStorage(environment, false, name);
+    }
+
+    /**
+     * Deletes closed storage of the given name, opened by {@link #openStorage(String)} before.
+     *
+     * @param name name of the storage
+     */
+    void removeStorage(String name) {
+        environment.removeDatabase(null, name);
+        environment.removeDatabase(null, name + METADATA_DATABASE_SUFFIX);
+    }
+
+    private static DatabaseEntry positionKey(String name) {
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        final byte[] key = new byte[nameBytes.length + 1];
+        key[0] = POSITION_KEY_PREFIX;
+        System.arraycopy(nameBytes, 0, key, 1, nameBytes.length);
+        return new DatabaseEntry(key);
+    }
+
+    /**
+     * Returns read positions written by {@link #writePosition(String, long)}, in order of names.
+     *
+     * @return positions by names
+     */
+    Map<String, Long> readPositions() {
+        final Map<String, Long> positions = new LinkedHashMap<>();
+        final DatabaseEntry key = new DatabaseEntry(new byte[] {POSITION_KEY_PREFIX});
+        final DatabaseEntry data = new DatabaseEntry();
+        final Cursor cursor = metadataDatabase.openCursor(null, null);
+        try {
+            OperationStatus status = cursor.getSearchKeyRange(key, data, LockMode.READ_UNCOMMITTED);
+            while (status == OperationStatus.SUCCESS && key.getData()[0] == POSITION_KEY_PREFIX) {
+                positions.put(new String(key.getData(), 1, key.getSize() - 1, StandardCharsets.UTF_8),
+                        ByteBuffer.wrap(data.getData()).getLong());
+                status = cursor.getNext(key, data, LockMode.READ_UNCOMMITTED);
+            }
+        } finally {
+            cursor.close();
+        }
+        return positions;
+    }
+
+    /**
+     * Stores read position of the given name, made durable by the next sync.
+     */
+    void writePosition(String name, long position) {
+        metadataDatabase.put(null, positionKey(name),
+                new DatabaseEntry(ByteBuffer.allocate(Long.BYTES).putLong(position).array()));
+    }
+
+    void deletePosition(String name) {
+        metadataDatabase.delete(null, positionKey(name));
+    }
+
+    Environment environment() {
+        return environment;
+    }
+
+    /**
+     * Loads records into the JE cache, until the cache is full or the time runs out.
+     */
+    void preload(long maxBytes, long maxMillis) {
+        database.preload(new PreloadConfig()
+                .setMaxBytes(maxBytes)
+                .setMaxMillisecs(maxMillis)
+                .setLoadLNs(true));
+    }
+
+    /**
+     * Flushes the database, cleans log files until no more files qualify for cleaning and forces
+     * a checkpoint, so that cleaned files can be deleted.
+     *
+     * @return number of cleaned log files
+     */
+    int compact() {
+        database.sync();
+
+        int cleanedFiles = 0;
+        int cleaned;
+        while ((cleaned = environment.cleanLog()) > 0) {
+            cleanedFiles += cleaned;
+        }
+
+        environment.checkpoint(new CheckpointConfig().setForce(true));
+        return cleanedFiles;
+    }
+
+    DiskUsage diskUsage() {
+        return LogUtilization.of(environment);
+    }
+
+    @Override
+    public void close() {
+        sync();
+        metadataDatabase.close();
+        database.close();
+        if (ownsEnvironment) {
+            environment.close();
+        }
+    }
+}
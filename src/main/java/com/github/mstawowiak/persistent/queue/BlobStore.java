@@ -0,0 +1,251 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.commons.logging.ContextLogger;
+import com.github.mstawowiak.commons.logging.ContextLoggerFactory;
+import com.github.mstawowiak.persistent.queue.exception.EnqueueException;
+import com.github.mstawowiak.persistent.queue.exception.SerializationException;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Files holding payloads offloaded from records of a queue, one file per blob named by its id, in
+ * a directory of the queue environment. Payloads are written and read as streams, so a large payload never
+ * passes through the JE cache and log, while its record keeps a small reference only.
+ * <p>
+ * The directory is created on the first offload, blobs are read regardless of the offload threshold.
+ * A blob is deleted once deletion of its record is synced, so that a record restored after a crash still
+ * finds its blob, and once a polled payload is read from it outside the lock of the queue. Blobs left
+ * behind by a crash are deleted when the queue is opened.
+ */
+final class BlobStore {
+
+    private static final ContextLogger LOGGER = ContextLoggerFactory.getLogger();
+
+    private static final String BLOB_FILE_SUFFIX = ".blob";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String queueName;
+    private final File directory;
+    private boolean directoryCreated;
+
+    /**
+     * Ids of blobs whose records were deleted since the last sync, guarded by the lock of the queue
+     */
+    private final List<Long> pendingDeletes = new ArrayList<>();
+
+    /**
+     * Number of readers of blobs of delivered payloads which have not read them yet, by blob id, guarded by itself
+     */
+    private final Map<Long, Integer> readers = new HashMap<>();
+
+    /**
+     * Ids of blobs whose records' deletion is synced while they are still read, guarded by {@link #readers}
+     */
+    private final Set<Long> deferredDeletes = new HashSet<>();
+
+    BlobStore(File directory, String queueName) {
+        this.queueName = queueName;
+        this.directory = directory;
+    }
+
+    private Path path(long blobId) {
+        return new File(directory, blobId + BLOB_FILE_SUFFIX).toPath();
+    }
+
+    /**
+     * Writes the payload to a blob and forces it to disk, must be called with the lock of the queue held.
+     *
+     * @param blobId  id of the blob, unique in the queue
+     * @param header  header of the record of the payload
+     * @param payload serialized payload
+     * @return reference to the blob, to be stored instead of the record
+     */
+    byte[] offload(long blobId, byte[] header, byte[] payload) {
+        if (!directoryCreated) {
+            directory.mkdirs();
+            directoryCreated = true;
+        }
+        final Path path = path(blobId);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(payload);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException ex) {
+            throw new EnqueueException("Unable to write payload blob " + path, ex);
+        }
+        return RecordFormat.toBlobReference(header, payload.length, blobId);
+    }
+
+    /**
+     * Opens stream of the payload held by the referenced blob.
+     *
+     * @return the stream, {@code null} if the blob was deleted together with its record
+     * @throws SerializationException if the blob cannot be read
+     */
+    InputStream open(byte[] reference) {
+        final Path path = path(RecordFormat.blobId(reference));
+        try {
+            return new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (IOException ex) {
+            throw new SerializationException("Cannot read payload blob " + path, ex);
+        }
+    }
+
+    /**
+     * Opens stream of the payload held by the referenced blob, which has to exist.
+     *
+     * @throws SerializationException if the blob is missing or cannot be read
+     */
+    InputStream stream(byte[] reference) {
+        final InputStream in = open(reference);
+        if (in == null) {
+            throw new SerializationException("Payload blob " + RecordFormat.blobId(reference) + " is missing",
+                    null);
+        }
+        return in;
+    }
+
+    /**
+     * Reads the payload held by the referenced blob.
+     *
+     * @throws SerializationException if the blob is missing or cannot be read
+     */
+    byte[] read(byte[] reference) {
+        return readFully(stream(reference), reference);
+    }
+
+    /**
+     * Restores the record of the blob reference, for copies of the queue which keep payloads inline.
+     *
+     * @return the record, {@code null} if the blob was deleted together with its record
+     */
+    byte[] inline(byte[] reference) {
+        final InputStream in = open(reference);
+        return in == null ? null : RecordFormat.withPayload(reference, readFully(in, reference));
+    }
+
+    private static byte[] readFully(InputStream in, byte[] reference) {
+        final byte[] payload = new byte[RecordFormat.payloadSize(reference)];
+        try (DataInputStream data = new DataInputStream(in)) {
+            data.readFully(payload);
+        } catch (IOException ex) {
+            throw new SerializationException("Cannot read payload blob " + RecordFormat.blobId(reference), ex);
+        }
+        return payload;
+    }
+
+    /**
+     * Schedules deletion of the blob referenced by a deleted record, must be called with the lock
+     * of the queue held. Records which are not blob references are ignored.
+     */
+    void deleteAfterSync(byte[] record) {
+        if (RecordFormat.isBlobReference(record)) {
+            pendingDeletes.add(RecordFormat.blobId(record));
+        }
+    }
+
+    /**
+     * Keeps the referenced blob for one more reader until it is {@link #release(byte[]) released}, must be
+     * called with the lock of the queue held, before the payload is read without the lock.
+     */
+    void retain(byte[] reference) {
+        synchronized (readers) {
+            readers.merge(RecordFormat.blobId(reference), 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Releases the referenced blob once its payload has been read. The blob is deleted when its last reader
+     * releases it, if deletion of its record has already been synced.
+     */
+    void release(byte[] reference) {
+        final long blobId = RecordFormat.blobId(reference);
+        final boolean deletable;
+        synchronized (readers) {
+            deletable = readers.computeIfPresent(blobId, (id, count) -> count == 1 ? null : count - 1) == null
+                    && deferredDeletes.remove(blobId);
+        }
+        if (deletable) {
+            delete(path(blobId));
+        }
+    }
+
+    /**
+     * Deletes blobs of records whose deletion has been synced, must be called with the lock of the queue held.
+     * Retained blobs are deleted when their last reader releases them.
+     */
+    void deletePending() {
+        if (pendingDeletes.isEmpty()) {
+            return;
+        }
+        for (Long blobId : pendingDeletes) {
+            final boolean isRead;
+            synchronized (readers) {
+                isRead = readers.containsKey(blobId);
+                if (isRead) {
+                    deferredDeletes.add(blobId);
+                }
+            }
+            if (!isRead) {
+                delete(path(blobId));
+            }
+        }
+        pendingDeletes.clear();
+    }
+
+    /**
+     * Deletes blobs with ids out of the range of keys in the queue, left behind by a crash before their
+     * deletion or before their record was synced.
+     */
+    void deleteOrphans(long headKey, long tailKey) {
+        if (!directory.isDirectory()) {
+            return;
+        }
+        int deleted = 0;
+        try (DirectoryStream<Path> blobs = Files.newDirectoryStream(directory.toPath(), "*" + BLOB_FILE_SUFFIX)) {
+            for (Path blob : blobs) {
+                final String fileName = blob.getFileName().toString();
+                final long blobId = Long.parseLong(
+                        fileName.substring(0, fileName.length() - BLOB_FILE_SUFFIX.length()));
+                if (blobId < headKey || blobId > tailKey) {
+                    delete(blob);
+                    deleted++;
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            LOGGER.warn(queueName, "Error occurred during deleting orphaned payload blobs", ex);
+        }
+        if (deleted > 0) {
+            LOGGER.info(queueName, "Orphaned payload blobs deleted [blobs={}]", deleted);
+        }
+    }
+
+    private void delete(Path blob) {
+        try {
+            Files.deleteIfExists(blob);
+        } catch (IOException ex) {
+            LOGGER.warn(queueName, "Unable to delete payload blob " + blob, ex);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.util.BloomFilter;
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keys of payloads pushed within the retention period, kept in a deferred-write database with the time
+ * of push. Two generations of Bloom filters, each covering one retention period, answer the common case
+ * of a new key without reading the database. The filters are rotated and expired keys are deleted by
+ * {@link #purgeExpired(long)}, which is expected to be called once per retention period.
+ */
+final class Deduplicator {
+
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+    private static final int PURGE_BATCH_SIZE = 1000;
+
+    private final Database database;
+    private final long retentionMillis;
+    private final long expectedKeys;
+
+    private BloomFilter currentKeys;
+    private BloomFilter previousKeys;
+
+    Deduplicator(Environment environment, String databaseName, long retentionMillis, long expectedKeys,
+            long nowMillis) {
+        final DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setTransactional(false);
+        dbConfig.setAllowCreate(true);
+        dbConfig.setDeferredWrite(true);
+        this.database = environment.openDatabase(null, databaseName, dbConfig);
+        this.retentionMillis = retentionMillis;
+        this.expectedKeys = expectedKeys;
+        this.currentKeys = new BloomFilter(expectedKeys, FALSE_POSITIVE_PROBABILITY);
+        this.previousKeys = new BloomFilter(expectedKeys, FALSE_POSITIVE_PROBABILITY);
+
+        final DatabaseEntry key = new DatabaseEntry();
+        final DatabaseEntry data = new DatabaseEntry();
+        final Cursor cursor = database.openCursor(null, null);
+        try {
+            while (cursor.getNext(key, data, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+                if (!isExpired(data, nowMillis)) {
+                    currentKeys.add(key.getData());
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private boolean isExpired(DatabaseEntry pushedAt, long nowMillis) {
+        return nowMillis - ByteBuffer.wrap(pushedAt.getData()).getLong() >= retentionMillis;
+    }
+
+    /**
+     * Checks whether the key was registered within the retention period.
+     */
+    synchronized boolean isDuplicate(byte[] key, long nowMillis) {
+        if (!currentKeys.mightContain(key) && !previousKeys.mightContain(key)) {
+            return false;
+        }
+        final DatabaseEntry data = new DatabaseEntry();
+        return database.get(null, new DatabaseEntry(key), data, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS
+                && !isExpired(data, nowMillis);
+    }
+
+    synchronized void register(byte[] key, long nowMillis) {
+        database.put(null, new DatabaseEntry(key),
+                new DatabaseEntry(ByteBuffer.allocate(Long.BYTES).putLong(nowMillis).array()));
+        currentKeys.add(key);
+    }
+
+    /**
+     * Starts a new generation of Bloom filters and deletes expired keys in batches, so that pushes
+     * are not held for the whole scan.
+     *
+     * @return number of deleted keys
+     */
+    long purgeExpired(long nowMillis) {
+        synchronized (this) {
+            previousKeys = currentKeys;
+            currentKeys = new BloomFilter(expectedKeys, FALSE_POSITIVE_PROBABILITY);
+        }
+
+        long purged = 0;
+        final DatabaseEntry key = new DatabaseEntry();
+        final DatabaseEntry data = new DatabaseEntry();
+        final List<byte[]> expiredKeys = new ArrayList<>(PURGE_BATCH_SIZE);
+        boolean hasMore = true;
+        while (hasMore) {
+            final Cursor cursor = database.openCursor(null, null);
+            try {
+                OperationStatus status = key.getData() == null
+                        ? cursor.getFirst(key, data, LockMode.READ_UNCOMMITTED)
+                        : cursor.getSearchKeyRange(key, data, LockMode.READ_UNCOMMITTED);
+                int scanned = 0;
+                while (status == OperationStatus.SUCCESS && scanned++ < PURGE_BATCH_SIZE) {
+                    if (isExpired(data, nowMillis)) {
+                        expiredKeys.add(key.getData());
+                    }
+                    status = cursor.getNext(key, data, LockMode.READ_UNCOMMITTED);
+                }
+                hasMore = status == OperationStatus.SUCCESS;
+            } finally {
+                cursor.close();
+            }
+            purged += delete(expiredKeys, nowMillis);
+            expiredKeys.clear();
+        }
+        return purged;
+    }
+
+    private synchronized int delete(List<byte[]> expiredKeys, long nowMillis) {
+        int deleted = 0;
+        final DatabaseEntry data = new DatabaseEntry();
+        for (byte[] expiredKey : expiredKeys) {
+            final DatabaseEntry key = new DatabaseEntry(expiredKey);
+            if (database.get(null, key, data, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS
+                    && isExpired(data, nowMillis)) {
+                database.delete(null, key);
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    synchronized void sync() {
+        database.sync();
+    }
+
+    synchronized void close() {
+        database.close();
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.mstawowiak.persistent.queue;
+
+/**
+ * Snapshot of the disk space occupied by a queue environment.
+ */
+public final class DiskUsage {
+
+    private static final int PERCENT = 100;
+
+    /**
+     * Bytes of the log still referenced by the queue
+     */
+    private final long liveBytes;
+
+    /**
+     * Bytes of all log files, including obsolete entries not yet reclaimed by the cleaner
+     */
+    private final long totalBytes;
+
+    public DiskUsage(long liveBytes, long totalBytes) {
+        this.liveBytes = liveBytes;
+        this.totalBytes = totalBytes;
+    }
+
+    public long getLiveBytes() {
+        return liveBytes;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getObsoleteBytes() {
+        return totalBytes - liveBytes;
+    }
+
+    /**
+     * Returns percentage of live bytes in the log, 100 for an empty log
+     *
+     * @return utilization of the log in percent
+     */
+    public int getUtilization() {
+        if (totalBytes == 0) {
+            return PERCENT;
+        }
+        return (int) (liveBytes * PERCENT / totalBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "DiskUsage[liveBytes=" + liveBytes + ", totalBytes=" + totalBytes
+                + ", utilization=" + getUtilization() + "%]";
+    }
+}
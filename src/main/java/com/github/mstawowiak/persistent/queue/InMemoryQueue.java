@@ -0,0 +1,435 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.exception.EnqueueException;
+import com.github.mstawowiak.persistent.queue.exception.SerializationException;
+import com.github.mstawowiak.persistent.queue.util.Preconditions;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Non-durable queue kept in memory, for queues which need no persistence and for tests. Payloads are
+ * lost when the process exits.
+ * <p>
+ * The queue is a lock-free bounded ring buffer for multiple producers and consumers: each slot has
+ * a sequence number telling whether it is ready to be written or read in the current lap, and
+ * producers and consumers claim slots by a compare-and-set of the enqueue and dequeue positions.
+ * Both positions are padded against false sharing. Blocking operations wait by spinning and then
+ * parking with growing pauses, as there is no lock to wait on.
+ * <p>
+ * A payload requeued while the ring is full is kept in an overflow list. A consumer which takes a payload
+ * from the ring moves the oldest overflowed payload into the ring, into the freed slot if it is the next
+ * to be written, before producers can claim it. So a requeued payload goes to the tail as in a durable queue
+ * and is not starved by producers keeping the ring full.
+ * <p>
+ * Payloads are held by reference, so they should not be modified after being pushed. Serialized
+ * payloads given to the raw methods are deserialized on poll and the other way round.
+ *
+ * @param <P> the type of payload held in this queue
+ */
+public class InMemoryQueue<P extends Payload> implements Queue<P> {
+
+    /**
+     * Capacity used when the queue is created without one
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final int SPINS = 100;
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int MAX_PARK_SHIFT = 10;
+
+    private final String queueName;
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<Object> buffer;
+    private final AtomicLongArray sequences;
+    private final PaddedSequence enqueuePosition = new PaddedSequence();
+    private final PaddedSequence dequeuePosition = new PaddedSequence();
+
+    /**
+     * Payloads requeued while the ring was full, as requeue never fails on capacity. They are moved
+     * back to the ring by consumers as slots are freed.
+     */
+    private final ConcurrentLinkedQueue<Object> overflow = new ConcurrentLinkedQueue<>();
+    private final AtomicLong overflowCount = new AtomicLong();
+
+    public InMemoryQueue(final String queueName) {
+        this(queueName, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates queue holding up to {@code capacity} payloads, rounded up to a power of two.
+     */
+    public InMemoryQueue(final String queueName, final int capacity) {
+        Preconditions.checkArgument(capacity > 0 && capacity <= MAX_CAPACITY,
+                "capacity must be in range (0, " + MAX_CAPACITY + "] but is " + capacity);
+
+        this.queueName = queueName;
+        this.capacity = capacity == 1 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.buffer = new AtomicReferenceArray<>(this.capacity);
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    private boolean offerElement(Object element) {
+        long position = enqueuePosition.get();
+        while (true) {
+            final int index = (int) position & mask;
+            final long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (enqueuePosition.compareAndSet(position, position + 1)) {
+                    buffer.lazySet(index, element);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = enqueuePosition.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = enqueuePosition.get();
+            }
+        }
+    }
+
+    private Object pollElement() {
+        long position = dequeuePosition.get();
+        while (true) {
+            final int index = (int) position & mask;
+            final long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (dequeuePosition.compareAndSet(position, position + 1)) {
+                    final Object element = buffer.get(index);
+                    if (!handOverSlot(index, position + capacity)) {
+                        buffer.lazySet(index, null);
+                        sequences.lazySet(index, position + capacity);
+                        drainOverflow();
+                    }
+                    return element;
+                }
+                position = dequeuePosition.get();
+            } else if (difference < 0) {
+                return pollOverflow();
+            } else {
+                position = dequeuePosition.get();
+            }
+        }
+    }
+
+    /**
+     * Writes the oldest overflowed payload to the slot just taken by a consumer, if the slot is the next
+     * one to be written, i.e. the ring was full. Producers cannot claim the slot meanwhile, as it is not
+     * released to them.
+     *
+     * @param slotPosition enqueue position at which the slot is written next
+     * @return {@code true} if the slot was handed over to an overflowed payload
+     */
+    private boolean handOverSlot(int index, long slotPosition) {
+        if (overflowCount.get() == 0 || enqueuePosition.get() != slotPosition) {
+            return false;
+        }
+        final Object element = pollOverflow();
+        if (element == null) {
+            return false;
+        }
+        if (!enqueuePosition.compareAndSet(slotPosition, slotPosition + 1)) {
+            requeueElement(element);
+            return false;
+        }
+        buffer.lazySet(index, element);
+        sequences.lazySet(index, slotPosition + 1);
+        return true;
+    }
+
+    /**
+     * Moves the oldest overflowed payload to the ring if it has space, so that overflowed payloads are not
+     * left behind while the ring is never drained. A payload which does not fit goes back to the overflow.
+     */
+    private void drainOverflow() {
+        if (overflowCount.get() > 0) {
+            final Object element = pollOverflow();
+            if (element != null) {
+                requeueElement(element);
+            }
+        }
+    }
+
+    private Object pollOverflow() {
+        final Object element = overflow.poll();
+        if (element != null) {
+            overflowCount.decrementAndGet();
+        }
+        return element;
+    }
+
+    private void pushElement(Object element) {
+        if (!offerElement(element)) {
+            throw new EnqueueException("Unable to enqueue payload, queue is full [capacity=" + capacity + "]",
+                    null);
+        }
+    }
+
+    private void requeueElement(Object element) {
+        if (!offerElement(element)) {
+            overflow.add(element);
+            overflowCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Waits a little longer on every attempt: spins, then parks up to {@link #MAX_PARK_NANOS}.
+     *
+     * @return {@code false} if no time is left to wait
+     */
+    private static boolean backOff(int attempt, long remainingNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (remainingNanos <= 0) {
+            return false;
+        }
+        if (attempt > SPINS) {
+            final long parkNanos = MIN_PARK_NANOS << Math.min(attempt - SPINS, MAX_PARK_SHIFT);
+            LockSupport.parkNanos(Math.min(remainingNanos, Math.min(parkNanos, MAX_PARK_NANOS)));
+        }
+        return true;
+    }
+
+    private boolean offerElement(Object element, long timeoutNanos) throws InterruptedException {
+        final long start = System.nanoTime();
+        int attempt = 0;
+        while (!offerElement(element)) {
+            if (!backOff(++attempt, timeoutNanos - (System.nanoTime() - start))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Object pollElement(long timeoutNanos) throws InterruptedException {
+        final long start = System.nanoTime();
+        int attempt = 0;
+        Object element;
+        while ((element = pollElement()) == null) {
+            if (!backOff(++attempt, timeoutNanos - (System.nanoTime() - start))) {
+                return null;
+            }
+        }
+        return element;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <P extends Payload> P toPayload(Object element) {
+        return element == null || element instanceof Payload ? (P) element : Payload.deserialize((byte[]) element);
+    }
+
+    private static byte[] toData(Object element) {
+        return element == null || element instanceof byte[] ? (byte[]) element : ((Payload) element).serialize();
+    }
+
+    private static Object checkPayload(Object payload) {
+        if (payload == null) {
+            throw new EnqueueException("Unable to enqueue payload", new NullPointerException("payload"));
+        }
+        return payload;
+    }
+
+    @Override
+    public void push(P payload) {
+        pushElement(checkPayload(payload));
+    }
+
+    @Override
+    public boolean offer(P payload) {
+        return offerElement(checkPayload(payload));
+    }
+
+    @Override
+    public boolean offer(P payload, long timeout, TimeUnit unit) throws InterruptedException {
+        return offerElement(checkPayload(payload), unit.toNanos(timeout));
+    }
+
+    @Override
+    public void put(P payload) throws InterruptedException {
+        offerElement(checkPayload(payload), Long.MAX_VALUE);
+    }
+
+    @Override
+    public void requeue(P payload) {
+        requeueElement(checkPayload(payload));
+    }
+
+    @Override
+    public void pushRaw(byte[] data) {
+        pushElement(checkPayload(data));
+    }
+
+    @Override
+    public void requeueRaw(byte[] data) {
+        requeueElement(checkPayload(data));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws SerializationException if the payload was pushed serialized and cannot be deserialized
+     */
+    @Override
+    public P poll() {
+        return toPayload(pollElement());
+    }
+
+    @Override
+    public P poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return toPayload(pollElement(unit.toNanos(timeout)));
+    }
+
+    @Override
+    public P take() throws InterruptedException {
+        return toPayload(pollElement(Long.MAX_VALUE));
+    }
+
+    @Override
+    public byte[] pollRaw() {
+        return toData(pollElement());
+    }
+
+    @Override
+    public byte[] pollRaw(long timeout, TimeUnit unit) throws InterruptedException {
+        return toData(pollElement(unit.toNanos(timeout)));
+    }
+
+    @Override
+    public P remove() {
+        P payload = poll();
+        if (payload != null) {
+            return payload;
+        } else {
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * {@inheritDoc} The payload may be taken by a consumer at the same time.
+     */
+    @Override
+    public P peek() {
+        final long position = dequeuePosition.get();
+        final int index = (int) position & mask;
+        final Object element = buffer.get(index);
+        if (element != null && sequences.get(index) == position + 1) {
+            return toPayload(element);
+        }
+        return toPayload(overflow.peek());
+    }
+
+    @Override
+    public byte[] peekRaw() {
+        final long position = dequeuePosition.get();
+        final int index = (int) position & mask;
+        final Object element = buffer.get(index);
+        if (element != null && sequences.get(index) == position + 1) {
+            return toData(element);
+        }
+        return toData(overflow.peek());
+    }
+
+    @Override
+    public P element() {
+        P payload = peek();
+        if (payload != null) {
+            return payload;
+        } else {
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * Returns iterator over a snapshot of payloads in the queue, taken without blocking producers
+     * and consumers. Payloads taken meanwhile may be missing from the snapshot.
+     */
+    @Override
+    public Iterator<P> iterator() {
+        final List<P> snapshot = new ArrayList<>();
+        final long tail = enqueuePosition.get();
+        for (long position = dequeuePosition.get(); position < tail; position++) {
+            final int index = (int) position & mask;
+            final Object element = buffer.get(index);
+            if (element != null && sequences.get(index) == position + 1) {
+                snapshot.add(toPayload(element));
+            }
+        }
+        for (Object element : overflow) {
+            snapshot.add(toPayload(element));
+        }
+        return snapshot.iterator();
+    }
+
+    @Override
+    public String name() {
+        return queueName;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public long size() {
+        final long head = dequeuePosition.get();
+        final long tail = enqueuePosition.get();
+        return Math.max(0, Math.min(capacity, tail - head)) + overflowCount.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Does nothing, the queue holds no resources. Payloads stay in the queue.
+     */
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    private abstract static class LeftPadding {
+        long p01, p02, p03, p04, p05, p06, p07; //NOPMD - padding
+    }
+
+    private abstract static class Value extends LeftPadding {
+        volatile long value;
+    }
+
+    /**
+     * Position padded with cache lines on both sides, as fields of a superclass are laid out first.
+     */
+    private static final class PaddedSequence extends Value {
+
+        private static final AtomicLongFieldUpdater<Value> UPDATER =
+                AtomicLongFieldUpdater.newUpdater(Value.class, "value");
+
+        long p11, p12, p13, p14, p15, p16, p17; //NOPMD - padding
+
+        long get() {
+            return value;
+        }
+
+        boolean compareAndSet(long expected, long updated) {
+            return UPDATER.compareAndSet(this, expected, updated);
+        }
+    }
+}
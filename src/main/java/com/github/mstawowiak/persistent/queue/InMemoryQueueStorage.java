@@ -0,0 +1,108 @@
+package com.github.mstawowiak.persistent.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-durable {@link QueueStorage} keeping records in a skip list, e.g. for tests of queue semantics
+ * and as a baseline when comparing engines. Records are lost when the storage is closed.
+ */
+public final class InMemoryQueueStorage implements QueueStorage {
+
+    private final ConcurrentNavigableMap<Long, byte[]> records = new ConcurrentSkipListMap<>();
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile long lastKey = -1;
+
+    @Override
+    public void append(long key, byte[] record) {
+        records.put(key, record);
+        lastKey = key;
+        count.incrementAndGet();
+        bytes.addAndGet(QueueStorage.payloadSize(record));
+    }
+
+    @Override
+    public Record readHead(long fromKey) {
+        final Map.Entry<Long, byte[]> entry = records.ceilingEntry(fromKey);
+        return entry == null ? null : new Record(entry.getKey(), entry.getValue());
+    }
+
+    @Override
+    public List<Record> readRange(long fromKey, long toKey, int maxRecords) {
+        final List<Record> range = new ArrayList<>();
+        for (Map.Entry<Long, byte[]> entry : records.subMap(fromKey, true, toKey, true).entrySet()) {
+            if (range.size() == maxRecords) {
+                break;
+            }
+            range.add(new Record(entry.getKey(), entry.getValue()));
+        }
+        return range;
+    }
+
+    @Override
+    public Record removeHead(long fromKey) {
+        Map.Entry<Long, byte[]> entry = records.ceilingEntry(fromKey);
+        while (entry != null && !records.remove(entry.getKey(), entry.getValue())) {
+            entry = records.ceilingEntry(fromKey);
+        }
+        if (entry == null) {
+            return null;
+        }
+        removed(entry.getValue());
+        return new Record(entry.getKey(), entry.getValue());
+    }
+
+    @Override
+    public long deleteRange(long fromKey, long toKey) {
+        long deleted = 0;
+        final ConcurrentNavigableMap<Long, byte[]> range = records.subMap(fromKey, toKey);
+        for (Long key : range.keySet()) {
+            final byte[] record = range.remove(key);
+            if (record != null) {
+                removed(record);
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private void removed(byte[] record) {
+        count.decrementAndGet();
+        bytes.addAndGet(-QueueStorage.payloadSize(record));
+    }
+
+    /**
+     * Does nothing, the storage is not durable.
+     */
+    @Override
+    public void sync() {
+        // nothing to flush
+    }
+
+    @Override
+    public long count() {
+        return count.get();
+    }
+
+    @Override
+    public long bytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public long lastKey() {
+        return lastKey;
+    }
+
+    @Override
+    public void close() {
+        records.clear();
+        count.set(0);
+        bytes.set(0);
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.mstawowiak.persistent.queue;
+
+/**
+ * Encoding of record keys as minimal big-endian two's complement, the format of
+ * {@link java.math.BigInteger#toByteArray()} in which keys were always stored. Keys are encoded, decoded
+ * and compared without creating {@code BigInteger} instances, as the comparator runs several times
+ * per database operation.
+ */
+final class KeyCodec {
+
+    /**
+     * Maximum length of an encoded key
+     */
+    static final int MAX_KEY_LENGTH = Long.BYTES;
+
+    private KeyCodec() {
+    }
+
+    static byte[] toKey(long keyValue) {
+        final byte[] key = new byte[keyLength(keyValue)];
+        writeKey(keyValue, key);
+        return key;
+    }
+
+    /**
+     * Writes the key at the beginning of the buffer, which has to be at least {@link #MAX_KEY_LENGTH} long.
+     *
+     * @return length of the written key
+     */
+    static int writeKey(long keyValue, byte[] buffer) {
+        final int length = keyLength(keyValue);
+        for (int i = length - 1, shift = 0; i >= 0; i--, shift += Byte.SIZE) {
+            buffer[i] = (byte) (keyValue >> shift);
+        }
+        return length;
+    }
+
+    private static int keyLength(long keyValue) {
+        final int significantBits = Long.SIZE - Long.numberOfLeadingZeros(keyValue ^ (keyValue >> (Long.SIZE - 1)));
+        return significantBits / Byte.SIZE + 1;
+    }
+
+    static long fromKey(byte[] key) {
+        long keyValue = key[0];
+        for (int i = 1; i < key.length; i++) {
+            keyValue = keyValue << Byte.SIZE | key[i] & 0xFF;
+        }
+        return keyValue;
+    }
+
+    static int compare(byte[] key1, byte[] key2) {
+        return Long.compare(fromKey(key1), fromKey(key2));
+    }
+}
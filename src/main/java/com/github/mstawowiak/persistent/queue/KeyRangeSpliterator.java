@@ -0,0 +1,95 @@
+package com.github.mstawowiak.persistent.queue;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Lazy scan of records with keys in range {@code [fromKey, toKey]}. Records are read from the storage
+ * in batches by {@link QueueStorage#readRange(long, long, int)}, so a scan never holds the lock of the queue
+ * and does not block producers or consumers. Records removed during the scan may be skipped or still
+ * returned, expired records are skipped. Records decoded to {@code null}, e.g. with an offloaded payload
+ * removed meanwhile, are skipped as well.
+ * <p>
+ * The range is split in halves, so parallel streams scan the queue on many cores.
+ *
+ * @param <T> the type of elements decoded from record data
+ */
+final class KeyRangeSpliterator<T> implements Spliterator<T> {
+
+    private static final int BATCH_SIZE = 256;
+
+    private final QueueStorage storage;
+    private final Function<byte[], T> decoder;
+    private final ArrayDeque<byte[]> batch = new ArrayDeque<>(BATCH_SIZE);
+
+    /**
+     * Key of the next record to be read from the storage
+     */
+    private long fromKey;
+    private final long toKey;
+
+    KeyRangeSpliterator(QueueStorage storage, long fromKey, long toKey, Function<byte[], T> decoder) {
+        this.storage = storage;
+        this.decoder = decoder;
+        this.fromKey = fromKey;
+        this.toKey = toKey;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (true) {
+            if (batch.isEmpty()) {
+                readBatch();
+            }
+            final byte[] data = batch.poll();
+            if (data == null) {
+                return false;
+            }
+            final T element = decoder.apply(data);
+            if (element != null) {
+                action.accept(element);
+                return true;
+            }
+        }
+    }
+
+    private void readBatch() {
+        while (batch.isEmpty() && fromKey <= toKey) {
+            final long now = System.currentTimeMillis();
+            final List<QueueStorage.Record> records = storage.readRange(fromKey, toKey, BATCH_SIZE);
+            for (QueueStorage.Record record : records) {
+                if (!RecordFormat.isExpired(record.getData(), now)) {
+                    batch.add(record.getData());
+                }
+            }
+            fromKey = records.size() < BATCH_SIZE ? toKey + 1 : records.get(records.size() - 1).getKey() + 1;
+        }
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        if (!batch.isEmpty() || toKey - fromKey < 2L * BATCH_SIZE) {
+            return null;
+        }
+        final long middleKey = fromKey + (toKey - fromKey) / 2;
+        final KeyRangeSpliterator<T> prefix = new KeyRangeSpliterator<>(storage, fromKey, middleKey, decoder);
+        fromKey = middleKey + 1;
+        return prefix;
+    }
+
+    /**
+     * Returns number of keys left in the range, records already removed from the queue are counted as well.
+     */
+    @Override
+    public long estimateSize() {
+        return batch.size() + Math.max(0, toKey - fromKey + 1);
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.sleepycat.je.DbInternal;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.cleaner.FileSummary;
+
+/**
+ * Reads utilization of the log files of an environment, as tracked by the JE cleaner.
+ * <p>
+ * JE 5.0 does not expose obsolete bytes of the log in its public API ({@code EnvironmentStats} has the
+ * total log size only), so the utilization profile of the cleaner is read through {@link DbInternal}.
+ * This is the only use of JE internals, checked against JE 5.0.73. On an upgrade to a version with
+ * public utilization statistics it should be replaced by them.
+ */
+final class LogUtilization {
+
+    private LogUtilization() {
+    }
+
+    /**
+     * Sums total and obsolete sizes of all log files of the environment.
+     *
+     * @return disk usage of the environment
+     */
+    static DiskUsage of(Environment environment) {
+        long totalBytes = 0;
+        long obsoleteBytes = 0;
+        for (FileSummary summary : DbInternal.getEnvironmentImpl(environment)
+                .getUtilizationProfile().getFileSummaryMap(true).values()) {
+            totalBytes += summary.totalSize;
+            obsoleteBytes += summary.getObsoleteSize();
+        }
+        return new DiskUsage(totalBytes - obsoleteBytes, totalBytes);
+    }
+}
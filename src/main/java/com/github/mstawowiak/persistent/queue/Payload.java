@@ -2,8 +2,8 @@ package com.github.mstawowiak.persistent.queue;
 
 import com.github.mstawowiak.persistent.queue.exception.SerializationException;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
@@ -12,13 +12,14 @@ import java.io.Serializable;
 public interface Payload extends Serializable {
 
     default byte[] serialize() {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        SerializationBuffer buffer = SerializationBuffer.acquire();
         ObjectOutput out = null;
 
         try {
-            out = new ObjectOutputStream(baos);
+            out = new ObjectOutputStream(buffer);
             out.writeObject(this);
-            return baos.toByteArray();
+            out.flush();
+            return buffer.toByteArray();
         } catch (IOException ex) {
             throw new SerializationException("Cannot serialize payload", ex);
         } finally {
@@ -27,11 +28,19 @@ public interface Payload extends Serializable {
                     out.close();
                 }
             } catch (IOException ex) { } //NOPMD - ignore close exception
+            buffer.release();
         }
     }
 
     static <P extends Payload> P deserialize(byte[] data) {
-        ByteArrayInputStream in = new ByteArrayInputStream(data);
+        return deserialize(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Deserializes payload read from the stream, e.g. a payload too large to be read into memory first.
+     * The stream is closed.
+     */
+    static <P extends Payload> P deserialize(InputStream in) {
         ObjectInputStream is = null;
 
         try {
@@ -43,6 +52,8 @@ public interface Payload extends Serializable {
             try {
                 if (is != null) {
                     is.close();
+                } else {
+                    in.close();
                 }
             } catch (IOException ex) { } //NOPMD - ignore close exception
         }
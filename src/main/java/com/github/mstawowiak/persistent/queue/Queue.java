@@ -1,24 +1,161 @@
 package com.github.mstawowiak.persistent.queue;
 
-import java.util.concurrent.Semaphore;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A collection designed for holding elements prior to processing.
  *
  * @param <P> the type of payload held in this collection
  */
-public interface Queue<P extends Payload> {
+public interface Queue<P extends Payload> extends Iterable<P> {
 
+    /**
+     * Inserts the payload into this queue.
+     *
+     * @param payload the payload to add
+     * @throws com.github.mstawowiak.persistent.queue.exception.EnqueueException if the payload cannot be
+     * inserted, e.g. because the queue is full
+     */
     void push(P payload);
 
+    /**
+     * Inserts the payload into this queue if it is possible to do so immediately without exceeding
+     * the queue capacity.
+     *
+     * @param payload the payload to add
+     * @return {@code true} if the payload was added, {@code false} if the queue is full
+     */
+    boolean offer(P payload);
+
+    /**
+     * Inserts the payload into this queue, waiting up to the specified time for space to become available.
+     *
+     * @param payload the payload to add
+     * @param timeout how long to wait before giving up
+     * @param unit    the unit of the timeout
+     * @return {@code true} if the payload was added, {@code false} if the waiting time elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean offer(P payload, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Inserts the payload into this queue, waiting if necessary for space to become available.
+     *
+     * @param payload the payload to add
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void put(P payload) throws InterruptedException;
+
+    /**
+     * Returns a payload previously taken from this queue, e.g. after failed processing. Capacity is
+     * not checked, so the consumer side never blocks on a queue filled up by producers.
+     *
+     * @param payload the payload to return to the queue
+     */
+    void requeue(P payload);
+
+    /**
+     * Inserts already serialized payload into this queue, e.g. a record received from another system.
+     * The data is stored as is, so it has to be readable by {@link Payload#deserialize(byte[])} if it is
+     * ever polled as a payload.
+     *
+     * @param data the serialized payload to add
+     * @throws com.github.mstawowiak.persistent.queue.exception.EnqueueException if the data cannot be
+     * inserted, e.g. because the queue is full
+     */
+    void pushRaw(byte[] data);
+
+    /**
+     * Returns serialized payload previously taken from this queue by {@link #pollRaw()}. Capacity is
+     * not checked, as in {@link #requeue(Payload)}.
+     *
+     * @param data the serialized payload to return to the queue
+     */
+    void requeueRaw(byte[] data);
+
+    /**
+     * Retrieves and removes the head of this queue. A record which cannot be deserialized is removed
+     * as well, so that it does not block the queue.
+     *
+     * @return the head of this queue, or {@code null} if this queue is empty
+     * @throws com.github.mstawowiak.persistent.queue.exception.SerializationException if the head
+     * cannot be deserialized
+     */
     P poll();
 
+    /**
+     * Retrieves and removes the head of this queue, waiting up to the specified time for a payload
+     * to become available.
+     *
+     * @param timeout how long to wait before giving up
+     * @param unit    the unit of the timeout
+     * @return the head of this queue, or {@code null} if the waiting time elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    P poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Retrieves and removes the head of this queue, waiting if necessary until a payload becomes available.
+     *
+     * @return the head of this queue
+     * @throws InterruptedException if interrupted while waiting
+     */
+    P take() throws InterruptedException;
+
+    /**
+     * Retrieves and removes the head of this queue without deserializing it.
+     *
+     * @return the serialized head of this queue, or {@code null} if this queue is empty
+     */
+    byte[] pollRaw();
+
+    /**
+     * Retrieves and removes the head of this queue without deserializing it, waiting up to the
+     * specified time for a payload to become available.
+     *
+     * @param timeout how long to wait before giving up
+     * @param unit    the unit of the timeout
+     * @return the serialized head of this queue, or {@code null} if the waiting time elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    byte[] pollRaw(long timeout, TimeUnit unit) throws InterruptedException;
+
     P remove();
 
     P peek();
 
+    /**
+     * Retrieves, but does not remove, the head of this queue without deserializing it.
+     *
+     * @return the serialized head of this queue, or {@code null} if this queue is empty
+     */
+    byte[] peekRaw();
+
     P element();
 
+    /**
+     * Returns a lazy iterator over payloads in this queue, from the head to the tail, without removing
+     * them. The scan never blocks producers or consumers; payloads polled during the scan may be skipped
+     * or still returned and payloads pushed after the scan started are not returned.
+     *
+     * @return an iterator over payloads in this queue
+     */
+    @Override
+    Iterator<P> iterator();
+
+    /**
+     * Returns a lazy stream of payloads in this queue, with the same semantics as {@link #iterator()}.
+     * A parallel stream splits the scan between threads.
+     *
+     * @return a stream of payloads in this queue
+     */
+    default Stream<P> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
     String name();
 
     long size();
@@ -27,6 +164,4 @@ public interface Queue<P extends Payload> {
 
     void close();
 
-    Semaphore getSemaphore();
-
 }
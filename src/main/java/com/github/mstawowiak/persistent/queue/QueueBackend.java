@@ -0,0 +1,42 @@
+package com.github.mstawowiak.persistent.queue;
+
+/**
+ * Implementations of {@link Queue}, so the backend of a queue can be chosen by configuration,
+ * e.g. {@code QueueBackend.valueOf(properties.getProperty("orders.queue.backend"))}.
+ */
+public enum QueueBackend {
+
+    /**
+     * Durable {@link BerkeleyDbQueue} stored in the given directory
+     */
+    BERKELEY_DB {
+        @Override
+        public <P extends Payload> Queue<P> open(String queueEnvPath, String queueName, BerkeleyDbQueueConfig config) {
+            return new BerkeleyDbQueue<>(queueEnvPath, queueName, config);
+        }
+    },
+
+    /**
+     * Non-durable {@link InMemoryQueue}. Only capacity of the configuration applies, an unbounded
+     * capacity is replaced by {@link InMemoryQueue#DEFAULT_CAPACITY}.
+     */
+    IN_MEMORY {
+        @Override
+        public <P extends Payload> Queue<P> open(String queueEnvPath, String queueName, BerkeleyDbQueueConfig config) {
+            return new InMemoryQueue<>(queueName, config.getCapacity() == Long.MAX_VALUE
+                    ? InMemoryQueue.DEFAULT_CAPACITY : (int) Math.min(Integer.MAX_VALUE, config.getCapacity()));
+        }
+    };
+
+    /**
+     * Opens the queue in this backend.
+     *
+     * @param queueEnvPath directory of the queue, used by durable backends only
+     * @param queueName    name of the queue
+     * @param config       configuration of the queue
+     * @param <P>          the type of payload held in the queue
+     * @return the opened queue
+     */
+    public abstract <P extends Payload> Queue<P> open(String queueEnvPath, String queueName,
+            BerkeleyDbQueueConfig config);
+}
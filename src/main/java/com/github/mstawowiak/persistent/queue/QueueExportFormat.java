@@ -0,0 +1,88 @@
+package com.github.mstawowiak.persistent.queue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * File format of {@link BerkeleyDbQueue#exportTo(OutputStream, boolean)}: a header of magic bytes
+ * {@code "PQEX"} (int), format version {@code 1} (byte) and flags (byte, {@code 1} if compressed),
+ * followed by records in key order, each as its length (int) and the record, terminated by length
+ * {@code -1}. Records are optionally compressed with GZIP. Numbers are big-endian.
+ * <p>
+ * A record is a header followed by the serialized payload, see {@link Payload#serialize()}. The header
+ * holds marker byte {@code 0xE1}, record version {@code 2}, flags (byte, {@code 1} if the payload expires),
+ * epoch millis of enqueue (long, {@code -1} if unknown) and, if the payload expires, epoch millis of
+ * expiry (long). Offloaded payloads are exported inline, so the blob flag ({@code 2}) is never set.
+ * Records written by older versions are exported as stored: with marker {@code 0xE1}, record version
+ * {@code 1} and epoch millis of expiry (long) in front of the payload, or as the serialized payload only.
+ * Imports rely on the header to restore expiry and enqueue time.
+ */
+final class QueueExportFormat {
+
+    private static final int MAGIC = 0x50514558; // "PQEX"
+    private static final byte VERSION = 1;
+    private static final byte FLAG_COMPRESSED = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    static final int END_OF_RECORDS = -1;
+
+    private QueueExportFormat() {
+    }
+
+    /**
+     * Writes the header and returns stream for records. Closing the returned stream does not close the
+     * underlying stream, only finishes compression.
+     */
+    static DataOutputStream openWriter(OutputStream out, boolean compressed) throws IOException {
+        final DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(compressed ? FLAG_COMPRESSED : 0);
+
+        final OutputStream unclosable = new UnclosableOutputStream(out);
+        return new DataOutputStream(new BufferedOutputStream(compressed
+                ? new GZIPOutputStream(unclosable, BUFFER_SIZE) : unclosable, BUFFER_SIZE));
+    }
+
+    /**
+     * Reads and validates the header and returns stream of records.
+     */
+    static DataInputStream openReader(InputStream in) throws IOException {
+        final DataInputStream header = new DataInputStream(in);
+        if (header.readInt() != MAGIC) {
+            throw new IOException("Not a queue export");
+        }
+        final byte version = header.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported queue export version [version=" + version + "]");
+        }
+        final boolean compressed = (header.readByte() & FLAG_COMPRESSED) != 0;
+        return new DataInputStream(compressed
+                ? new GZIPInputStream(in, BUFFER_SIZE) : new BufferedInputStream(in, BUFFER_SIZE));
+    }
+
+    private static final class UnclosableOutputStream extends FilterOutputStream {
+
+        UnclosableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            out.write(data, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
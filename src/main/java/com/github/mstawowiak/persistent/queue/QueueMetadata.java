@@ -0,0 +1,85 @@
+package com.github.mstawowiak.persistent.queue;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Head, tail, count and size of a queue, persisted next to the queue database so that reopening a queue
+ * does not require walking the whole B-tree.
+ */
+final class QueueMetadata {
+
+    private static final byte VERSION = 2;
+    private static final int SIZE = 1 + 4 * Long.BYTES;
+
+    /**
+     * Key of the first record in the queue, {@code tail + 1} for an empty queue
+     */
+    private final long head;
+
+    /**
+     * Key of the last record ever appended to the queue, {@code -1} if nothing was appended yet
+     */
+    private final long tail;
+
+    /**
+     * Number of records in the queue
+     */
+    private final long count;
+
+    /**
+     * Total size of serialized payloads in the queue
+     */
+    private final long bytes;
+
+    QueueMetadata(long head, long tail, long count, long bytes) {
+        this.head = head;
+        this.tail = tail;
+        this.count = count;
+        this.bytes = bytes;
+    }
+
+    long getHead() {
+        return head;
+    }
+
+    long getTail() {
+        return tail;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    byte[] toBytes() {
+        return ByteBuffer.allocate(SIZE)
+                .put(VERSION)
+                .putLong(head)
+                .putLong(tail)
+                .putLong(count)
+                .putLong(bytes)
+                .array();
+    }
+
+    /**
+     * Decodes metadata written by {@link #toBytes()}
+     *
+     * @param data encoded metadata
+     * @return decoded metadata or {@code null} if data is missing or written in unknown format
+     */
+    static QueueMetadata fromBytes(byte[] data) {
+        if (data == null || data.length != SIZE || data[0] != VERSION) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 1, SIZE - 1);
+        return new QueueMetadata(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+
+    @Override
+    public String toString() {
+        return "QueueMetadata[head=" + head + ", tail=" + tail + ", count=" + count + ", bytes=" + bytes + "]";
+    }
+}
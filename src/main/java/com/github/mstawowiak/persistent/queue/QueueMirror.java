@@ -0,0 +1,206 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.commons.logging.ContextLogger;
+import com.github.mstawowiak.commons.logging.ContextLoggerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Copy of a queue in a second environment, updated asynchronously by a background thread. Appends and
+ * head removals of the primary queue are handed over in order and applied in batches, each batch followed
+ * by a metadata write and a sync, so the mirror directory always holds a queue which can be opened as is.
+ * <p>
+ * At most {@code maxLag} operations wait to be applied, further operations block the primary until the
+ * mirror catches up. If the mirror fails, it stops being updated and the primary continues alone.
+ */
+final class QueueMirror {
+
+    private static final ContextLogger LOGGER = ContextLoggerFactory.getLogger();
+
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private final String queueName;
+    private final BerkeleyDbQueueStorage storage;
+    private final BlockingQueue<Operation> operations;
+    private final int batchSize;
+    private final Thread thread;
+
+    /**
+     * Number of operations handed over and not applied yet
+     */
+    private final AtomicLong lag = new AtomicLong();
+
+    /**
+     * First operation of the batch being applied
+     */
+    private volatile Operation applying;
+
+    private volatile boolean closed;
+    private volatile boolean failed;
+
+    /**
+     * Head key of the mirrored queue, accessed by the mirror thread only once it is started
+     */
+    private long headKey;
+
+    QueueMirror(String queueName, BerkeleyDbQueueConfig config) {
+        this.queueName = queueName;
+        this.storage = new BerkeleyDbQueueStorage(config.getMirrorEnvPath(), queueName, config);
+        this.operations = new ArrayBlockingQueue<>(config.getMirrorMaxLag());
+        this.batchSize = config.getMirrorBatchSize();
+        this.thread = new Thread(this::run, "queue-mirror-" + queueName);
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Makes the mirror equal to the primary queue and starts mirroring. Records are copied only if
+     * the metadata of the mirror differs from the metadata of the primary, e.g. when the mirror is new
+     * or the primary was used without it. The mirror keeps offloaded payloads inline, so records of
+     * the primary are copied through {@code inliner}.
+     */
+    void start(BerkeleyDbQueueStorage primary, UnaryOperator<byte[]> inliner) {
+        final QueueMetadata stored = storage.metadata();
+        final QueueMetadata current = primary.metadata();
+        if (stored.getHead() != current.getHead() || stored.getTail() != current.getTail()
+                || stored.getCount() != current.getCount() || stored.getBytes() != current.getBytes()) {
+            LOGGER.info(queueName, "Mirror out of date, copying queue [mirror={}, primary={}]", stored, current);
+            storage.copyFrom(primary, inliner);
+        }
+        headKey = current.getHead();
+
+        thread.start();
+    }
+
+    /**
+     * Hands over a record appended at the tail of the primary queue, must be called in the order of appends.
+     */
+    void append(long key, byte[] record) {
+        handOver(new Operation(key, record));
+    }
+
+    /**
+     * Hands over removal of all records before the given head key of the primary queue.
+     */
+    void removeHead(long newHeadKey) {
+        handOver(new Operation(newHeadKey, null));
+    }
+
+    private void handOver(Operation operation) {
+        boolean interrupted = false;
+        try {
+            while (!failed) {
+                try {
+                    if (operations.offer(operation, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        lag.incrementAndGet();
+                        return;
+                    }
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        final List<Operation> batch = new ArrayList<>(batchSize);
+        try {
+            while (!closed || !operations.isEmpty()) {
+                final Operation first = operations.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                applying = first;
+                batch.add(first);
+                operations.drainTo(batch, batchSize - 1);
+                for (Operation operation : batch) {
+                    apply(operation);
+                }
+                storage.sync();
+                applying = null;
+                lag.addAndGet(-batch.size());
+                batch.clear();
+            }
+        } catch (Exception ex) {
+            LOGGER.warn(queueName, "Error occurred during mirroring, mirror is no longer updated", ex);
+            failed = true;
+            operations.clear();
+        }
+    }
+
+    private void apply(Operation operation) {
+        if (operation.record != null) {
+            storage.append(operation.key, operation.record);
+        } else {
+            storage.deleteRange(headKey, operation.key);
+            headKey = operation.key;
+        }
+    }
+
+    /**
+     * Returns number of operations of the primary queue not applied to the mirror yet.
+     *
+     * @return the lag in operations, {@code -1} if the mirror failed
+     */
+    long getLag() {
+        return failed ? -1 : lag.get();
+    }
+
+    /**
+     * Returns how long ago the oldest operation not applied to the mirror yet was handed over.
+     *
+     * @return the lag in milliseconds, {@code -1} if the mirror failed
+     */
+    long getLagMillis() {
+        if (failed) {
+            return -1;
+        }
+        Operation oldest = applying;
+        if (oldest == null) {
+            oldest = operations.peek();
+        }
+        return oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.handedOverAt);
+    }
+
+    /**
+     * Applies all operations handed over so far and closes the mirror environment.
+     */
+    void close() {
+        closed = true;
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            LOGGER.warn(queueName, "Interrupted during waiting for mirror to catch up", ex);
+            Thread.currentThread().interrupt();
+        }
+        storage.close();
+    }
+
+    private static final class Operation {
+
+        /**
+         * Key of the appended record or the new head key
+         */
+        private final long key;
+
+        /**
+         * Appended record, {@code null} for a head removal
+         */
+        private final byte[] record;
+
+        private final long handedOverAt = System.nanoTime();
+
+        Operation(long key, byte[] record) {
+            this.key = key;
+            this.record = record;
+        }
+    }
+}
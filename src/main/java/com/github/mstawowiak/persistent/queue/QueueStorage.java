@@ -0,0 +1,172 @@
+package com.github.mstawowiak.persistent.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage engine of a {@link StorageQueue}, holding records ordered by keys assigned by the queue.
+ * Queue semantics (capacity, blocking, expiry, batched syncs) are implemented once by the queue, so
+ * an engine only stores, reads and deletes byte arrays.
+ * <p>
+ * Records are appended with increasing keys and deleted from the head. Appends are called by one thread
+ * at a time and so are deletes, while reads may run concurrently with both. Writes become durable once
+ * {@link #sync()} returns: a durable engine reopened after a crash holds the records synced before it,
+ * a non-durable engine loses all records on close.
+ * <p>
+ * Count and bytes of the records are kept by the engine, bytes of a record being its
+ * {@link #payloadSize(byte[]) payload size}, so that a durable engine restores them on reopen.
+ * <p>
+ * New engines can be checked and compared with the conformance test kit
+ * {@code com.github.mstawowiak.persistent.queue.kit.QueueStorageConformanceTest}.
+ */
+public interface QueueStorage extends AutoCloseable {
+
+    /**
+     * Appends record under the key, which is greater than keys of all records appended before.
+     *
+     * @param key    key of the record
+     * @param record the record
+     */
+    void append(long key, byte[] record);
+
+    /**
+     * Appends record made of the header followed by the payload, see {@link #append(long, byte[])}. The record
+     * is not a blob reference, so the payload is accounted in {@link #bytes()} as a whole. Engines copying
+     * records anyway, e.g. into their own log, should override it to avoid concatenating them first.
+     *
+     * @param key     key of the record
+     * @param header  header of the record, see {@link #payloadSize(byte[])}
+     * @param payload serialized payload
+     */
+    default void append(long key, byte[] header, byte[] payload) {
+        append(key, RecordFormat.toRecord(header, payload));
+    }
+
+    /**
+     * Returns the first record with a key not lower than the given one.
+     *
+     * @param fromKey lowest key of the record to return
+     * @return the record, {@code null} if there is no such record
+     */
+    Record readHead(long fromKey);
+
+    /**
+     * Returns the first record with a key not lower than the given one, with data cut to at most
+     * {@code maxLength} leading bytes, e.g. to read a header only. Engines able to read a part of
+     * a record should override it, by default the whole record is read.
+     *
+     * @param fromKey   lowest key of the record to return
+     * @param maxLength maximum number of bytes of the record to return
+     * @return the record, {@code null} if there is no such record
+     */
+    default Record readHead(long fromKey, int maxLength) {
+        return readHead(fromKey);
+    }
+
+    /**
+     * Returns records with keys from {@code fromKey} to {@code toKey} inclusive, in order of keys. Engines
+     * able to read many records at once should override it, by default records are read one by one.
+     *
+     * @param fromKey    lowest key of records to return
+     * @param toKey      highest key of records to return
+     * @param maxRecords maximum number of records to return
+     * @return the records, empty if there are none
+     */
+    default List<Record> readRange(long fromKey, long toKey, int maxRecords) {
+        final List<Record> records = new ArrayList<>();
+        Record record = readHead(fromKey);
+        while (record != null && record.getKey() <= toKey && records.size() < maxRecords) {
+            records.add(record);
+            record = records.size() < maxRecords ? readHead(record.getKey() + 1) : null;
+        }
+        return records;
+    }
+
+    /**
+     * Deletes the first record with a key not lower than the given one and returns it. Engines able
+     * to read and delete a record at once should override it, by default it is read and deleted.
+     *
+     * @param fromKey lowest key of the record to delete
+     * @return the deleted record, {@code null} if there is no such record
+     */
+    default Record removeHead(long fromKey) {
+        final Record record = readHead(fromKey);
+        if (record != null) {
+            deleteRange(record.getKey(), record.getKey() + 1);
+        }
+        return record;
+    }
+
+    /**
+     * Deletes records with keys from {@code fromKey} inclusive to {@code toKey} exclusive.
+     *
+     * @param fromKey lowest key of records to delete
+     * @param toKey   key following the highest key of records to delete
+     * @return number of deleted records
+     */
+    long deleteRange(long fromKey, long toKey);
+
+    /**
+     * Makes all appends and deletes done so far durable.
+     */
+    void sync();
+
+    /**
+     * Returns number of records in the storage.
+     *
+     * @return the number of records
+     */
+    long count();
+
+    /**
+     * Returns total payload size of records in the storage.
+     *
+     * @return the sum of {@link #payloadSize(byte[])} of all records
+     */
+    long bytes();
+
+    /**
+     * Returns key of the last appended record, which stays the same when the record is deleted.
+     *
+     * @return the key, {@code -1} if no record was ever appended
+     */
+    long lastKey();
+
+    /**
+     * Syncs and releases the storage.
+     */
+    @Override
+    void close();
+
+    /**
+     * Returns size of the payload held by a record, which is accounted against the capacity of the queue.
+     *
+     * @param record the record
+     * @return size of the payload in bytes
+     */
+    static int payloadSize(byte[] record) {
+        return RecordFormat.payloadSize(record);
+    }
+
+    /**
+     * Record read from a storage.
+     */
+    final class Record {
+
+        private final long key;
+        private final byte[] data;
+
+        public Record(long key, byte[] data) {
+            this.key = key;
+            this.data = data;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
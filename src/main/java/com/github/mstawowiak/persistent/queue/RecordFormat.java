@@ -0,0 +1,228 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.util.Preconditions;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Format of records in the queue database. A payload is preceded by a header of a marker byte, format
+ * version, flags, time of enqueue and, for an expiring payload, expiry time. Records of previous versions
+ * are read as well: a serialized payload only, and a header of version 1 with expiry time only. Serialized
+ * payloads start with the magic number of Java serialization, so they never start with the marker.
+ * <p>
+ * A large payload may be offloaded to a blob, then the header is followed by a reference of the blob id
+ * and the payload size instead of the payload.
+ */
+final class RecordFormat {
+
+    private static final byte MARKER = (byte) 0xE1;
+    private static final byte EXPIRY_VERSION = 1;
+    private static final byte VERSION = 2;
+    private static final byte EXPIRES_FLAG = 1;
+    private static final byte BLOB_FLAG = 2;
+
+    private static final int EXPIRY_HEADER_SIZE = 2 + Long.BYTES;
+    private static final int HEADER_SIZE = 3 + Long.BYTES;
+    private static final int BLOB_REFERENCE_SIZE = Long.BYTES + Integer.BYTES;
+
+    /**
+     * Number of leading bytes of a record containing the whole header
+     */
+    static final int MAX_HEADER_SIZE = HEADER_SIZE + Long.BYTES;
+
+    /**
+     * Expiry time of payloads which never expire
+     */
+    static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    /**
+     * Enqueue time of records written by versions which did not store it
+     */
+    static final long UNKNOWN_ENQUEUE_TIME = -1;
+
+    private RecordFormat() {
+    }
+
+    /**
+     * Creates record of the serialized payload.
+     *
+     * @param payload    serialized payload
+     * @param enqueuedAt epoch millis of enqueue
+     * @param expireAt   epoch millis after which the payload expires, {@link #NO_EXPIRY} if it never expires
+     * @return record to be stored
+     */
+    static byte[] toRecord(byte[] payload, long enqueuedAt, long expireAt) {
+        return toRecord(header(enqueuedAt, expireAt), payload);
+    }
+
+    /**
+     * Creates header of a record, so that the record can be written as the header followed by the payload
+     * without concatenating them first.
+     *
+     * @param enqueuedAt epoch millis of enqueue
+     * @param expireAt   epoch millis after which the payload expires, {@link #NO_EXPIRY} if it never expires
+     * @return header of the record
+     */
+    static byte[] header(long enqueuedAt, long expireAt) {
+        final boolean expires = expireAt != NO_EXPIRY;
+        final ByteBuffer header = ByteBuffer.allocate(expires ? MAX_HEADER_SIZE : HEADER_SIZE)
+                .put(MARKER)
+                .put(VERSION)
+                .put(expires ? EXPIRES_FLAG : 0)
+                .putLong(enqueuedAt);
+        if (expires) {
+            header.putLong(expireAt);
+        }
+        return header.array();
+    }
+
+    /**
+     * Returns header of version 2 of a record which is not a blob reference. Records written by older versions
+     * get a header converted to version 2 with an unknown enqueue time, so that their payload may be offloaded.
+     */
+    static byte[] headerOf(byte[] record) {
+        return versionOf(record, record.length) == VERSION
+                ? Arrays.copyOf(record, headerSize(record)) : header(UNKNOWN_ENQUEUE_TIME, expireAt(record));
+    }
+
+    /**
+     * Concatenates header and payload of a record.
+     */
+    static byte[] toRecord(byte[] header, byte[] payload) {
+        final byte[] record = Arrays.copyOf(header, header.length + payload.length);
+        System.arraycopy(payload, 0, record, header.length, payload.length);
+        return record;
+    }
+
+    private static byte versionOf(byte[] record, int length) {
+        if (length >= HEADER_SIZE && record[0] == MARKER && record[1] == VERSION) {
+            return VERSION;
+        }
+        if (length >= EXPIRY_HEADER_SIZE && record[0] == MARKER && record[1] == EXPIRY_VERSION) {
+            return EXPIRY_VERSION;
+        }
+        return 0;
+    }
+
+    private static boolean expires(byte[] record) {
+        return (record[2] & EXPIRES_FLAG) != 0;
+    }
+
+    private static int headerSize(byte[] record) {
+        switch (versionOf(record, record.length)) {
+            case VERSION:
+                return expires(record) ? MAX_HEADER_SIZE : HEADER_SIZE;
+            case EXPIRY_VERSION:
+                return EXPIRY_HEADER_SIZE;
+            default:
+                return 0;
+        }
+    }
+
+    static long expireAt(byte[] record) {
+        switch (versionOf(record, record.length)) {
+            case VERSION:
+                return expires(record) ? ByteBuffer.wrap(record, HEADER_SIZE, Long.BYTES).getLong() : NO_EXPIRY;
+            case EXPIRY_VERSION:
+                return ByteBuffer.wrap(record, 2, Long.BYTES).getLong();
+            default:
+                return NO_EXPIRY;
+        }
+    }
+
+    /**
+     * Returns enqueue time stored in the header, which may be the only part of the record given.
+     *
+     * @param record leading bytes of a record, at least {@link #MAX_HEADER_SIZE} unless the record is shorter
+     * @param length number of given bytes
+     * @return epoch millis of enqueue, {@link #UNKNOWN_ENQUEUE_TIME} if the record does not contain it
+     */
+    static long enqueuedAt(byte[] record, int length) {
+        return versionOf(record, length) == VERSION
+                ? ByteBuffer.wrap(record, 3, Long.BYTES).getLong() : UNKNOWN_ENQUEUE_TIME;
+    }
+
+    /**
+     * Checks expiry by reading the header only, without deserializing the payload.
+     */
+    static boolean isExpired(byte[] record, long nowMillis) {
+        return expireAt(record) <= nowMillis;
+    }
+
+    static byte[] payloadOf(byte[] record) {
+        if (isBlobReference(record)) {
+            throw new IllegalStateException("Payload is offloaded to blob " + blobId(record));
+        }
+        final int headerSize = headerSize(record);
+        return headerSize == 0 ? record : Arrays.copyOfRange(record, headerSize, record.length);
+    }
+
+    /**
+     * Returns size of the serialized payload, which is accounted against the capacity of the queue.
+     * For a blob reference it is the size of the offloaded payload.
+     */
+    static int payloadSize(byte[] record) {
+        final int headerSize = headerSize(record);
+        return isBlobReference(record)
+                ? ByteBuffer.wrap(record, headerSize + Long.BYTES, Integer.BYTES).getInt()
+                : record.length - headerSize;
+    }
+
+    static boolean isBlobReference(byte[] record) {
+        return versionOf(record, record.length) == VERSION && (record[2] & BLOB_FLAG) != 0;
+    }
+
+    /**
+     * Replaces payload of the record by a reference to the blob it is offloaded to. The header is kept,
+     * so expiry and enqueue time are read without the blob.
+     *
+     * @param record record of version 2, which is not a blob reference
+     * @param blobId id of the blob holding the payload
+     * @return the blob reference
+     */
+    static byte[] toBlobReference(byte[] record, long blobId) {
+        final int headerSize = headerSize(record);
+        return toBlobReference(record, headerSize, record.length - headerSize, blobId);
+    }
+
+    /**
+     * Creates reference to the blob holding the payload of a record given by its header.
+     *
+     * @param header      header of a record of version 2
+     * @param payloadSize size of the offloaded payload
+     * @param blobId      id of the blob holding the payload
+     * @return the blob reference
+     */
+    static byte[] toBlobReference(byte[] header, int payloadSize, long blobId) {
+        return toBlobReference(header, header.length, payloadSize, blobId);
+    }
+
+    private static byte[] toBlobReference(byte[] header, int headerSize, int payloadSize, long blobId) {
+        Preconditions.checkArgument(versionOf(header, headerSize) == VERSION,
+                "Only payloads of records of version 2 may be offloaded");
+        final byte[] reference = ByteBuffer.allocate(headerSize + BLOB_REFERENCE_SIZE)
+                .put(header, 0, headerSize)
+                .putLong(blobId)
+                .putInt(payloadSize)
+                .array();
+        reference[2] |= BLOB_FLAG;
+        return reference;
+    }
+
+    static long blobId(byte[] reference) {
+        return ByteBuffer.wrap(reference, headerSize(reference), Long.BYTES).getLong();
+    }
+
+    /**
+     * Restores record of the blob reference with the payload read from the blob.
+     */
+    static byte[] withPayload(byte[] reference, byte[] payload) {
+        final int headerSize = headerSize(reference);
+        final byte[] record = ByteBuffer.allocate(headerSize + payload.length)
+                .put(reference, 0, headerSize)
+                .put(payload)
+                .array();
+        record[2] &= ~BLOB_FLAG;
+        return record;
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.mstawowiak.persistent.queue;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Output buffer of payload serialization reused by the thread, so a serialized payload is copied only once
+ * instead of at every growth of a new buffer. Buffers grown by large payloads are not retained.
+ */
+final class SerializationBuffer extends ByteArrayOutputStream {
+
+    private static final int INITIAL_SIZE = 1024;
+    private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<SerializationBuffer> BUFFERS = ThreadLocal.withInitial(SerializationBuffer::new);
+
+    private boolean inUse;
+
+    private SerializationBuffer() {
+        super(INITIAL_SIZE);
+    }
+
+    /**
+     * Returns empty buffer of the calling thread, or a new one if the thread's buffer is in use by
+     * a serialization in progress, e.g. of a payload serializing another one.
+     */
+    static SerializationBuffer acquire() {
+        final SerializationBuffer buffer = BUFFERS.get();
+        if (buffer.inUse) {
+            return new SerializationBuffer();
+        }
+        buffer.inUse = true;
+        return buffer;
+    }
+
+    void release() {
+        inUse = false;
+        reset();
+        if (buf.length > MAX_RETAINED_SIZE) {
+            buf = new byte[INITIAL_SIZE];
+        }
+    }
+}
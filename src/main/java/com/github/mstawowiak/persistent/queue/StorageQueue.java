@@ -0,0 +1,997 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.commons.logging.ContextLogger;
+import com.github.mstawowiak.commons.logging.ContextLoggerFactory;
+import com.github.mstawowiak.persistent.queue.exception.EnqueueException;
+import com.github.mstawowiak.persistent.queue.exception.SerializationException;
+import com.github.mstawowiak.persistent.queue.util.Histogram;
+import com.github.mstawowiak.persistent.queue.util.Preconditions;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue implemented on top of any {@link QueueStorage}, so that a storage engine only stores records and
+ * the queue semantics are the same for all engines. Payloads are stored as {@link RecordFormat} records
+ * under consecutive keys, the queue appends at the tail and deletes from the head under its lock.
+ * <p>
+ * Capacity in payloads and bytes, batch size and time to live of {@link BerkeleyDbQueueConfig} apply,
+ * other settings are specific to {@link BerkeleyDbQueue}. The storage is synced every {@code batchSize}
+ * operations and on close.
+ *
+ * @param <P> the type of payload held in this queue
+ */
+public class StorageQueue<P extends Payload> implements Queue<P> {
+
+    private static final ContextLogger LOGGER = ContextLoggerFactory.getLogger();
+
+    private static final int IMPORT_BATCH_SIZE = 1000;
+    private static final int PURGE_BATCH_SIZE = 1000;
+
+    /**
+     * Name of this queue
+     */
+    private final String queueName;
+
+    /**
+     * Storage holding records of this queue
+     */
+    private final QueueStorage storage;
+
+    /**
+     * Number of payloads used during flush it is allowed to loose in case of system crash.
+     */
+    private final int batchSize;
+
+    /**
+     * Maximum number of payloads in the queue
+     */
+    private final long capacity;
+
+    /**
+     * Maximum total size of serialized payloads in the queue
+     */
+    private final long capacityBytes;
+
+    /**
+     * Time to live of pushed payloads, {@code 0} if payloads never expire
+     */
+    private final long timeToLiveMillis;
+
+    /**
+     * Blobs holding payloads offloaded from records, {@code null} if the queue has no blob directory
+     */
+    private final BlobStore blobs;
+
+    /**
+     * Size of serialized payload above which the payload is offloaded to a blob, {@code 0} if payloads
+     * are never offloaded
+     */
+    private final int blobThreshold;
+
+    /**
+     * Queue operation counter, which is used to sync the storage periodically.
+     */
+    private int opsCounter;
+
+    /**
+     * Key of the first record in the queue, {@code tailKey + 1} for an empty queue. Modified under the lock,
+     * volatile since {@link #peek()} and {@link #getOldestAgeMillis()} read it without the lock.
+     */
+    private volatile long headKey;
+
+    /**
+     * Key of the last record appended to the queue
+     */
+    private long tailKey;
+
+    /**
+     * Lock guarding all modifications of the queue
+     */
+    final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Condition for producers waiting for space in the queue
+     */
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * Condition for consumers waiting for payloads
+     */
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * Number of expired payloads skipped by polls or deleted by the purger since the queue was opened
+     */
+    private final LongAdder expiredCount = new LongAdder();
+
+    /**
+     * Time payloads spent in the queue until they were polled, in milliseconds
+     */
+    private final Histogram dwellTime = new Histogram();
+
+    /**
+     * Reader of the head of this queue, removing polled records
+     */
+    private final Reader headReader = new Reader() {
+        @Override
+        public long available() {
+            return storage.count();
+        }
+
+        @Override
+        public byte[] readNext() {
+            return removeFirst();
+        }
+    };
+
+    public StorageQueue(final String queueName, final QueueStorage storage) {
+        this(queueName, storage, new BerkeleyDbQueueConfig.Builder().build());
+    }
+
+    public StorageQueue(final String queueName, final QueueStorage storage, final BerkeleyDbQueueConfig config) {
+        this(queueName, storage, config, null);
+    }
+
+    /**
+     * Opens the queue, offloading large payloads to blobs in the given directory unless it is {@code null}.
+     */
+    StorageQueue(final String queueName, final QueueStorage storage, final BerkeleyDbQueueConfig config,
+            final File blobDirectory) {
+        this.queueName = queueName;
+        this.storage = storage;
+        this.batchSize = config.getBatchSize();
+        this.capacity = config.getCapacity();
+        this.capacityBytes = config.getCapacityBytes();
+        this.timeToLiveMillis = config.getTimeToLiveMillis();
+        this.blobs = blobDirectory == null ? null : new BlobStore(blobDirectory, queueName);
+        this.blobThreshold = blobDirectory == null ? BerkeleyDbQueueConfig.BLOBS_DISABLED : config.getBlobThreshold();
+
+        this.tailKey = storage.lastKey();
+        final QueueStorage.Record head = storage.readHead(0, 0);
+        this.headKey = head == null ? tailKey + 1 : head.getKey();
+
+        if (blobs != null) {
+            blobs.deleteOrphans(headKey, tailKey);
+        }
+    }
+
+    static byte[] serialize(Payload payload) {
+        try {
+            return payload.serialize();
+        } catch (SerializationException ex) {
+            throw new EnqueueException("Unable to enqueue payload", ex);
+        }
+    }
+
+    /**
+     * Creates header of a record enqueued now, expiring after the given time to live unless it is {@code 0}.
+     * The record is written as the header followed by the serialized payload.
+     */
+    static byte[] header(long timeToLiveMillis) {
+        final long now = System.currentTimeMillis();
+        return RecordFormat.header(now, timeToLiveMillis == 0 ? RecordFormat.NO_EXPIRY : now + timeToLiveMillis);
+    }
+
+    long timeToLiveMillis() {
+        return timeToLiveMillis;
+    }
+
+    long headKey() {
+        return headKey;
+    }
+
+    /**
+     * Returns key of the last record appended to the queue, must be called with the lock held.
+     */
+    long tailKey() {
+        return tailKey;
+    }
+
+    void syncIfNeeded() {
+        opsCounter++;
+        if (opsCounter >= batchSize) {
+            sync();
+        }
+    }
+
+    /**
+     * Syncs the storage, must be called with the lock held. Blobs of records deleted before are deleted
+     * afterwards.
+     */
+    void sync() {
+        onSync();
+        storage.sync();
+        if (blobs != null) {
+            blobs.deletePending();
+        }
+        opsCounter = 0;
+    }
+
+    /**
+     * Called with the lock held before the storage is synced, so that state kept next to the queue
+     * is made durable along with it.
+     */
+    void onSync() {
+    }
+
+    /**
+     * Called with the lock held for each record appended at the tail, in the order of appends. The record
+     * is given as its header and payload, which must not be modified.
+     */
+    void onAppend(long key, byte[] header, byte[] payload) {
+    }
+
+    /**
+     * Called with the lock held after records before the given head key were deleted.
+     */
+    void onRemoveHead(long newHeadKey) {
+    }
+
+    /**
+     * Called with the lock held after the final sync, before the storage is closed.
+     */
+    void onClose() {
+    }
+
+    /**
+     * Checks that payloads may be polled from the head of the queue, called with the lock held.
+     *
+     * @throws IllegalStateException if the queue may not be polled
+     */
+    void checkPollable() {
+    }
+
+    /**
+     * Tells whether the queue is read by more than one reader, so that each append wakes up all waiting
+     * consumers instead of one. Called with the lock held.
+     */
+    boolean hasManyReaders() {
+        return false;
+    }
+
+    /**
+     * Checks capacity bounds, must be called with the lock held.
+     */
+    boolean hasRoomFor(int payloadSize) {
+        final long count = storage.count();
+        return count < capacity && (storage.bytes() + payloadSize <= capacityBytes || count == 0);
+    }
+
+    EnqueueException queueFull() {
+        return new EnqueueException("Unable to enqueue payload, queue is full [capacity=" + capacity
+                + ", capacityBytes=" + capacityBytes + "]", null);
+    }
+
+    /**
+     * Appends record made of the header and the payload at the tail, must be called with the lock held.
+     */
+    void append(byte[] header, byte[] payload) {
+        try {
+            write(header, payload);
+            syncIfNeeded();
+
+            if (hasManyReaders()) {
+                notEmpty.signalAll();
+            } else {
+                notEmpty.signal();
+            }
+        } catch (Exception ex) {
+            throw new EnqueueException("Unable to enqueue payload", ex);
+        }
+    }
+
+    /**
+     * Writes record made of the header and the payload at the tail without syncing, must be called with
+     * the lock held. A payload above the blob threshold is offloaded to a blob identified by the key of its
+     * record. Subclasses get the whole record.
+     */
+    private void write(byte[] header, byte[] payload) {
+        final long key = tailKey + 1;
+        if (blobThreshold != BerkeleyDbQueueConfig.BLOBS_DISABLED && payload.length > blobThreshold) {
+            storage.append(key, blobs.offload(key, header, payload));
+        } else {
+            storage.append(key, header, payload);
+        }
+        tailKey = key;
+        onAppend(key, header, payload);
+    }
+
+    /**
+     * Wakes up producers waiting for space, must be called with the lock held. Payloads differ in size,
+     * so with a bytes capacity the freed space may suit any of the waiting producers.
+     */
+    private void signalNotFull() {
+        if (capacityBytes == Long.MAX_VALUE) {
+            notFull.signal();
+        } else if (lock.hasWaiters(notFull)) {
+            notFull.signalAll();
+        }
+    }
+
+    /**
+     * Wakes up all consumers waiting for payloads, must be called with the lock held.
+     */
+    void signalAllNotEmpty() {
+        notEmpty.signalAll();
+    }
+
+    @Override
+    public void push(P payload) {
+        pushRaw(serialize(payload));
+    }
+
+    @Override
+    public void pushRaw(byte[] data) {
+        pushRecord(header(timeToLiveMillis), data);
+    }
+
+    /**
+     * Inserts the payload into this queue, overriding time to live configured for the queue. An expired
+     * payload is never returned by polls.
+     *
+     * @param payload    the payload to add
+     * @param timeToLive how long the payload is valid
+     * @param unit       the unit of the time to live
+     * @throws EnqueueException if the payload cannot be inserted, e.g. because the queue is full
+     */
+    public void pushExpiring(P payload, long timeToLive, TimeUnit unit) {
+        Preconditions.checkArgument(timeToLive > 0, "timeToLive must be > 0 but is " + timeToLive);
+
+        pushRecord(header(unit.toMillis(timeToLive)), serialize(payload));
+    }
+
+    private void pushRecord(byte[] header, byte[] data) {
+        if (!offerRecord(header, data)) {
+            throw queueFull();
+        }
+    }
+
+    @Override
+    public boolean offer(P payload) {
+        return offerRecord(header(timeToLiveMillis), serialize(payload));
+    }
+
+    private boolean offerRecord(byte[] header, byte[] data) {
+        lock.lock();
+        try {
+            if (!hasRoomFor(data.length)) {
+                return false;
+            }
+            append(header, data);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(P payload, long timeout, TimeUnit unit) throws InterruptedException {
+        final byte[] header = header(timeToLiveMillis);
+        final byte[] data = serialize(payload);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (!hasRoomFor(data.length)) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            append(header, data);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(P payload) throws InterruptedException {
+        final byte[] header = header(timeToLiveMillis);
+        final byte[] data = serialize(payload);
+        lock.lockInterruptibly();
+        try {
+            while (!hasRoomFor(data.length)) {
+                notFull.await();
+            }
+            append(header, data);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void requeue(P payload) {
+        requeueRaw(serialize(payload));
+    }
+
+    /**
+     * {@inheritDoc} The payload gets time to live configured for the queue, starting from now. The queue
+     * does not know when a requeued payload was enqueued first, so its dwell time is measured from now too.
+     */
+    @Override
+    public void requeueRaw(byte[] data) {
+        final byte[] header = header(timeToLiveMillis);
+        lock.lock();
+        try {
+            append(header, data);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the first unexpired record and returns it, must be called with the lock held.
+     * Expired records in front of it are removed as well.
+     *
+     * @return the removed record, {@code null} if the queue is empty or all records expired
+     */
+    private byte[] removeFirst() {
+        checkPollable();
+        final long now = System.currentTimeMillis();
+        boolean removed = false;
+        try {
+            QueueStorage.Record head;
+            while ((head = storage.removeHead(headKey)) != null) {
+                removed(head);
+                removed = true;
+
+                if (!RecordFormat.isExpired(head.getData(), now)) {
+                    return delivered(head.getData(), now);
+                }
+                expiredCount.increment();
+            }
+            return null;
+        } finally {
+            if (removed) {
+                onRemoveHead(headKey);
+                syncIfNeeded();
+                signalNotFull();
+            }
+        }
+    }
+
+    /**
+     * Moves the head past the record removed from the storage, must be called with the lock held.
+     */
+    private void removed(QueueStorage.Record record) {
+        if (blobs != null) {
+            blobs.deleteAfterSync(record.getData());
+        }
+        headKey = record.getKey() + 1;
+    }
+
+    /**
+     * Deletes records with keys lower than the given one, must be called with the lock held.
+     */
+    void removeUpTo(long toKey) {
+        if (toKey <= headKey) {
+            return;
+        }
+        while (headKey < toKey && headKey <= tailKey) {
+            final QueueStorage.Record head = storage.removeHead(headKey);
+            if (head == null) {
+                break;
+            }
+            removed(head);
+        }
+        headKey = Math.max(headKey, toKey);
+        onRemoveHead(headKey);
+        signalNotFull();
+    }
+
+    /**
+     * Records dwell time of the record being delivered to a consumer, must be called with the lock held.
+     * The blob of an offloaded payload is retained, so that it is not deleted before the payload is read
+     * outside the lock by {@link #readDelivered(byte[])} or {@link #decodeDelivered(byte[])}.
+     *
+     * @return the record
+     */
+    byte[] delivered(byte[] record, long now) {
+        final long enqueuedAt = RecordFormat.enqueuedAt(record, record.length);
+        if (enqueuedAt != RecordFormat.UNKNOWN_ENQUEUE_TIME) {
+            dwellTime.record(now - enqueuedAt);
+        }
+        if (RecordFormat.isBlobReference(record)) {
+            blobs.retain(record);
+        }
+        return record;
+    }
+
+    /**
+     * Returns serialized payload of the delivered record, called without the lock. The blob of an offloaded
+     * payload is released once it is read, so a blob which cannot be read is kept until the queue is reopened.
+     *
+     * @param record record returned by {@link #delivered(byte[], long)}, may be {@code null}
+     * @return serialized payload, {@code null} if the record is {@code null}
+     */
+    byte[] readDelivered(byte[] record) {
+        if (record == null || !RecordFormat.isBlobReference(record)) {
+            return record == null ? null : RecordFormat.payloadOf(record);
+        }
+        final byte[] payload = blobs.read(record);
+        blobs.release(record);
+        return payload;
+    }
+
+    /**
+     * Deserializes payload of the delivered record, called without the lock. An offloaded payload is
+     * streamed from its blob, which is released once the payload is deserialized.
+     *
+     * @param record record returned by {@link #delivered(byte[], long)}, may be {@code null}
+     * @return the payload, {@code null} if the record is {@code null}
+     */
+    P decodeDelivered(byte[] record) {
+        if (record == null || !RecordFormat.isBlobReference(record)) {
+            return record == null ? null : Payload.deserialize(RecordFormat.payloadOf(record));
+        }
+        final P payload = Payload.deserialize(blobs.stream(record));
+        blobs.release(record);
+        return payload;
+    }
+
+    /**
+     * Counts a payload which expired before it was read, e.g. by a view of the queue.
+     */
+    void expired() {
+        expiredCount.increment();
+    }
+
+    /**
+     * Removes up to {@code maxRecords} expired records from the head of the queue, must be called with
+     * the lock held. Only headers of records are read to check expiry.
+     *
+     * @return number of removed records
+     */
+    private int removeExpiredHead(int maxRecords, long now) {
+        int removed = 0;
+        QueueStorage.Record header;
+        while (removed < maxRecords && (header = storage.readHead(headKey, RecordFormat.MAX_HEADER_SIZE)) != null
+                && RecordFormat.isExpired(header.getData(), now)) {
+            removed(storage.removeHead(headKey));
+            removed++;
+        }
+        if (removed > 0) {
+            expiredCount.add(removed);
+            onRemoveHead(headKey);
+            syncIfNeeded();
+            signalNotFull();
+        }
+        return removed;
+    }
+
+    /**
+     * Deletes expired records from the head of the queue in batches, releasing the lock between batches.
+     * Expired records behind a record which has not expired yet are skipped by polls.
+     */
+    void purgeExpired() {
+        try {
+            long purged = 0;
+            int removed;
+            do {
+                lock.lock();
+                try {
+                    removed = removeExpiredHead(PURGE_BATCH_SIZE, System.currentTimeMillis());
+                } finally {
+                    lock.unlock();
+                }
+                purged += removed;
+            } while (removed == PURGE_BATCH_SIZE);
+
+            if (purged > 0) {
+                LOGGER.info(queueName, "Expired payloads purged [payloads={}]", purged);
+            }
+        } catch (Exception ex) {
+            LOGGER.warn(queueName, "Error occurred during purging expired payloads", ex);
+        }
+    }
+
+    /**
+     * Deserializes payload of the record, streaming an offloaded payload from its blob.
+     *
+     * @return the payload, {@code null} if the payload was offloaded and its blob deleted meanwhile
+     */
+    P decode(byte[] record) {
+        if (!RecordFormat.isBlobReference(record)) {
+            return Payload.deserialize(RecordFormat.payloadOf(record));
+        }
+        final InputStream in = blobs.open(record);
+        return in == null ? null : Payload.deserialize(in);
+    }
+
+    /**
+     * Returns serialized payload of the record, reading an offloaded payload from its blob.
+     *
+     * @return the payload, {@code null} if the payload was offloaded and its blob deleted meanwhile
+     */
+    byte[] payloadOf(byte[] record) {
+        if (!RecordFormat.isBlobReference(record)) {
+            return RecordFormat.payloadOf(record);
+        }
+        final byte[] inlined = blobs.inline(record);
+        return inlined == null ? null : RecordFormat.payloadOf(inlined);
+    }
+
+    /**
+     * Returns the record with an offloaded payload read back from its blob, for exports and mirrors.
+     *
+     * @return the record, {@code null} if the payload was offloaded and its blob deleted meanwhile
+     */
+    byte[] inline(byte[] record) {
+        return RecordFormat.isBlobReference(record) ? blobs.inline(record) : record;
+    }
+
+    /**
+     * Source of payloads polled under the lock of the queue: the head of the queue or a view of the queue.
+     */
+    interface Reader {
+
+        /**
+         * Returns number of payloads which may be read, expired ones included, called with the lock held.
+         */
+        long available();
+
+        /**
+         * Reads the next unexpired record, called with the lock held. The record is passed through
+         * {@link #delivered(byte[], long)}, its payload is read after the lock is released.
+         *
+         * @return the record, {@code null} if there is none
+         */
+        byte[] readNext();
+    }
+
+    byte[] pollFrom(Reader reader) {
+        lock.lock();
+        try {
+            return reader.readNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    byte[] pollFrom(Reader reader, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            byte[] data = null;
+            while (data == null) {
+                while (reader.available() == 0) {
+                    if (nanos <= 0L) {
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+                data = reader.readNext();
+            }
+            return data;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    byte[] takeFrom(Reader reader) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            byte[] data = null;
+            while (data == null) {
+                while (reader.available() == 0) {
+                    notEmpty.await();
+                }
+                data = reader.readNext();
+            }
+            return data;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public P poll() {
+        return decodeDelivered(pollFrom(headReader));
+    }
+
+    @Override
+    public P poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return decodeDelivered(pollFrom(headReader, timeout, unit));
+    }
+
+    @Override
+    public byte[] pollRaw() {
+        return readDelivered(pollFrom(headReader));
+    }
+
+    @Override
+    public byte[] pollRaw(long timeout, TimeUnit unit) throws InterruptedException {
+        return readDelivered(pollFrom(headReader, timeout, unit));
+    }
+
+    @Override
+    public P take() throws InterruptedException {
+        return decodeDelivered(takeFrom(headReader));
+    }
+
+    @Override
+    public P remove() {
+        P payload = poll();
+        if (payload != null) {
+            return payload;
+        } else {
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * Returns the first unexpired record with a key not lower than the given one, without the lock.
+     *
+     * @param countExpired whether skipped expired records are counted as expired
+     * @return the record, {@code null} if there is none
+     */
+    QueueStorage.Record readUnexpired(QueueStorage source, long fromKey, boolean countExpired) {
+        final long now = System.currentTimeMillis();
+        QueueStorage.Record record = source.readHead(fromKey);
+        while (record != null && RecordFormat.isExpired(record.getData(), now)) {
+            if (countExpired) {
+                expiredCount.increment();
+            }
+            record = source.readHead(record.getKey() + 1);
+        }
+        return record;
+    }
+
+    @Override
+    public P peek() {
+        final QueueStorage.Record head = readUnexpired(storage, headKey, false);
+        return head == null ? null : decode(head.getData());
+    }
+
+    @Override
+    public byte[] peekRaw() {
+        final QueueStorage.Record head = readUnexpired(storage, headKey, false);
+        return head == null ? null : payloadOf(head.getData());
+    }
+
+    @Override
+    public P element() {
+        P payload = peek();
+        if (payload != null) {
+            return payload;
+        } else {
+            throw new NoSuchElementException();
+        }
+    }
+
+    @Override
+    public Iterator<P> iterator() {
+        return Spliterators.iterator(spliterator());
+    }
+
+    @Override
+    public Spliterator<P> spliterator() {
+        return spliterator(headKey);
+    }
+
+    /**
+     * Scans records of the queue from the given key to the tail at the time of the call.
+     */
+    Spliterator<P> spliterator(long fromKey) {
+        lock.lock();
+        try {
+            return new KeyRangeSpliterator<>(storage, Math.max(fromKey, headKey), tailKey, this::decode);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns histogram of time in milliseconds which payloads spent in the queue until they were polled,
+     * by the queue or its consumer groups, since the queue was opened. Dwell time of a requeued payload
+     * is measured from its last requeue. Payloads written by versions which did not store enqueue time
+     * are not recorded.
+     *
+     * @return the dwell time histogram
+     */
+    public Histogram getDwellTime() {
+        return dwellTime;
+    }
+
+    /**
+     * Returns age of the first payload in the queue, the one waiting longest. Only the header of the record
+     * is read, without the lock.
+     *
+     * @return age in milliseconds, {@code -1} if the queue is empty or the first record was written by
+     * a version which did not store enqueue time
+     */
+    public long getOldestAgeMillis() {
+        final QueueStorage.Record head = storage.readHead(headKey, RecordFormat.MAX_HEADER_SIZE);
+        if (head == null) {
+            return -1;
+        }
+        final long enqueuedAt = RecordFormat.enqueuedAt(head.getData(), head.getData().length);
+        return enqueuedAt == RecordFormat.UNKNOWN_ENQUEUE_TIME
+                ? -1 : Math.max(0, System.currentTimeMillis() - enqueuedAt);
+    }
+
+    /**
+     * Returns number of expired payloads skipped by polls or deleted by the background purger since
+     * the queue was opened
+     *
+     * @return number of expired payloads
+     */
+    public long getExpiredCount() {
+        return expiredCount.sum();
+    }
+
+    @Override
+    public long size() {
+        return storage.count();
+    }
+
+    /**
+     * Returns total size of serialized payloads in the queue, which is limited by {@code capacityBytes}
+     *
+     * @return size of the queue in bytes
+     */
+    public long sizeInBytes() {
+        return storage.bytes();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return storage.count() == 0;
+    }
+
+    @Override
+    public String name() {
+        return queueName;
+    }
+
+    /**
+     * Writes payloads of the queue, from the head to the tail, to the stream in a length-prefixed format,
+     * optionally compressed. Expired payloads are skipped, others keep their expiry time. Records are read
+     * in batches with the same semantics as {@link #iterator()}, so the queue stays available to producers
+     * and consumers. The stream is not closed.
+     *
+     * @param out        stream to write payloads to
+     * @param compressed whether payloads are compressed with GZIP
+     * @return number of exported payloads
+     * @throws IOException if writing to the stream fails
+     */
+    public long exportTo(OutputStream out, boolean compressed) throws IOException {
+        final Iterator<byte[]> records;
+        lock.lock();
+        try {
+            records = Spliterators.iterator(new KeyRangeSpliterator<>(storage, headKey, tailKey, this::inline));
+        } finally {
+            lock.unlock();
+        }
+
+        long exported = 0;
+        try (DataOutputStream writer = QueueExportFormat.openWriter(out, compressed)) {
+            while (records.hasNext()) {
+                final byte[] data = records.next();
+                writer.writeInt(data.length);
+                writer.write(data);
+                exported++;
+            }
+            writer.writeInt(QueueExportFormat.END_OF_RECORDS);
+        }
+        LOGGER.info(queueName, "Queue exported [payloads={}, compressed={}]", exported, compressed);
+        return exported;
+    }
+
+    /**
+     * Writes payloads of the queue to the file, see {@link #exportTo(OutputStream, boolean)}.
+     *
+     * @param path       file to write payloads to, replaced if exists
+     * @param compressed whether payloads are compressed with GZIP
+     * @return number of exported payloads
+     * @throws IOException if writing to the file fails
+     */
+    public long exportTo(Path path, boolean compressed) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            return exportTo(out, compressed);
+        }
+    }
+
+    /**
+     * Appends payloads written by {@link #exportTo(OutputStream, boolean)} at the tail of the queue.
+     * Payloads are written in batches, each under a single lock and followed by a single sync, so memory
+     * use is bounded by the batch. Payloads imported before a failure stay in the queue. The stream is not closed.
+     *
+     * @param in stream to read payloads from
+     * @return number of imported payloads
+     * @throws IOException if the stream cannot be read or is not a queue export
+     * @throws EnqueueException if the queue becomes full
+     */
+    public long importFrom(InputStream in) throws IOException {
+        final DataInputStream reader = QueueExportFormat.openReader(in);
+        final List<byte[]> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+
+        long imported = 0;
+        int length;
+        while ((length = reader.readInt()) != QueueExportFormat.END_OF_RECORDS) {
+            if (length < 0) {
+                throw new IOException("Corrupted queue export [length=" + length + "]");
+            }
+            final byte[] data = new byte[length];
+            reader.readFully(data);
+            batch.add(data);
+
+            if (batch.size() == IMPORT_BATCH_SIZE) {
+                imported += appendAll(batch);
+                batch.clear();
+            }
+        }
+        imported += appendAll(batch);
+        LOGGER.info(queueName, "Queue imported [payloads={}]", imported);
+        return imported;
+    }
+
+    /**
+     * Appends payloads exported to the file, see {@link #importFrom(InputStream)}.
+     *
+     * @param path file to read payloads from
+     * @return number of imported payloads
+     * @throws IOException if the file cannot be read or is not a queue export
+     */
+    public long importFrom(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return importFrom(in);
+        }
+    }
+
+    private int appendAll(List<byte[]> batch) {
+        lock.lock();
+        try {
+            int appended = 0;
+            try {
+                for (byte[] record : batch) {
+                    if (!hasRoomFor(RecordFormat.payloadSize(record))) {
+                        throw new EnqueueException("Unable to import payloads, queue is full [capacity="
+                                + capacity + ", capacityBytes=" + capacityBytes + "]", null);
+                    }
+                    write(RecordFormat.headerOf(record), RecordFormat.payloadOf(record));
+                    appended++;
+                }
+            } finally {
+                if (appended > 0) {
+                    sync();
+                    notEmpty.signalAll();
+                }
+            }
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Syncs and closes the storage.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            sync();
+            onClose();
+            storage.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
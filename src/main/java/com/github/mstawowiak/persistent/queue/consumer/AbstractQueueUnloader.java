@@ -4,50 +4,340 @@ import com.github.mstawowiak.commons.logging.ContextLogger;
 import com.github.mstawowiak.commons.logging.ContextLoggerFactory;
 import com.github.mstawowiak.persistent.queue.Payload;
 import com.github.mstawowiak.persistent.queue.Queue;
+import com.github.mstawowiak.persistent.queue.exception.SerializationException;
+import com.github.mstawowiak.persistent.queue.strategy.IdleStrategy;
 import com.github.mstawowiak.persistent.queue.strategy.WaitStrategy;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public abstract class AbstractQueueUnloader<P extends Payload> implements QueueUnloader {
 
     protected static final ContextLogger LOGGER = ContextLoggerFactory.getLogger();
 
+    /**
+     * How long the start thread waits for a payload before checking whether unloading was stopped.
+     * Pushed payloads wake the start thread immediately.
+     */
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    /**
+     * How long idle consumer threads are kept alive when autoscaling is enabled
+     */
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static final int NO_EXCEPTIONS = 0;
+    private final AtomicLong failedCounterInARow = new AtomicLong(0);
+
     private final ExecutorService startThread;
-    protected final ExecutorService consumerThreadPool;
+    protected final ThreadPoolExecutor consumerThreadPool;
 
     protected final Queue<P> queue;
     protected final Consumer<P> consumer;
+    protected final RawConsumer rawConsumer;
     protected final WaitStrategy waitStrategy;
+    protected final IdleStrategy idleStrategy;
+    protected final RateLimiter rateLimiter;
+
+    private final long processingTimeoutMillis;
+    private final DeadlineWatchdog deadlineWatchdog;
+    private final LongAdder timeoutCount = new LongAdder();
 
     public AbstractQueueUnloader(Queue<P> queue, QueueUnloaderConfig<P> config) {
         this.queue = queue;
         this.consumer = config.getConsumer();
+        this.rawConsumer = config.getRawConsumer();
         this.waitStrategy = config.getWaitStrategy();
+        this.idleStrategy = config.getIdleStrategy();
+        this.rateLimiter = config.getRateLimiter();
 
         this.startThread = Executors.newSingleThreadExecutor(config.getThreadFactory());
-        this.consumerThreadPool = Executors.newFixedThreadPool(config.getNumOfThreads(), config.getThreadFactory());
+        this.consumerThreadPool = config.isAutoscaling()
+                ? autoscalingThreadPool(config)
+                : new ThreadPoolExecutor(config.getNumOfThreads(), config.getNumOfThreads(),
+                        0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), config.getThreadFactory());
+
+        this.processingTimeoutMillis = config.getProcessingTimeoutMillis();
+        this.deadlineWatchdog = config.isProcessingTimeoutEnabled()
+                ? new DeadlineWatchdog(consumerThreadPool, config.getThreadFactory())
+                : null;
+    }
+
+    /**
+     * Creates a pool of up to {@code maxThreads} threads, which are started on demand and terminated
+     * after being idle for a while, so the number of live threads follows the actual concurrency.
+     */
+    private static ThreadPoolExecutor autoscalingThreadPool(QueueUnloaderConfig<?> config) {
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(config.getMaxThreads(), config.getMaxThreads(),
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), config.getThreadFactory());
+        threadPool.allowCoreThreadTimeOut(true);
+        return threadPool;
+    }
+
+    /**
+     * Payload taken from the queue. Keeps the serialized payload, which is given to a raw consumer
+     * and returned to the queue as is if consumption fails. The start thread only claims the serialized
+     * payload, it is deserialized by {@link #decode(Delivery)} on the thread which consumes it.
+     */
+    protected static final class Delivery<P extends Payload> {
+
+        private final byte[] data;
+        private P payload;
+
+        Delivery(byte[] data) {
+            this.data = data;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * Returns deserialized payload, {@code null} for a raw consumer or before the payload is decoded
+         *
+         * @return the payload
+         */
+        public P getPayload() {
+            return payload;
+        }
+    }
+
+    protected abstract void process(Delivery<P> delivery);
+
+    /**
+     * Invoked when unloading is started, before the first payload is taken from the queue.
+     */
+    protected void onStart() {
+    }
+
+    /**
+     * Invoked when unloading is stopped, before thread pools are shut down.
+     */
+    protected void onStop() {
+    }
+
+    /**
+     * Deserializes the payload on the calling thread, unless it is already deserialized or consumed raw.
+     * A payload which cannot be deserialized is skipped, it is neither consumed nor returned to the queue.
+     *
+     * @return {@code true} if the payload is ready to be consumed, {@code false} if it was skipped
+     */
+    protected boolean decode(Delivery<P> delivery) {
+        if (rawConsumer != null || delivery.payload != null) {
+            return true;
+        }
+        try {
+            delivery.payload = Payload.deserialize(delivery.data);
+            return true;
+        } catch (SerializationException ex) {
+            LOGGER.warn(queue.name(), "Skipping payload. Reason: '{}'", ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Consumes the payload on the calling thread, returning it to the queue if the consumer fails.
+     */
+    protected void consume(Delivery<P> delivery) {
+        consume(delivery, () -> { });
     }
 
-    protected abstract void process();
+    /**
+     * Consumes the payload on the calling thread, returning it to the queue if the consumer fails or exceeds
+     * the processing timeout. The given action is run once the payload is consumed or returned to the queue,
+     * which for a timed out consumer happens at the deadline, while the consumer may still be running,
+     * or once the payload is skipped because it cannot be deserialized.
+     */
+    protected void consume(Delivery<P> delivery, Runnable onFinish) {
+        if (!decode(delivery)) {
+            onFinish.run();
+            return;
+        }
+        final DeadlineWatchdog.Deadline deadline = startDeadline(() -> {
+            try {
+                queue.requeueRaw(delivery.getData());
+            } finally {
+                onFinish.run();
+            }
+        });
+        boolean consumed = false;
+        try {
+            consumed = invokeConsumer(delivery);
+        } finally {
+            if (deadline == null || deadline.finish()) {
+                try {
+                    recordOutcome(consumed);
+                    if (!consumed) {
+                        queue.requeueRaw(delivery.getData());
+                    }
+                } finally {
+                    onFinish.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Consumes the payload on the calling thread, leaving handling of a failure to the caller. A consumer
+     * which exceeds the processing timeout is interrupted and its consumption fails once it returns.
+     *
+     * @return {@code true} if the payload was consumed or skipped because it cannot be deserialized,
+     *         {@code false} if the consumer failed or timed out
+     */
+    protected boolean tryConsume(Delivery<P> delivery) {
+        if (!decode(delivery)) {
+            return true;
+        }
+        final DeadlineWatchdog.Deadline deadline = startDeadline(() -> { });
+        boolean consumed = false;
+        try {
+            consumed = invokeConsumer(delivery);
+        } finally {
+            if (deadline != null && !deadline.finish()) {
+                consumed = false;
+            } else {
+                recordOutcome(consumed);
+            }
+        }
+        return consumed;
+    }
+
+    private boolean invokeConsumer(Delivery<P> delivery) {
+        try {
+            if (rawConsumer != null) {
+                rawConsumer.consume(delivery.getData());
+            } else {
+                consumer.consume(delivery.getPayload());
+            }
+            return true;
+        } catch (Exception ex) {
+            LOGGER.warn(queue.name(), "Unable to consume payload", ex);
+            return false;
+        }
+    }
+
+    private void recordOutcome(boolean consumed) {
+        if (!consumed) {
+            failedCounterInARow.incrementAndGet();
+        } else if (failedCounterInARow.get() > NO_EXCEPTIONS) {
+            LOGGER.debug(queue.name(), "Reset repeat delay");
+            failedCounterInARow.set(NO_EXCEPTIONS);
+        }
+    }
+
+    /**
+     * Starts deadline of consumption on the calling thread, counting it as a failure when it passes.
+     *
+     * @return the deadline, {@code null} if consumption is not timed out
+     */
+    private DeadlineWatchdog.Deadline startDeadline(Runnable onTimeout) {
+        if (deadlineWatchdog == null) {
+            return null;
+        }
+        return deadlineWatchdog.start(processingTimeoutMillis, () -> {
+            LOGGER.warn(queue.name(), "Consumption of payload timed out, interrupting consumer [timeoutMillis={}]",
+                    processingTimeoutMillis);
+            timeoutCount.increment();
+            failedCounterInARow.incrementAndGet();
+            onTimeout.run();
+        });
+    }
+
+    /**
+     * Returns number of consumptions which exceeded the processing timeout since the unloader was created
+     *
+     * @return number of timed out consumptions
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    protected void handleFailure(Delivery<P> delivery, Exception ex) {
+        LOGGER.warn(queue.name(), "Unable to consume payload", ex);
+
+        failedCounterInARow.incrementAndGet();
+        queue.requeueRaw(delivery.getData());
+    }
+
+    /**
+     * Sleeps according to the wait strategy if the last consumptions failed, to prevent log killing.
+     */
+    protected void waitIfFailing() {
+        long failedCount = failedCounterInARow.get();
+        if (failedCount > NO_EXCEPTIONS) {
+            sleepSafe(waitStrategy.computeSleepTime(failedCount));
+        }
+    }
+
+    private static void sleepSafe(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
     @Override
     public final void start() {
         LOGGER.info(queue.name(), "Queue unloading started [size={}]", queue.size());
 
+        onStart();
         startThread.execute(() -> {
+            long idleCount = 0;
             // infinite loop
             while (!startThread.isShutdown()) {
                 try {
-                    queue.getSemaphore().acquire();
-                    process();
-                } catch (Exception ex) {
+                    byte[] data = nextRecord();
+                    if (data != null) {
+                        idleCount = 0;
+                        Delivery<P> delivery = new Delivery<>(data);
+                        throttle(delivery);
+                        process(delivery);
+                    } else if (!idleStrategy.isBlocking()) {
+                        idleStrategy.idle(++idleCount);
+                    }
+                } catch (InterruptedException ex) {
                     LOGGER.warn(queue.name(), "The start thread was interrupted", ex);
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception ex) {
+                    LOGGER.warn(queue.name(), "Error occurred in the start thread", ex);
                 }
             }
         });
     }
 
+    /**
+     * Takes the next serialized payload, blocking on the queue or checking it without locking, depending on
+     * the idle strategy.
+     */
+    private byte[] nextRecord() throws InterruptedException {
+        if (idleStrategy.isBlocking()) {
+            return queue.pollRaw(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return queue.isEmpty() ? null : queue.pollRaw();
+    }
+
+    /**
+     * Waits for a permit of the rate limiter on the start thread, so consumer threads are never
+     * held by rate limiting.
+     */
+    private void throttle(Delivery<P> delivery) throws InterruptedException {
+        if (rateLimiter == null) {
+            return;
+        }
+        try {
+            rateLimiter.acquire();
+        } catch (InterruptedException ex) {
+            queue.requeueRaw(delivery.getData());
+            throw ex;
+        }
+    }
+
     /**
      * Initialization of stop procedure in order to finish executing already submitted tasks.
      * No new tasks will be accepted.
@@ -61,7 +351,7 @@ public abstract class AbstractQueueUnloader<P extends Payload> implements QueueU
     }
 
     private void stop(int timeout, TimeUnit timeUnit) {
-        queue.getSemaphore().release();
+        onStop();
         startThread.shutdown();
         try {
             if (!startThread.awaitTermination(timeout, timeUnit)) {
@@ -83,6 +373,10 @@ public abstract class AbstractQueueUnloader<P extends Payload> implements QueueU
             LOGGER.warn(queue.name(), "Error occurred during waiting for "
                     + "'consumerThreadPool' thread pool termination", e);
         }
+
+        if (deadlineWatchdog != null) {
+            deadlineWatchdog.shutdown();
+        }
     }
 
     private void closeQueue() {
@@ -0,0 +1,71 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+/**
+ * Additive-increase/multiplicative-decrease controller of consumer concurrency.
+ * <p>
+ * Concurrency grows by one while all permits are in use and the backlog would not be drained within
+ * the next interval at the current drain rate. It is cut multiplicatively when consumer latency exceeds
+ * {@link #LATENCY_TOLERANCE} times the best observed latency, which signals that the downstream system
+ * is saturated. Without backlog idle concurrency is released one by one.
+ */
+class ConcurrencyController {
+
+    /**
+     * Latency above {@code baseline * LATENCY_TOLERANCE} is treated as downstream saturation
+     */
+    static final double LATENCY_TOLERANCE = 2.0;
+
+    /**
+     * Ratio applied to the concurrency limit on saturation
+     */
+    static final double BACKOFF_RATIO = 0.75;
+
+    /**
+     * Per update growth of the baseline latency, so that it follows a permanent latency shift
+     */
+    private static final double BASELINE_DRIFT = 1.05;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private int limit;
+    private double baselineLatencyNanos = Double.MAX_VALUE;
+
+    ConcurrencyController(int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = minLimit;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Computes new concurrency limit from statistics gathered since the last update
+     *
+     * @param backlog            number of payloads waiting in the queue
+     * @param inFlight           number of payloads being consumed
+     * @param completed          number of payloads consumed since the last update
+     * @param totalLatencyNanos  summary consumer latency of the completed payloads
+     * @return new concurrency limit
+     */
+    int update(long backlog, int inFlight, long completed, long totalLatencyNanos) {
+        if (completed > 0) {
+            double latencyNanos = (double) totalLatencyNanos / completed;
+            baselineLatencyNanos = Math.min(latencyNanos, baselineLatencyNanos * BASELINE_DRIFT);
+
+            if (latencyNanos > baselineLatencyNanos * LATENCY_TOLERANCE) {
+                limit = Math.max(minLimit, (int) (limit * BACKOFF_RATIO));
+                return limit;
+            }
+        }
+
+        if (inFlight >= limit && backlog > completed) {
+            limit = Math.min(maxLimit, limit + 1);
+        } else if (backlog == 0 && inFlight < limit) {
+            limit = Math.max(minLimit, limit - 1);
+        }
+        return limit;
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+import com.github.mstawowiak.persistent.queue.Payload;
+import com.github.mstawowiak.persistent.queue.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Unloader which consumes up to {@code numOfThreads} payloads in parallel. Payloads are taken from the queue
+ * in order, but may be consumed out of order.
+ * <p>
+ * With autoscaling enabled the number of payloads consumed in parallel is adjusted by
+ * {@link ConcurrencyController} between {@code minThreads} and {@code maxThreads}.
+ */
+public class ConcurrentQueueUnloader<P extends Payload> extends AbstractQueueUnloader<P> {
+
+    private final ResizableSemaphore concurrencyLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+
+    private final ConcurrencyController controller;
+    private final ScheduledExecutorService controllerThread;
+    private final long autoscalingIntervalMillis;
+
+    public ConcurrentQueueUnloader(Queue<P> queue, QueueUnloaderConfig<P> config) {
+        super(queue, config);
+
+        this.concurrencyLimit = new ResizableSemaphore(config.getMinThreads());
+        this.autoscalingIntervalMillis = config.getAutoscalingIntervalMillis();
+        if (config.isAutoscaling()) {
+            this.controller = new ConcurrencyController(config.getMinThreads(), config.getMaxThreads());
+            this.controllerThread = Executors.newSingleThreadScheduledExecutor(config.getThreadFactory());
+        } else {
+            this.controller = null;
+            this.controllerThread = null;
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        if (controllerThread != null) {
+            controllerThread.scheduleWithFixedDelay(this::adjustConcurrency,
+                    autoscalingIntervalMillis, autoscalingIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        if (controllerThread != null) {
+            controllerThread.shutdownNow();
+        }
+    }
+
+    @Override
+    protected void process(Delivery<P> delivery) {
+        waitIfFailing();
+
+        try {
+            concurrencyLimit.acquire();
+        } catch (InterruptedException ex) {
+            queue.requeueRaw(delivery.getData());
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        inFlight.incrementAndGet();
+        try {
+            consumerThreadPool.execute(() -> {
+                long start = System.nanoTime();
+                consume(delivery, () -> {
+                    totalLatencyNanos.add(System.nanoTime() - start);
+                    completed.increment();
+                    release();
+                });
+            });
+        } catch (Exception ex) {
+            release();
+            handleFailure(delivery, ex);
+        }
+    }
+
+    private void release() {
+        inFlight.decrementAndGet();
+        concurrencyLimit.release();
+    }
+
+    private void adjustConcurrency() {
+        try {
+            int currentLimit = concurrencyLimit.getLimit();
+            int newLimit = controller.update(queue.size(), inFlight.get(),
+                    completed.sumThenReset(), totalLatencyNanos.sumThenReset());
+            if (newLimit != currentLimit) {
+                LOGGER.debug(queue.name(), "Consumer concurrency changed [from={}, to={}]", currentLimit, newLimit);
+                concurrencyLimit.setLimit(newLimit);
+            }
+        } catch (Exception ex) {
+            LOGGER.warn(queue.name(), "Error occurred during adjusting consumer concurrency", ex);
+        }
+    }
+
+    /**
+     * Returns current number of payloads which may be consumed in parallel
+     *
+     * @return current concurrency limit
+     */
+    public int getConcurrency() {
+        return concurrencyLimit.getLimit();
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Watches deadlines of consumptions running on threads of a pool. When a deadline passes, the consumer
+ * thread is interrupted and the pool gets an additional thread until the consumer returns, so a consumer
+ * hung e.g. on a socket which ignores interrupts does not take a thread away from other payloads.
+ */
+final class DeadlineWatchdog {
+
+    private static final int RUNNING = 0;
+    private static final int FINISHED = 1;
+    private static final int TIMING_OUT = 2;
+    private static final int TIMED_OUT = 3;
+
+    private final ThreadPoolExecutor consumerThreadPool;
+    private final ScheduledExecutorService timer;
+
+    DeadlineWatchdog(ThreadPoolExecutor consumerThreadPool, ThreadFactory threadFactory) {
+        this.consumerThreadPool = consumerThreadPool;
+        this.timer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    /**
+     * Starts deadline of a consumption running on the calling thread.
+     *
+     * @param timeoutMillis time after which the consumption times out
+     * @param onTimeout     action run by the watchdog when the consumption times out, before the consumer
+     *                      thread is interrupted
+     * @return the deadline, which has to be finished by the consumer thread once the consumer returns
+     */
+    Deadline start(long timeoutMillis, Runnable onTimeout) {
+        final Deadline deadline = new Deadline(Thread.currentThread(), onTimeout);
+        deadline.timeout = timer.schedule(deadline::expire, timeoutMillis, TimeUnit.MILLISECONDS);
+        return deadline;
+    }
+
+    private synchronized void addThread() {
+        consumerThreadPool.setMaximumPoolSize(consumerThreadPool.getMaximumPoolSize() + 1);
+        consumerThreadPool.setCorePoolSize(consumerThreadPool.getCorePoolSize() + 1);
+    }
+
+    private synchronized void removeThread() {
+        consumerThreadPool.setCorePoolSize(consumerThreadPool.getCorePoolSize() - 1);
+        consumerThreadPool.setMaximumPoolSize(consumerThreadPool.getMaximumPoolSize() - 1);
+    }
+
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    final class Deadline {
+
+        private final Thread consumerThread;
+        private final Runnable onTimeout;
+        private final AtomicInteger state = new AtomicInteger(RUNNING);
+        private volatile ScheduledFuture<?> timeout;
+
+        Deadline(Thread consumerThread, Runnable onTimeout) {
+            this.consumerThread = consumerThread;
+            this.onTimeout = onTimeout;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(RUNNING, TIMING_OUT)) {
+                return;
+            }
+            try {
+                addThread();
+                onTimeout.run();
+            } finally {
+                consumerThread.interrupt();
+                state.set(TIMED_OUT);
+            }
+        }
+
+        /**
+         * Finishes the deadline once the consumer returned, on the consumer thread. After a timeout
+         * the additional thread of the pool is removed and the interrupt is cleared, so that it does not
+         * hit the next payload consumed by the thread.
+         *
+         * @return {@code true} if the consumer returned in time, {@code false} if it timed out
+         */
+        boolean finish() {
+            if (state.compareAndSet(RUNNING, FINISHED)) {
+                timeout.cancel(false);
+                return true;
+            }
+            while (state.get() != TIMED_OUT) {
+                Thread.yield();
+            }
+            Thread.interrupted();
+            removeThread();
+            return false;
+        }
+    }
+}
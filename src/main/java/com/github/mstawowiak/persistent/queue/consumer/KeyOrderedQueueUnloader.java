@@ -0,0 +1,162 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+import com.github.mstawowiak.persistent.queue.Payload;
+import com.github.mstawowiak.persistent.queue.Queue;
+import com.github.mstawowiak.persistent.queue.util.Preconditions;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Unloader which consumes payloads with equal ordering keys one by one in queue order and payloads with
+ * different keys in parallel on up to {@code numOfThreads} threads.
+ * <p>
+ * Payloads of a key form a lane, which is consumed by a single thread at a time. A failed payload is
+ * retried in its lane according to the wait strategy, holding back later payloads of the same key only.
+ * Payloads of a failing lane are returned to the queue in order when unloading is stopped.
+ */
+public class KeyOrderedQueueUnloader<P extends Payload> extends AbstractQueueUnloader<P> {
+
+    /**
+     * Maximum number of payloads taken from the queue but not consumed yet, per consumer thread
+     */
+    private static final int MAX_PENDING_PER_THREAD = 32;
+
+    private final Function<? super P, ?> orderingKey;
+    private final Semaphore pendingLimit;
+
+    /**
+     * Lanes of keys with payloads waiting or being consumed, guarded by itself
+     */
+    private final Map<Object, Lane> lanes = new HashMap<>();
+
+    private volatile boolean stopping;
+
+    public KeyOrderedQueueUnloader(Queue<P> queue, QueueUnloaderConfig<P> config) {
+        super(queue, config);
+        Preconditions.checkArgument(config.getOrderingKey() != null, "Ordering key may not be null");
+
+        this.orderingKey = config.getOrderingKey();
+        this.pendingLimit = new Semaphore(config.getMaxThreads() * MAX_PENDING_PER_THREAD);
+    }
+
+    @Override
+    protected void onStop() {
+        stopping = true;
+    }
+
+    @Override
+    protected void process(Delivery<P> delivery) {
+        // the ordering key is taken from the payload, so it is deserialized on the start thread
+        if (!decode(delivery)) {
+            return;
+        }
+        final Object key = orderingKey.apply(delivery.getPayload());
+
+        try {
+            pendingLimit.acquire();
+        } catch (InterruptedException ex) {
+            queue.requeueRaw(delivery.getData());
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        final Lane lane;
+        synchronized (lanes) {
+            final Lane existingLane = lanes.get(key);
+            if (existingLane != null) {
+                existingLane.pending.add(delivery);
+                return;
+            }
+            lane = new Lane(key, delivery);
+            lanes.put(key, lane);
+        }
+
+        try {
+            consumerThreadPool.execute(lane);
+        } catch (Exception ex) {
+            synchronized (lanes) {
+                lanes.remove(key);
+            }
+            for (Delivery<P> pending : lane.pending) {
+                pendingLimit.release();
+                handleFailure(pending, ex);
+            }
+        }
+    }
+
+    /**
+     * Consumes the payload, retrying it until it is consumed or unloading is stopped.
+     *
+     * @return {@code true} if the payload was consumed, {@code false} if it was returned to the queue
+     */
+    private boolean consumeInOrder(Delivery<P> delivery) {
+        long attempt = 0;
+        while (!tryConsume(delivery)) {
+            if (stopping) {
+                queue.requeueRaw(delivery.getData());
+                return false;
+            }
+            try {
+                Thread.sleep(waitStrategy.computeSleepTime(++attempt));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                queue.requeueRaw(delivery.getData());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns number of keys with payloads waiting or being consumed
+     *
+     * @return number of active lanes
+     */
+    public int getActiveLanes() {
+        synchronized (lanes) {
+            return lanes.size();
+        }
+    }
+
+    private final class Lane implements Runnable {
+
+        private final Object key;
+        private final ArrayDeque<Delivery<P>> pending = new ArrayDeque<>();
+
+        Lane(Object key, Delivery<P> first) {
+            this.key = key;
+            this.pending.add(first);
+        }
+
+        @Override
+        public void run() {
+            boolean requeueRemaining = false;
+            Delivery<P> delivery = next();
+            while (delivery != null) {
+                if (requeueRemaining) {
+                    queue.requeueRaw(delivery.getData());
+                } else {
+                    requeueRemaining = !consumeInOrder(delivery);
+                }
+                pendingLimit.release();
+
+                synchronized (lanes) {
+                    pending.poll();
+                    delivery = pending.peek();
+                    if (delivery == null) {
+                        lanes.remove(key);
+                    }
+                }
+            }
+        }
+
+        private Delivery<P> next() {
+            synchronized (lanes) {
+                return pending.peek();
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+import com.github.mstawowiak.commons.logging.ContextLogger;
+import com.github.mstawowiak.commons.logging.ContextLoggerFactory;
+import com.github.mstawowiak.persistent.queue.Payload;
+import com.github.mstawowiak.persistent.queue.Queue;
+import com.github.mstawowiak.persistent.queue.exception.SerializationException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Reactive Streams {@link Publisher} of payloads taken from the queue. Payloads are removed from the queue
+ * only as subscribers request them, so backpressure of a subscriber reaches the queue storage and payloads
+ * which were not requested stay persisted.
+ * <p>
+ * Deletion is confirmed by the subscriber: the head of the queue is peeked and signalled, and it is removed
+ * only once {@code onNext} returns normally. A payload whose {@code onNext} throws stays at the head of
+ * the queue, and so does a payload in flight when the process crashes, so delivery is at least once and
+ * a payload may be delivered again.
+ * <p>
+ * The publisher has to be the only consumer of the queue. Its subscribers share the payloads like competing
+ * consumers, taking turns at the head of the queue, so {@code onNext} is not called for two subscribers
+ * at once. While the queue is empty, it is checked for new payloads every {@value #IDLE_MILLIS} ms.
+ */
+public class QueuePublisher<P extends Payload> implements Publisher<P> {
+
+    private static final ContextLogger LOGGER = ContextLoggerFactory.getLogger();
+
+    private static final long IDLE_MILLIS = 10;
+
+    private final Queue<P> queue;
+    private final Executor executor;
+    private final long pollTimeoutMillis;
+    private final boolean completeWhenEmpty;
+
+    /**
+     * Held by a subscription from peeking the head of the queue until it is acknowledged and removed
+     */
+    private final ReentrantLock deliveryLock = new ReentrantLock();
+
+    public QueuePublisher(Queue<P> queue) {
+        this(queue, new QueuePublisherConfig.Builder().build());
+    }
+
+    public QueuePublisher(Queue<P> queue, QueuePublisherConfig config) {
+        this.queue = queue;
+        this.executor = config.getExecutor() != null ? config.getExecutor() : defaultExecutor(queue.name());
+        this.pollTimeoutMillis = config.getPollTimeoutMillis();
+        this.completeWhenEmpty = config.isCompleteWhenEmpty();
+    }
+
+    private static Executor defaultExecutor(String queueName) {
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "queue-publisher-" + queueName + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super P> subscriber) {
+        Objects.requireNonNull(subscriber, "Subscriber may not be null");
+
+        new QueueSubscription(subscriber).drain();
+    }
+
+    /**
+     * Subscription signalling the subscriber from executor threads. All signals, including
+     * {@code onSubscribe}, are emitted by the drain loop, which runs on one thread at a time.
+     */
+    private final class QueueSubscription implements Subscription {
+
+        private final Subscriber<? super P> subscriber;
+
+        private final AtomicLong requested = new AtomicLong();
+        /**
+         * Number of drain requests not handled yet, the drain loop runs while it is non-zero
+         */
+        private final AtomicInteger pendingDrains = new AtomicInteger();
+
+        private volatile boolean cancelled;
+        private volatile IllegalArgumentException invalidRequest;
+        private boolean subscribed;
+
+        QueueSubscription(Subscriber<? super P> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException(
+                        "Requested number of payloads must be > 0 but is " + n);
+            } else {
+                long current;
+                do {
+                    current = requested.get();
+                } while (current != Long.MAX_VALUE
+                        && !requested.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private void drain() {
+            if (pendingDrains.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this::drainLoop);
+                } catch (Exception ex) {
+                    LOGGER.warn(queue.name(), "Unable to deliver payloads to subscriber", ex);
+                    cancelled = true;
+                }
+            }
+        }
+
+        private void drainLoop() {
+            int missed = 1;
+            do {
+                if (!subscribed) {
+                    subscribed = true;
+                    subscriber.onSubscribe(this);
+                }
+                while (!cancelled) {
+                    if (invalidRequest != null) {
+                        cancelled = true;
+                        subscriber.onError(invalidRequest);
+                        return;
+                    }
+                    if (requested.get() == 0) {
+                        break;
+                    }
+                    try {
+                        if (!deliverNext() && completeWhenEmpty) {
+                            cancelled = true;
+                            subscriber.onComplete();
+                            return;
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        cancelled = true;
+                        subscriber.onError(ex);
+                        return;
+                    } catch (RuntimeException ex) {
+                        LOGGER.warn(queue.name(), "Error occurred while taking payload from the queue", ex);
+                        cancelled = true;
+                        subscriber.onError(ex);
+                        return;
+                    }
+                }
+                missed = pendingDrains.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /**
+         * Delivers the head of the queue, waiting up to the poll timeout for a payload to be pushed.
+         *
+         * @return {@code false} if the queue stayed empty
+         */
+        private boolean deliverNext() throws InterruptedException {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pollTimeoutMillis);
+            while (!cancelled) {
+                deliveryLock.lock();
+                try {
+                    final byte[] data = queue.peekRaw();
+                    if (data != null) {
+                        deliver(data);
+                        return true;
+                    }
+                } finally {
+                    deliveryLock.unlock();
+                }
+                final long remainingNanos = deadline - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.sleep(Math.min(remainingNanos, TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS)));
+            }
+            return true;
+        }
+
+        /**
+         * Signals the payload peeked from the head of the queue and removes it once {@code onNext} returns.
+         * If the subscriber fails, the payload stays in the queue. A payload which cannot be deserialized
+         * is removed. Must be called with the delivery lock held.
+         */
+        private void deliver(byte[] data) {
+            final P payload;
+            try {
+                payload = Payload.deserialize(data);
+            } catch (SerializationException ex) {
+                LOGGER.warn(queue.name(), "Skipping payload. Reason: '{}'", ex.getMessage());
+                acknowledge(data);
+                return;
+            }
+            try {
+                subscriber.onNext(payload);
+            } catch (RuntimeException ex) {
+                LOGGER.warn(queue.name(), "Subscriber failed, cancelling subscription", ex);
+                cancelled = true;
+                return;
+            }
+            acknowledge(data);
+            if (requested.get() != Long.MAX_VALUE) {
+                requested.decrementAndGet();
+            }
+        }
+
+        /**
+         * Removes the delivered payload from the head of the queue. A different payload removed instead,
+         * e.g. because the delivered one expired meanwhile, is pushed back to the queue.
+         */
+        private void acknowledge(byte[] data) {
+            final byte[] removed = queue.pollRaw();
+            if (removed != null && !Arrays.equals(removed, data)) {
+                queue.requeueRaw(removed);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+import com.github.mstawowiak.persistent.queue.util.Preconditions;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+public class QueuePublisherConfig {
+
+    private final Executor executor;
+    private final long pollTimeoutMillis;
+    private final boolean completeWhenEmpty;
+
+    private QueuePublisherConfig(Builder builder) {
+        this.executor = builder.executor;
+        this.pollTimeoutMillis = builder.pollTimeoutMillis;
+        this.completeWhenEmpty = builder.completeWhenEmpty;
+    }
+
+    public static class Builder {
+
+        private Executor executor;
+        private long pollTimeoutMillis = 100;
+        private boolean completeWhenEmpty;
+
+        /**
+         * Executor delivering payloads to subscribers. A subscription with outstanding demand holds one of its
+         * threads while it waits for payloads, so the executor should not be bounded below the expected number
+         * of subscribers. By default each publisher uses its own pool of daemon threads.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * How long a subscription waits for a payload before checking whether it was cancelled
+         */
+        public Builder pollTimeout(long pollTimeout, TimeUnit timeUnit) {
+            this.pollTimeoutMillis = timeUnit.toMillis(pollTimeout);
+            return this;
+        }
+
+        /**
+         * Completes subscriptions when the queue is found empty instead of waiting for new payloads
+         */
+        public Builder completeWhenEmpty(boolean completeWhenEmpty) {
+            this.completeWhenEmpty = completeWhenEmpty;
+            return this;
+        }
+
+        public QueuePublisherConfig build() {
+            Preconditions.checkArgument(pollTimeoutMillis > 0,
+                    "pollTimeout must be > 0 but is " + pollTimeoutMillis + " ms");
+
+            return new QueuePublisherConfig(this);
+        }
+    }
+
+    /**
+     * Returns executor delivering payloads, {@code null} if the publisher uses its own threads
+     *
+     * @return the executor
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public long getPollTimeoutMillis() {
+        return pollTimeoutMillis;
+    }
+
+    public boolean isCompleteWhenEmpty() {
+        return completeWhenEmpty;
+    }
+}
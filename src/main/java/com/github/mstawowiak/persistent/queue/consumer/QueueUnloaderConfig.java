@@ -1,39 +1,91 @@
 package com.github.mstawowiak.persistent.queue.consumer;
 
 import com.github.mstawowiak.persistent.queue.Payload;
+import com.github.mstawowiak.persistent.queue.strategy.IdleStrategy;
+import com.github.mstawowiak.persistent.queue.strategy.IdleStrategyFactory;
 import com.github.mstawowiak.persistent.queue.strategy.WaitStrategy;
 import com.github.mstawowiak.persistent.queue.strategy.WaitStrategyFactory;
 import com.github.mstawowiak.persistent.queue.util.Preconditions;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 public class QueueUnloaderConfig<P extends Payload> {
 
     private final int numOfThreads;
+    private final boolean autoscaling;
+    private final int minThreads;
+    private final int maxThreads;
+    private final long autoscalingIntervalMillis;
     private final ThreadFactory threadFactory;
     private final WaitStrategy waitStrategy;
+    private final IdleStrategy idleStrategy;
+    private final RateLimiter rateLimiter;
     private final Consumer<P> consumer;
+    private final RawConsumer rawConsumer;
+    private final Function<? super P, ?> orderingKey;
+    private final long processingTimeoutMillis;
 
     private QueueUnloaderConfig(Builder<P> builder) {
         this.numOfThreads = builder.numOfThreads;
+        this.autoscaling = builder.autoscaling;
+        this.minThreads = builder.minThreads;
+        this.maxThreads = builder.maxThreads;
+        this.autoscalingIntervalMillis = builder.autoscalingIntervalMillis;
         this.threadFactory = builder.threadFactory;
         this.waitStrategy = builder.waitStrategy;
+        this.idleStrategy = builder.idleStrategy;
+        this.rateLimiter = builder.rateLimiter;
         this.consumer = builder.consumer;
+        this.rawConsumer = builder.rawConsumer;
+        this.orderingKey = builder.orderingKey;
+        this.processingTimeoutMillis = builder.processingTimeoutMillis;
     }
 
     public static class Builder<P extends Payload> {
 
         private int numOfThreads = 1;
+        private boolean autoscaling;
+        private int minThreads;
+        private int maxThreads;
+        private long autoscalingIntervalMillis = TimeUnit.SECONDS.toMillis(1);
         private ThreadFactory threadFactory = Executors.defaultThreadFactory();
         private WaitStrategy waitStrategy = defaultWaitStrategy();
+        private IdleStrategy idleStrategy = IdleStrategyFactory.blocking();
+        private RateLimiter rateLimiter;
         private Consumer<P> consumer;
+        private RawConsumer rawConsumer;
+        private Function<? super P, ?> orderingKey;
+        private long processingTimeoutMillis;
 
         public Builder<P> numOfThreads(int numOfThreads) {
             this.numOfThreads = numOfThreads;
             return this;
         }
 
+        /**
+         * Enables autoscaling of consumer concurrency between {@code minThreads} and {@code maxThreads},
+         * driven by queue backlog and consumer latency. Used instead of {@code numOfThreads}
+         * by {@link ConcurrentQueueUnloader}.
+         */
+        public Builder<P> autoscaling(int minThreads, int maxThreads) {
+            this.autoscaling = true;
+            this.minThreads = minThreads;
+            this.maxThreads = maxThreads;
+            return this;
+        }
+
+        /**
+         * How often consumer concurrency is adjusted when autoscaling is enabled.
+         */
+        public Builder<P> autoscalingInterval(long interval, TimeUnit timeUnit) {
+            Preconditions.checkArgument(timeUnit != null, "The time unit may not be null");
+
+            this.autoscalingIntervalMillis = timeUnit.toMillis(interval);
+            return this;
+        }
+
         public Builder<P> threadFactory(ThreadFactory threadFactory) {
             this.threadFactory = threadFactory;
             return this;
@@ -44,11 +96,63 @@ public class QueueUnloaderConfig<P extends Payload> {
             return this;
         }
 
+        public Builder<P> idleStrategy(IdleStrategy idleStrategy) {
+            this.idleStrategy = idleStrategy;
+            return this;
+        }
+
+        /**
+         * Limits the rate of unloading to {@code permitsPerSecond} payloads, allowing bursts of up to
+         * {@code burstSize} payloads after an idle period.
+         */
+        public Builder<P> rateLimit(double permitsPerSecond, int burstSize) {
+            this.rateLimiter = new RateLimiter(permitsPerSecond, burstSize);
+            return this;
+        }
+
+        /**
+         * Limits the rate of unloading with the given rate limiter, which may be adjusted at runtime.
+         */
+        public Builder<P> rateLimiter(RateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
         public Builder<P> consumer(Consumer<P> consumer) {
             this.consumer = consumer;
             return this;
         }
 
+        /**
+         * Consumes serialized payloads instead of deserialized ones. Used instead of {@code consumer}.
+         */
+        public Builder<P> rawConsumer(RawConsumer rawConsumer) {
+            this.rawConsumer = rawConsumer;
+            return this;
+        }
+
+        /**
+         * Extracts ordering key of a payload, e.g. id of an account. Payloads with equal keys are consumed
+         * one by one in queue order by {@link KeyOrderedQueueUnloader}, payloads with different keys
+         * in parallel.
+         */
+        public Builder<P> orderingKey(Function<? super P, ?> orderingKey) {
+            this.orderingKey = orderingKey;
+            return this;
+        }
+
+        /**
+         * Time after which consumption of a payload is treated as failed: the consumer thread is interrupted
+         * and replaced until the consumer returns, and the payload is retried. Consumption is not timed out
+         * by default.
+         */
+        public Builder<P> processingTimeout(long timeout, TimeUnit timeUnit) {
+            Preconditions.checkArgument(timeUnit != null, "The time unit may not be null");
+
+            this.processingTimeoutMillis = timeUnit.toMillis(timeout);
+            return this;
+        }
+
         private WaitStrategy defaultWaitStrategy() {
             return WaitStrategyFactory.incrementingWait(
                     5, TimeUnit.MILLISECONDS,
@@ -58,7 +162,22 @@ public class QueueUnloaderConfig<P extends Payload> {
 
         @SuppressWarnings("PMD.AccessorClassGeneration")
         public QueueUnloaderConfig<P> build() {
-            Preconditions.checkArgument(consumer != null, "Consumer may not be null");
+            Preconditions.checkArgument(consumer != null || rawConsumer != null, "Consumer may not be null");
+            Preconditions.checkArgument(consumer == null || rawConsumer == null,
+                    "Only one of consumer and raw consumer may be set");
+            Preconditions.checkArgument(orderingKey == null || rawConsumer == null,
+                    "Ordering key requires a consumer of deserialized payloads");
+            Preconditions.checkArgument(idleStrategy != null, "Idle strategy may not be null");
+            Preconditions.checkArgument(numOfThreads > 0, "numOfThreads must be > 0 but is " + numOfThreads);
+            Preconditions.checkArgument(processingTimeoutMillis >= 0,
+                    "processingTimeout must be >= 0 but is " + processingTimeoutMillis);
+            if (autoscaling) {
+                Preconditions.checkArgument(minThreads > 0, "minThreads must be > 0 but is " + minThreads);
+                Preconditions.checkArgument(maxThreads >= minThreads,
+                        "maxThreads must be >= minThreads but is " + maxThreads);
+                Preconditions.checkArgument(autoscalingIntervalMillis > 0,
+                        "autoscalingInterval must be > 0 but is " + autoscalingIntervalMillis);
+            }
 
             return new QueueUnloaderConfig<>(this);
         }
@@ -68,6 +187,22 @@ public class QueueUnloaderConfig<P extends Payload> {
         return numOfThreads;
     }
 
+    public boolean isAutoscaling() {
+        return autoscaling;
+    }
+
+    public int getMinThreads() {
+        return autoscaling ? minThreads : numOfThreads;
+    }
+
+    public int getMaxThreads() {
+        return autoscaling ? maxThreads : numOfThreads;
+    }
+
+    public long getAutoscalingIntervalMillis() {
+        return autoscalingIntervalMillis;
+    }
+
     public ThreadFactory getThreadFactory() {
         return threadFactory;
     }
@@ -76,7 +211,50 @@ public class QueueUnloaderConfig<P extends Payload> {
         return waitStrategy;
     }
 
+    public IdleStrategy getIdleStrategy() {
+        return idleStrategy;
+    }
+
+    /**
+     * Returns rate limiter of unloading, {@code null} if the rate is not limited
+     *
+     * @return the rate limiter
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
     public Consumer<P> getConsumer() {
         return consumer;
     }
+
+    /**
+     * Returns consumer of serialized payloads, {@code null} if payloads are deserialized for {@code consumer}
+     *
+     * @return the raw consumer
+     */
+    public RawConsumer getRawConsumer() {
+        return rawConsumer;
+    }
+
+    public boolean isRaw() {
+        return rawConsumer != null;
+    }
+
+    /**
+     * Returns extractor of ordering keys, {@code null} if payloads are not ordered by key
+     *
+     * @return the ordering key extractor
+     */
+    public Function<? super P, ?> getOrderingKey() {
+        return orderingKey;
+    }
+
+    public long getProcessingTimeoutMillis() {
+        return processingTimeoutMillis;
+    }
+
+    public boolean isProcessingTimeoutEnabled() {
+        return processingTimeoutMillis > 0;
+    }
 }
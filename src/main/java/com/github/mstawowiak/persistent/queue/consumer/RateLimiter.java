@@ -0,0 +1,104 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.github.mstawowiak.persistent.queue.util.Preconditions.checkArgument;
+
+/**
+ * Token bucket rate limiter. The bucket is refilled with {@code permitsPerSecond} tokens per second
+ * and holds up to {@code burstSize} tokens, which may be taken without waiting after an idle period.
+ * <p>
+ * Waiting is done by parking, but for the last part of the wait the thread yields in a loop, since parking
+ * alone is too coarse for intervals of tens of microseconds between permits. The rate can be changed
+ * at runtime.
+ */
+public class RateLimiter {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Waits shorter than this are done by yielding instead of parking
+     */
+    private static final long YIELD_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private double permitsPerNano;
+    private final double burstSize;
+
+    /**
+     * Tokens in the bucket, negative when permits were reserved ahead of time
+     */
+    private double storedPermits;
+    private long lastRefillNanos;
+
+    public RateLimiter(double permitsPerSecond, int burstSize) {
+        checkArgument(permitsPerSecond > 0, "permitsPerSecond must be > 0 but is " + permitsPerSecond);
+        checkArgument(burstSize > 0, "burstSize must be > 0 but is " + burstSize);
+
+        this.permitsPerNano = permitsPerSecond / NANOS_PER_SECOND;
+        this.burstSize = burstSize;
+        this.storedPermits = burstSize;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Acquires a permit, waiting until it is available
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        final long now = System.nanoTime();
+        final long deadline = now + reserve(now);
+
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > YIELD_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(remaining - YIELD_THRESHOLD_NANOS);
+            } else {
+                Thread.yield();
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Changes the rate, permits reserved before the change are not affected
+     *
+     * @param permitsPerSecond new number of permits per second
+     */
+    public synchronized void setRate(double permitsPerSecond) {
+        checkArgument(permitsPerSecond > 0, "permitsPerSecond must be > 0 but is " + permitsPerSecond);
+
+        refill(System.nanoTime());
+        this.permitsPerNano = permitsPerSecond / NANOS_PER_SECOND;
+    }
+
+    public synchronized double getRate() {
+        return permitsPerNano * NANOS_PER_SECOND;
+    }
+
+    /**
+     * Takes a permit from the bucket, going into debt if the bucket is empty
+     *
+     * @param nowNanos current time
+     * @return time in nanoseconds to wait before the permit may be used
+     */
+    synchronized long reserve(long nowNanos) {
+        refill(nowNanos);
+
+        storedPermits -= 1;
+        if (storedPermits >= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-storedPermits / permitsPerNano);
+    }
+
+    private void refill(long nowNanos) {
+        if (nowNanos > lastRefillNanos) {
+            storedPermits = Math.min(burstSize, storedPermits + (nowNanos - lastRefillNanos) * permitsPerNano);
+            lastRefillNanos = nowNanos;
+        }
+    }
+}
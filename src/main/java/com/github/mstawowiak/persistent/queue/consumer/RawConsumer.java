@@ -0,0 +1,10 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+/**
+ * Consumer of serialized payloads, for pipelines which only forward payloads as bytes and would
+ * otherwise deserialize and serialize every payload again.
+ */
+public interface RawConsumer {
+
+    void consume(byte[] data);
+}
@@ -0,0 +1,32 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Semaphore which number of permits can be changed while permits are acquired.
+ */
+class ResizableSemaphore extends Semaphore {
+
+    private static final long serialVersionUID = -3222578661600680945L;
+
+    private int limit;
+
+    ResizableSemaphore(int limit) {
+        super(limit);
+        this.limit = limit;
+    }
+
+    synchronized void setLimit(int newLimit) {
+        int delta = newLimit - limit;
+        if (delta > 0) {
+            release(delta);
+        } else if (delta < 0) {
+            reducePermits(-delta);
+        }
+        limit = newLimit;
+    }
+
+    synchronized int getLimit() {
+        return limit;
+    }
+}
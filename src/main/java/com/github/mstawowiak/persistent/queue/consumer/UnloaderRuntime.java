@@ -0,0 +1,487 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+import com.github.mstawowiak.commons.logging.ContextLogger;
+import com.github.mstawowiak.commons.logging.ContextLoggerFactory;
+import com.github.mstawowiak.persistent.queue.Payload;
+import com.github.mstawowiak.persistent.queue.Queue;
+import com.github.mstawowiak.persistent.queue.exception.SerializationException;
+import com.github.mstawowiak.persistent.queue.strategy.WaitStrategy;
+import com.github.mstawowiak.persistent.queue.util.Preconditions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runtime which unloads many queues with a single dispatcher thread and a shared pool of consumer threads,
+ * instead of a start thread and a thread pool per queue.
+ * <p>
+ * Whenever a consumer thread is free, the dispatcher takes a payload from the registered queue which is
+ * furthest behind its share of the threads. Shares follow weights of the queues, boosted by backlog: a queue
+ * gets one more time its weight for every thousandfold of payloads waiting in it. A queue never has more
+ * payloads consumed in parallel than {@code maxThreads} of its config. After a failed consumption the queue
+ * is skipped for the time computed by its wait strategy, without holding the dispatcher or other queues.
+ */
+public class UnloaderRuntime {
+
+    private static final ContextLogger LOGGER = ContextLoggerFactory.getLogger();
+
+    /**
+     * How long the dispatcher waits before checking queues again when none of them has payloads.
+     * Queues do not notify the runtime about pushed payloads.
+     */
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final double BACKLOG_BOOST_BASE = Math.log(1000);
+
+    private static final long STOP_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final int numOfThreads;
+    private final ExecutorService dispatcherThread;
+    private final ThreadPoolExecutor consumerThreadPool;
+    private final ThreadFactory threadFactory;
+
+    /**
+     * Guards registrations and scheduling state
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled whenever a queue may have become eligible for dispatching
+     */
+    private final Condition changed = lock.newCondition();
+
+    private final List<Registration<?>> registrations = new ArrayList<>();
+    private int busyThreads;
+    private double virtualTime;
+    private boolean shutdown;
+
+    /**
+     * Watchdog of processing timeouts, created when the first queue with a timeout is registered
+     */
+    private DeadlineWatchdog deadlineWatchdog;
+
+    public UnloaderRuntime(int numOfThreads) {
+        this(numOfThreads, Executors.defaultThreadFactory());
+    }
+
+    public UnloaderRuntime(int numOfThreads, ThreadFactory threadFactory) {
+        Preconditions.checkArgument(numOfThreads > 0, "numOfThreads must be > 0 but is " + numOfThreads);
+        Preconditions.checkArgument(threadFactory != null, "Thread factory may not be null");
+
+        this.numOfThreads = numOfThreads;
+        this.dispatcherThread = Executors.newSingleThreadExecutor(threadFactory);
+        this.consumerThreadPool = new ThreadPoolExecutor(numOfThreads, numOfThreads,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        this.threadFactory = threadFactory;
+        this.dispatcherThread.execute(this::dispatch);
+    }
+
+    /**
+     * Registers queue to be unloaded by the runtime once the returned unloader is started. Consumer,
+     * wait strategy, rate limiter, processing timeout and {@code maxThreads} of the config are used,
+     * thread factory and idle strategy are replaced by the runtime. Ordering keys are not supported.
+     *
+     * @param queue  the queue to unload
+     * @param config config of unloading
+     * @param weight share of consumer threads relative to other queues
+     * @param <P>    the type of payload held in the queue
+     * @return unloader of the queue, which stops unloading and closes the queue when stopped
+     */
+    public <P extends Payload> Registration<P> register(Queue<P> queue, QueueUnloaderConfig<P> config, int weight) {
+        Preconditions.checkArgument(queue != null, "Queue may not be null");
+        Preconditions.checkArgument(config.getOrderingKey() == null,
+                "Ordering key is not supported by the runtime, use KeyOrderedQueueUnloader");
+        Preconditions.checkArgument(weight > 0, "weight must be > 0 but is " + weight);
+
+        final Registration<P> registration = new Registration<>(queue, config, weight);
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new IllegalStateException("Runtime is shut down");
+            }
+            if (config.isProcessingTimeoutEnabled() && deadlineWatchdog == null) {
+                deadlineWatchdog = new DeadlineWatchdog(consumerThreadPool, threadFactory);
+            }
+            registrations.add(registration);
+        } finally {
+            lock.unlock();
+        }
+        return registration;
+    }
+
+    private void dispatch() {
+        while (true) {
+            final Registration<?> registration;
+            lock.lock();
+            try {
+                registration = awaitNext();
+                if (registration == null) {
+                    return;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            registration.dispatch();
+        }
+    }
+
+    /**
+     * Waits for a queue to dispatch a payload from and reserves a thread for it, must be called with
+     * the lock held.
+     *
+     * @return the queue, {@code null} if the runtime is shut down
+     */
+    private Registration<?> awaitNext() throws InterruptedException {
+        while (!shutdown) {
+            final long now = System.nanoTime();
+            long waitNanos = IDLE_WAIT_NANOS;
+            Registration<?> next = null;
+            double nextPass = Double.MAX_VALUE;
+            if (busyThreads < numOfThreads) {
+                for (Registration<?> registration : registrations) {
+                    if (!registration.isReady()) {
+                        continue;
+                    }
+                    if (registration.notBefore - now > 0) {
+                        waitNanos = Math.min(waitNanos, registration.notBefore - now);
+                        continue;
+                    }
+                    final double pass = Math.max(registration.pass, virtualTime);
+                    if (pass < nextPass && !registration.queue.isEmpty()) {
+                        next = registration;
+                        nextPass = pass;
+                    }
+                }
+            }
+
+            if (next != null && next.reservePermit(now)) {
+                virtualTime = nextPass;
+                next.pass = nextPass + 1.0 / next.effectiveWeight();
+                next.inFlight++;
+                busyThreads++;
+                return next;
+            }
+            if (next == null) {
+                changed.awaitNanos(waitNanos);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns number of threads consuming payloads of all queues
+     *
+     * @return number of busy consumer threads
+     */
+    public int getBusyThreads() {
+        lock.lock();
+        try {
+            return busyThreads;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops unloading of all registered queues, closing them, and terminates threads of the runtime.
+     */
+    public void shutdown() {
+        final List<Registration<?>> registered;
+        lock.lock();
+        try {
+            registered = new ArrayList<>(registrations);
+        } finally {
+            lock.unlock();
+        }
+        for (Registration<?> registration : registered) {
+            registration.stop();
+        }
+
+        lock.lock();
+        try {
+            shutdown = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (deadlineWatchdog != null) {
+            deadlineWatchdog.shutdown();
+        }
+        dispatcherThread.shutdown();
+        consumerThreadPool.shutdown();
+        try {
+            if (!dispatcherThread.awaitTermination(STOP_TIMEOUT_NANOS, TimeUnit.NANOSECONDS)) {
+                dispatcherThread.shutdownNow();
+            }
+            if (!consumerThreadPool.awaitTermination(STOP_TIMEOUT_NANOS, TimeUnit.NANOSECONDS)) {
+                consumerThreadPool.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            LOGGER.warn("UnloaderRuntime", "Interrupted during waiting for thread pools termination", ex);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queue registered in the runtime. Scheduling state is guarded by the lock of the runtime.
+     */
+    public final class Registration<P extends Payload> implements QueueUnloader {
+
+        private final Queue<P> queue;
+        private final Consumer<P> consumer;
+        private final RawConsumer rawConsumer;
+        private final WaitStrategy waitStrategy;
+        private final RateLimiter rateLimiter;
+        private final int maxThreads;
+        private final int weight;
+        private final long processingTimeoutMillis;
+        private final LongAdder consumed = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+
+        private boolean started;
+        private boolean stopped;
+        private int inFlight;
+        private long failedInARow;
+        private boolean permitReserved;
+
+        /**
+         * Virtual time at which the queue is due, advanced by the inverse of its weight on every dispatch
+         */
+        private double pass;
+
+        /**
+         * Time before which the queue is skipped, after a failure or to respect the rate limit
+         */
+        private long notBefore = System.nanoTime();
+
+        Registration(Queue<P> queue, QueueUnloaderConfig<P> config, int weight) {
+            this.queue = queue;
+            this.consumer = config.getConsumer();
+            this.rawConsumer = config.getRawConsumer();
+            this.waitStrategy = config.getWaitStrategy();
+            this.rateLimiter = config.getRateLimiter();
+            this.maxThreads = config.getMaxThreads();
+            this.weight = weight;
+            this.processingTimeoutMillis = config.getProcessingTimeoutMillis();
+        }
+
+        private boolean isReady() {
+            return started && !stopped && inFlight < maxThreads;
+        }
+
+        private double effectiveWeight() {
+            final long backlog = queue.size();
+            return backlog > 1 ? weight * (1 + Math.log(backlog) / BACKLOG_BOOST_BASE) : weight;
+        }
+
+        /**
+         * Takes a permit of the rate limiter, skipping the queue until the permit may be used.
+         *
+         * @return {@code true} if a payload may be dispatched now
+         */
+        private boolean reservePermit(long now) {
+            if (rateLimiter == null || permitReserved) {
+                permitReserved = false;
+                return true;
+            }
+            final long waitNanos = rateLimiter.reserve(now);
+            if (waitNanos == 0) {
+                return true;
+            }
+            permitReserved = true;
+            notBefore = now + waitNanos;
+            return false;
+        }
+
+        /**
+         * Takes a payload from the queue on the dispatcher thread and hands it over to a consumer thread.
+         */
+        private void dispatch() {
+            byte[] data = null;
+            try {
+                data = queue.pollRaw();
+                if (data != null) {
+                    final byte[] delivery = data;
+                    consumerThreadPool.execute(() -> consume(delivery));
+                    return;
+                }
+            } catch (Exception ex) {
+                LOGGER.warn(queue.name(), "Error occurred during dispatching payload", ex);
+                if (data != null) {
+                    queue.requeueRaw(data);
+                }
+            }
+            complete(true);
+        }
+
+        private void consume(byte[] data) {
+            final DeadlineWatchdog.Deadline deadline = startDeadline(data);
+            boolean succeeded = false;
+            try {
+                if (rawConsumer != null) {
+                    rawConsumer.consume(data);
+                } else {
+                    consumer.consume(Payload.deserialize(data));
+                }
+                succeeded = true;
+            } catch (SerializationException ex) {
+                LOGGER.warn(queue.name(), "Skipping payload. Reason: '{}'", ex.getMessage());
+                succeeded = true;
+            } catch (Exception ex) {
+                LOGGER.warn(queue.name(), "Unable to consume payload", ex);
+            } finally {
+                if (deadline == null || deadline.finish()) {
+                    finishConsumption(data, succeeded);
+                }
+            }
+        }
+
+        private void finishConsumption(byte[] data, boolean succeeded) {
+            try {
+                if (succeeded) {
+                    consumed.increment();
+                } else {
+                    queue.requeueRaw(data);
+                }
+            } finally {
+                complete(succeeded);
+            }
+        }
+
+        /**
+         * Starts deadline of consumption on the calling thread. When it passes, the payload is returned to
+         * the queue and the thread is released for other payloads.
+         *
+         * @return the deadline, {@code null} if consumption is not timed out
+         */
+        private DeadlineWatchdog.Deadline startDeadline(byte[] data) {
+            if (processingTimeoutMillis == 0) {
+                return null;
+            }
+            return deadlineWatchdog.start(processingTimeoutMillis, () -> {
+                LOGGER.warn(queue.name(), "Consumption of payload timed out, interrupting consumer "
+                        + "[timeoutMillis={}]", processingTimeoutMillis);
+                timeouts.increment();
+                finishConsumption(data, false);
+            });
+        }
+
+        private void complete(boolean succeeded) {
+            lock.lock();
+            try {
+                inFlight--;
+                busyThreads--;
+                if (succeeded) {
+                    failedInARow = 0;
+                } else {
+                    failedInARow++;
+                    notBefore = System.nanoTime()
+                            + TimeUnit.MILLISECONDS.toNanos(waitStrategy.computeSleepTime(failedInARow));
+                }
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void start() {
+            LOGGER.info(queue.name(), "Queue unloading started [size={}]", queue.size());
+
+            lock.lock();
+            try {
+                if (stopped) {
+                    throw new IllegalStateException("Unloading of the queue was stopped");
+                }
+                started = true;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Stops dispatching payloads of the queue, waits for payloads being consumed and closes the queue.
+         */
+        @Override
+        public void stop() {
+            LOGGER.info(queue.name(), "Stop unloading and closing queue");
+
+            lock.lock();
+            try {
+                if (stopped) {
+                    return;
+                }
+                stopped = true;
+                long remainingNanos = STOP_TIMEOUT_NANOS;
+                while (inFlight > 0 && remainingNanos > 0) {
+                    remainingNanos = changed.awaitNanos(remainingNanos);
+                }
+                if (inFlight > 0) {
+                    LOGGER.info(queue.name(), "Timeout to stop consumption has been exceeded [inFlight={}]", inFlight);
+                }
+                registrations.remove(this);
+            } catch (InterruptedException ex) {
+                LOGGER.warn(queue.name(), "Interrupted during waiting for consumption to finish", ex);
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+
+            long countBeforeClose = queue.size();
+            queue.close();
+            LOGGER.info(queue.name(), "Queue closed [size={}]", countBeforeClose);
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public int getMaxThreads() {
+            return maxThreads;
+        }
+
+        /**
+         * Returns number of payloads of the queue being consumed
+         *
+         * @return number of payloads in flight
+         */
+        public int getInFlight() {
+            lock.lock();
+            try {
+                return inFlight;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns number of payloads of the queue consumed successfully since registration
+         *
+         * @return number of consumed payloads
+         */
+        public long getConsumed() {
+            return consumed.sum();
+        }
+
+        /**
+         * Returns number of consumptions of the queue which exceeded the processing timeout
+         *
+         * @return number of timed out consumptions
+         */
+        public long getTimeoutCount() {
+            return timeouts.sum();
+        }
+    }
+}
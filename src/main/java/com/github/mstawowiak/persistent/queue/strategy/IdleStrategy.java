@@ -0,0 +1,24 @@
+package com.github.mstawowiak.persistent.queue.strategy;
+
+/**
+ * A strategy used by the dispatcher to wait for new payloads when the queue is empty
+ */
+public interface IdleStrategy {
+
+    /**
+     * Performs idle action (spin, yield, park) after an attempt which found the queue empty
+     *
+     * @param idleCount number of consecutive attempts which found the queue empty, starting from 1
+     */
+    void idle(long idleCount);
+
+    /**
+     * Returns {@code true} if the dispatcher should block on the queue until a payload is pushed,
+     * instead of repeatedly checking the queue and calling {@link #idle(long)}
+     *
+     * @return whether this strategy blocks on the queue
+     */
+    default boolean isBlocking() {
+        return false;
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.mstawowiak.persistent.queue.strategy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.github.mstawowiak.persistent.queue.util.Preconditions.checkArgument;
+
+/**
+ * Factory class for instances of {@link IdleStrategy}
+ * Based on idle strategies of: https://github.com/real-logic/agrona
+ */
+public final class IdleStrategyFactory {
+
+    private static final IdleStrategy BLOCKING_STRATEGY = new BlockingIdleStrategy();
+    private static final IdleStrategy BUSY_SPIN_STRATEGY = new BusySpinIdleStrategy();
+
+    private IdleStrategyFactory() {
+    }
+
+    /**
+     * Returns a strategy which blocks on the queue until a payload is pushed. It does not consume CPU
+     * while idle, but the dispatcher has to be woken up by the producer.
+     *
+     * @return an idle strategy blocking on the queue
+     */
+    public static IdleStrategy blocking() {
+        return BLOCKING_STRATEGY;
+    }
+
+    /**
+     * Returns a strategy which checks the queue in a busy loop. It gives the lowest latency at the cost
+     * of a whole CPU core occupied by the dispatcher.
+     *
+     * @return a busy spinning idle strategy
+     */
+    public static IdleStrategy busySpin() {
+        return BUSY_SPIN_STRATEGY;
+    }
+
+    /**
+     * Returns a strategy which busy spins for the given number of attempts and yields the processor
+     * afterwards.
+     *
+     * @param maxSpins number of attempts to spin before yielding
+     * @return a spinning then yielding idle strategy
+     */
+    public static IdleStrategy spinThenYield(long maxSpins) {
+        return new SpinThenYieldIdleStrategy(maxSpins);
+    }
+
+    /**
+     * Returns a strategy which busy spins, then yields the processor and finally parks the dispatcher
+     * for exponentially increasing time, up to the maximum park time.
+     *
+     * @param maxSpins        number of attempts to spin before yielding
+     * @param maxYields       number of attempts to yield before parking
+     * @param minParkTime     the time to park the first time
+     * @param maxParkTime     the maximum time to park
+     * @param parkTimeUnit    the unit of the park times
+     * @return a backing off idle strategy
+     */
+    public static IdleStrategy backoffPark(long maxSpins, long maxYields,
+                                           long minParkTime, long maxParkTime, TimeUnit parkTimeUnit) {
+        checkArgument(parkTimeUnit != null, "The park time unit may not be null");
+
+        return new BackoffParkIdleStrategy(maxSpins, maxYields,
+                parkTimeUnit.toNanos(minParkTime), parkTimeUnit.toNanos(maxParkTime));
+    }
+
+    private static final class BlockingIdleStrategy implements IdleStrategy {
+
+        @Override
+        public void idle(long idleCount) {
+            // dispatcher blocks on the queue
+        }
+
+        @Override
+        public boolean isBlocking() {
+            return true;
+        }
+    }
+
+    private static final class BusySpinIdleStrategy implements IdleStrategy {
+
+        @Override
+        public void idle(long idleCount) {
+            // spin
+        }
+    }
+
+    private static final class SpinThenYieldIdleStrategy implements IdleStrategy {
+
+        private final long maxSpins;
+
+        public SpinThenYieldIdleStrategy(long maxSpins) {
+            checkArgument(maxSpins >= 0L, "maxSpins must be >= 0 but is " + maxSpins);
+
+            this.maxSpins = maxSpins;
+        }
+
+        @Override
+        public void idle(long idleCount) {
+            if (idleCount > maxSpins) {
+                Thread.yield();
+            }
+        }
+    }
+
+    private static final class BackoffParkIdleStrategy implements IdleStrategy {
+
+        private final long maxSpins;
+        private final long maxYields;
+        private final long minParkNanos;
+        private final long maxParkNanos;
+
+        public BackoffParkIdleStrategy(long maxSpins, long maxYields, long minParkNanos, long maxParkNanos) {
+            checkArgument(maxSpins >= 0L, "maxSpins must be >= 0 but is " + maxSpins);
+            checkArgument(maxYields >= 0L, "maxYields must be >= 0 but is " + maxYields);
+            checkArgument(minParkNanos > 0L, "minParkTime must be > 0 but is " + minParkNanos);
+            checkArgument(maxParkNanos >= minParkNanos, "maxParkTime must be >= minParkTime but is " + maxParkNanos);
+
+            this.maxSpins = maxSpins;
+            this.maxYields = maxYields;
+            this.minParkNanos = minParkNanos;
+            this.maxParkNanos = maxParkNanos;
+        }
+
+        @Override
+        public void idle(long idleCount) {
+            if (idleCount <= maxSpins) {
+                return;
+            }
+            if (idleCount <= maxSpins + maxYields) {
+                Thread.yield();
+                return;
+            }
+            LockSupport.parkNanos(computeParkTime(idleCount - maxSpins - maxYields));
+        }
+
+        private long computeParkTime(long parkCount) {
+            int shift = (int) Math.min(parkCount - 1, Long.numberOfLeadingZeros(minParkNanos) - 1);
+            return Math.min(minParkNanos << shift, maxParkNanos);
+        }
+    }
+}
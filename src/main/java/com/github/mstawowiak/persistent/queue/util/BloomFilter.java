@@ -0,0 +1,82 @@
+package com.github.mstawowiak.persistent.queue.util;
+
+/**
+ * Bloom filter of byte array keys. Answers whether a key might have been added, with no false negatives
+ * and a false positive probability close to the one it was sized for. Not thread-safe.
+ */
+public final class BloomFilter {
+
+    private static final long SEED_1 = 0x9E3779B97F4A7C15L;
+    private static final long SEED_2 = 0xC2B2AE3D27D4EB4FL;
+
+    private final long[] bits;
+    private final long numOfBits;
+    private final int numOfHashes;
+
+    /**
+     * Creates a filter sized for the given number of keys and false positive probability.
+     *
+     * @param expectedKeys              expected number of added keys
+     * @param falsePositiveProbability  desired false positive probability
+     */
+    public BloomFilter(long expectedKeys, double falsePositiveProbability) {
+        Preconditions.checkArgument(expectedKeys > 0, "expectedKeys must be > 0 but is " + expectedKeys);
+        Preconditions.checkArgument(falsePositiveProbability > 0 && falsePositiveProbability < 1,
+                "falsePositiveProbability must be in range (0, 1) but is " + falsePositiveProbability);
+
+        final double ln2 = Math.log(2);
+        final long optimalBits = (long) Math.ceil(-expectedKeys * Math.log(falsePositiveProbability) / (ln2 * ln2));
+        this.bits = new long[(int) Math.max(1, (optimalBits + Long.SIZE - 1) / Long.SIZE)];
+        this.numOfBits = (long) bits.length * Long.SIZE;
+        this.numOfHashes = Math.max(1, (int) Math.round((double) numOfBits / expectedKeys * ln2));
+    }
+
+    public void add(byte[] key) {
+        final long hash1 = hash(key, SEED_1);
+        final long hash2 = hash(key, SEED_2);
+        for (int i = 0; i < numOfHashes; i++) {
+            final long bit = Long.remainderUnsigned(hash1 + i * hash2, numOfBits);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Returns whether the key might have been added, {@code false} means it has certainly not been added
+     *
+     * @param key the key to check
+     * @return {@code true} if the key might have been added
+     */
+    public boolean mightContain(byte[] key) {
+        final long hash1 = hash(key, SEED_1);
+        final long hash2 = hash(key, SEED_2);
+        for (int i = 0; i < numOfHashes; i++) {
+            final long bit = Long.remainderUnsigned(hash1 + i * hash2, numOfBits);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getNumOfHashes() {
+        return numOfHashes;
+    }
+
+    public long getNumOfBits() {
+        return numOfBits;
+    }
+
+    /**
+     * 64-bit FNV-1a of the key, finalized with the mixer of SplitMix64 to spread low entropy keys.
+     */
+    private static long hash(byte[] key, long seed) {
+        long hash = seed ^ 0xCBF29CE484222325L;
+        for (byte b : key) {
+            hash ^= b;
+            hash *= 0x100000001B3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        return hash ^ (hash >>> 31);
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import org.apache.commons.io.FileUtils;
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Guards bytes allocated by push and poll of {@link BerkeleyDbQueue}, measured on the calling thread
+ */
+public class BerkeleyDbQueueAllocationTest {
+
+    private static final int WARM_UP_OPERATIONS = 20_000;
+    private static final int MEASURED_OPERATIONS = 50_000;
+
+    /**
+     * Budget of a push and poll of a raw record, the returned record and the storage's own
+     * allocations included. The header is written next to the payload on push and the payload
+     * is copied out of the record on poll.
+     */
+    private static final long RAW_BYTES_PER_OPERATION = 4_000;
+
+    /**
+     * Budget of a push and poll of a payload, Java serialization included. Object streams allocate
+     * their own block buffers for each payload.
+     */
+    private static final long PAYLOAD_BYTES_PER_OPERATION = 20_000;
+
+    private BerkeleyDbQueue<SimplePayload> queue;
+
+    private static final String queueName = BerkeleyDbQueueAllocationTest.class.getSimpleName();
+    private static final String queueDirName = "build/" + queueName;
+    private static final File queueDir = new File(queueDirName);
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDeleteOnExit(queueDir);
+        }
+    }
+
+    @BeforeMethod
+    public void before() {
+        queue = new BerkeleyDbQueue<>(queueDirName, queueName, 1000);
+    }
+
+    @AfterMethod
+    public void after() {
+        queue.close();
+    }
+
+    @Test
+    public void shouldPushAndPollRawWithinAllocationBudget() {
+        final byte[] data = new SimplePayload("test", 1, BigInteger.ONE).serialize();
+        final Runnable operation = () -> {
+            queue.pushRaw(data);
+            queue.pollRaw();
+        };
+
+        assertWithinBudget(operation, RAW_BYTES_PER_OPERATION);
+    }
+
+    @Test
+    public void shouldPushAndPollPayloadWithinAllocationBudget() {
+        final SimplePayload payload = new SimplePayload("test", 1, BigInteger.ONE);
+        final Runnable operation = () -> {
+            queue.push(payload);
+            queue.poll();
+        };
+
+        assertWithinBudget(operation, PAYLOAD_BYTES_PER_OPERATION);
+    }
+
+    private static void assertWithinBudget(Runnable operation, long budget) {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            throw new SkipException("Thread allocated memory is not supported by this JVM");
+        }
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        final long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARM_UP_OPERATIONS; i++) {
+            operation.run();
+        }
+        final long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_OPERATIONS; i++) {
+            operation.run();
+        }
+        final long bytesPerOperation = (threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore)
+                / MEASURED_OPERATIONS;
+
+        System.out.println(String.format("Allocated bytes per push and poll: %,d (budget %,d)",
+                bytesPerOperation, budget));
+        assertTrue(bytesPerOperation <= budget,
+                "Allocated " + bytesPerOperation + " bytes per push and poll, budget is " + budget);
+    }
+}
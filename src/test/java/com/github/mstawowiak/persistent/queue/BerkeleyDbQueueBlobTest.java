@@ -0,0 +1,332 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import com.github.mstawowiak.persistent.queue.exception.SerializationException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests for offloading of large payloads of {@link BerkeleyDbQueue} to blobs
+ */
+public class BerkeleyDbQueueBlobTest {
+
+    private static final String queueName = BerkeleyDbQueueBlobTest.class.getSimpleName();
+    private static final String queueDirName = "build/" + queueName;
+    private static final File queueDir = new File(queueDirName);
+    private static final File blobDir = new File(queueDir, queueName + ".blobs");
+
+    private static final int BLOB_THRESHOLD = 10_000;
+    private static final BerkeleyDbQueueConfig BLOB_CONFIG = new BerkeleyDbQueueConfig.Builder()
+            .blobThreshold(BLOB_THRESHOLD)
+            .build();
+
+    private static SimplePayload payload(int number) {
+        return new SimplePayload("test" + number, number, BigInteger.valueOf(number));
+    }
+
+    private static SimplePayload largePayload(int number) {
+        char[] name = new char[5 * BLOB_THRESHOLD];
+        Arrays.fill(name, (char) ('a' + number % 26));
+        return new SimplePayload(new String(name), number, BigInteger.valueOf(number));
+    }
+
+    private static int blobCount() {
+        String[] blobs = blobDir.list();
+        return blobs == null ? 0 : blobs.length;
+    }
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDeleteOnExit(queueDir);
+        }
+    }
+
+    @BeforeMethod
+    public void before() throws IOException {
+        FileUtils.deleteDirectory(queueDir);
+    }
+
+    @Test
+    public void shouldOffloadLargePayloadsOnly() {
+        BerkeleyDbQueue<SimplePayload> queue = new BerkeleyDbQueue<>(queueDirName, queueName, BLOB_CONFIG);
+        try {
+            queue.push(payload(1));
+            queue.push(largePayload(2));
+            queue.push(payload(3));
+
+            assertEquals(blobCount(), 1);
+            assertEquals(queue.sizeInBytes(), payload(1).serialize().length + largePayload(2).serialize().length
+                    + payload(3).serialize().length);
+            assertEquals(queue.stream().map(SimplePayload::getNumber).collect(Collectors.toList()),
+                    Arrays.asList(1, 2, 3));
+
+            assertEquals(queue.poll().getNumber(), Integer.valueOf(1));
+            assertEquals(queue.peek().getName(), largePayload(2).getName());
+            assertEquals(queue.poll().getName(), largePayload(2).getName());
+            assertEquals(blobCount(), 0);
+            assertEquals(queue.poll().getNumber(), Integer.valueOf(3));
+        } finally {
+            queue.close();
+        }
+    }
+
+    @Test
+    public void shouldDeleteBlobOnceRecordDeletionIsSynced() {
+        BerkeleyDbQueue<SimplePayload> queue = new BerkeleyDbQueue<>(queueDirName, queueName,
+                new BerkeleyDbQueueConfig.Builder().blobThreshold(BLOB_THRESHOLD).batchSize(100).build());
+        queue.push(largePayload(1));
+        assertEquals(queue.poll().getNumber(), Integer.valueOf(1));
+        assertEquals(blobCount(), 1);
+
+        queue.close();
+        assertEquals(blobCount(), 0);
+    }
+
+    @Test
+    public void shouldKeepBlobWhichCannotBeDecoded() throws IOException {
+        BerkeleyDbQueue<SimplePayload> queue = new BerkeleyDbQueue<>(queueDirName, queueName, BLOB_CONFIG);
+        try {
+            queue.push(largePayload(1));
+            queue.push(largePayload(2));
+            FileUtils.writeByteArrayToFile(new File(blobDir, "0.blob"), new byte[] {1, 2, 3});
+
+            try {
+                queue.poll();
+                fail("Corrupted blob decoded");
+            } catch (SerializationException ex) {
+                // expected
+            }
+            assertEquals(queue.poll().getNumber(), Integer.valueOf(2));
+            assertTrue(new File(blobDir, "0.blob").exists());
+            assertFalse(new File(blobDir, "1.blob").exists());
+        } finally {
+            queue.close();
+        }
+
+        queue = new BerkeleyDbQueue<>(queueDirName, queueName, BLOB_CONFIG);
+        queue.close();
+        assertEquals(blobCount(), 0);
+    }
+
+    @Test
+    public void shouldReadOffloadedPayloadsAfterReopenWithoutThreshold() {
+        BerkeleyDbQueue<SimplePayload> queue = new BerkeleyDbQueue<>(queueDirName, queueName, BLOB_CONFIG);
+        for (int i = 0; i < 3; i++) {
+            queue.push(largePayload(i));
+        }
+        queue.close();
+
+        queue = new BerkeleyDbQueue<>(queueDirName, queueName);
+        try {
+            assertEquals(queue.size(), 3);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(queue.poll().getName(), largePayload(i).getName());
+            }
+            assertEquals(blobCount(), 0);
+        } finally {
+            queue.close();
+        }
+    }
+
+    @Test
+    public void shouldDeleteOrphanedBlobsOnOpen() throws IOException {
+        BerkeleyDbQueue<SimplePayload> queue = new BerkeleyDbQueue<>(queueDirName, queueName, BLOB_CONFIG);
+        queue.push(largePayload(1));
+        queue.close();
+        FileUtils.writeByteArrayToFile(new File(blobDir, "1000.blob"), new byte[] {1, 2, 3});
+        assertEquals(blobCount(), 2);
+
+        queue = new BerkeleyDbQueue<>(queueDirName, queueName, BLOB_CONFIG);
+        try {
+            assertEquals(blobCount(), 1);
+            assertEquals(queue.poll().getNumber(), Integer.valueOf(1));
+        } finally {
+            queue.close();
+        }
+    }
+
+    @Test
+    public void shouldExportOffloadedPayloadsInline() throws IOException {
+        BerkeleyDbQueue<SimplePayload> queue = new BerkeleyDbQueue<>(queueDirName, queueName, BLOB_CONFIG);
+        queue.push(largePayload(1));
+        queue.push(payload(2));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(queue.exportTo(out, false), 2);
+        queue.close();
+
+        BerkeleyDbQueue<SimplePayload> imported = new BerkeleyDbQueue<>(queueDirName + "/imported", queueName);
+        try {
+            assertEquals(imported.importFrom(new ByteArrayInputStream(out.toByteArray())), 2);
+            assertEquals(imported.poll().getName(), largePayload(1).getName());
+            assertEquals(imported.poll().getNumber(), Integer.valueOf(2));
+        } finally {
+            imported.close();
+        }
+    }
+
+    @Test
+    public void shouldOffloadImportedRecordsOfOlderVersions() throws IOException {
+        byte[] legacyRecord = largePayload(1).serialize();
+        byte[] payload = largePayload(2).serialize();
+        byte[] expiryRecord = ByteBuffer.allocate(2 + Long.BYTES + payload.length)
+                .put((byte) 0xE1)
+                .put((byte) 1)
+                .putLong(RecordFormat.NO_EXPIRY)
+                .put(payload)
+                .array();
+
+        ByteArrayOutputStream export = new ByteArrayOutputStream();
+        try (DataOutputStream writer = QueueExportFormat.openWriter(export, false)) {
+            for (byte[] record : Arrays.asList(legacyRecord, expiryRecord)) {
+                writer.writeInt(record.length);
+                writer.write(record);
+            }
+            writer.writeInt(QueueExportFormat.END_OF_RECORDS);
+        }
+
+        BerkeleyDbQueue<SimplePayload> queue = new BerkeleyDbQueue<>(queueDirName, queueName, BLOB_CONFIG);
+        try {
+            assertEquals(queue.importFrom(new ByteArrayInputStream(export.toByteArray())), 2);
+            assertEquals(blobCount(), 2);
+            assertEquals(queue.sizeInBytes(), legacyRecord.length + payload.length);
+
+            assertEquals(queue.poll().getName(), largePayload(1).getName());
+            assertEquals(queue.poll().getName(), largePayload(2).getName());
+            assertTrue(queue.isEmpty());
+        } finally {
+            queue.close();
+        }
+        assertEquals(blobCount(), 0);
+    }
+
+    @Test
+    public void shouldDeliverOffloadedPayloadsToConsumerGroups() {
+        BerkeleyDbQueue<SimplePayload> queue = new BerkeleyDbQueue<>(queueDirName, queueName, BLOB_CONFIG);
+        try {
+            Queue<SimplePayload> first = queue.consumerGroup("first");
+            Queue<SimplePayload> second = queue.consumerGroup("second");
+            queue.push(largePayload(1));
+
+            assertEquals(first.peek().getName(), largePayload(1).getName());
+            assertEquals(first.poll().getName(), largePayload(1).getName());
+            assertEquals(blobCount(), 1);
+            assertEquals(second.poll().getName(), largePayload(1).getName());
+            assertTrue(queue.isEmpty());
+            assertEquals(blobCount(), 0);
+        } finally {
+            queue.close();
+        }
+    }
+
+    @Test
+    public void shouldKeepBlobUntilLastReaderReleasesIt() {
+        BlobStore blobs = new BlobStore(blobDir, queueName);
+        byte[] payload = largePayload(1).serialize();
+        byte[] reference = blobs.offload(0, RecordFormat.header(1000, RecordFormat.NO_EXPIRY), payload);
+
+        // delivered to two consumer groups, then the record is deleted and the deletion synced
+        blobs.retain(reference);
+        blobs.retain(reference);
+        blobs.deleteAfterSync(reference);
+        blobs.deletePending();
+        assertEquals(blobCount(), 1);
+
+        assertEquals(blobs.read(reference), payload);
+        blobs.release(reference);
+        assertEquals(blobCount(), 1);
+
+        assertEquals(blobs.read(reference), payload);
+        blobs.release(reference);
+        assertEquals(blobCount(), 0);
+    }
+
+    @Test
+    public void shouldDeliverOffloadedPayloadsToConcurrentConsumerGroups() throws Exception {
+        BerkeleyDbQueue<SimplePayload> queue = new BerkeleyDbQueue<>(queueDirName, queueName, BLOB_CONFIG);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Queue<SimplePayload>> groups = Arrays.asList(queue.consumerGroup("first"),
+                    queue.consumerGroup("second"));
+            for (int i = 0; i < 50; i++) {
+                queue.push(largePayload(i));
+            }
+
+            List<Future<Integer>> polled = new ArrayList<>();
+            for (Queue<SimplePayload> group : groups) {
+                polled.add(executor.submit(() -> {
+                    int count = 0;
+                    SimplePayload payload;
+                    while ((payload = group.poll()) != null) {
+                        assertEquals(payload.getNumber(), Integer.valueOf(count++));
+                    }
+                    return count;
+                }));
+            }
+            for (Future<Integer> count : polled) {
+                assertEquals(count.get(1, TimeUnit.MINUTES), Integer.valueOf(50));
+            }
+            assertTrue(queue.isEmpty());
+        } finally {
+            executor.shutdownNow();
+            queue.close();
+        }
+        assertEquals(blobCount(), 0);
+    }
+
+    @Test
+    public void shouldMirrorOffloadedPayloadsInline() {
+        String primaryDirName = queueDirName + "/primary";
+        String mirrorDirName = queueDirName + "/mirror";
+        BerkeleyDbQueue<SimplePayload> queue = new BerkeleyDbQueue<>(primaryDirName, queueName,
+                new BerkeleyDbQueueConfig.Builder().blobThreshold(BLOB_THRESHOLD).build());
+        queue.push(largePayload(1));
+        queue.close();
+
+        // mirror created after the payload was offloaded, so the record is copied from the blob
+        queue = new BerkeleyDbQueue<>(primaryDirName, queueName,
+                new BerkeleyDbQueueConfig.Builder().blobThreshold(BLOB_THRESHOLD).mirror(mirrorDirName).build());
+        queue.push(largePayload(2));
+        queue.close();
+
+        BerkeleyDbQueue<SimplePayload> promoted = BerkeleyDbQueue.promoteMirror(mirrorDirName, queueName,
+                new BerkeleyDbQueueConfig.Builder().build());
+        try {
+            List<String> names = promoted.stream().map(SimplePayload::getName).collect(Collectors.toList());
+            assertEquals(names, Arrays.asList(largePayload(1).getName(), largePayload(2).getName()));
+            assertFalse(new File(mirrorDirName, queueName + ".blobs").exists());
+        } finally {
+            promoted.close();
+        }
+    }
+}
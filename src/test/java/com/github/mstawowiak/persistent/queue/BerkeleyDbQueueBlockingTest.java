@@ -0,0 +1,205 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import com.github.mstawowiak.persistent.queue.exception.EnqueueException;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for capacity bounds and blocking operations of {@link BerkeleyDbQueue}
+ */
+public class BerkeleyDbQueueBlockingTest {
+
+    private BerkeleyDbQueue<SimplePayload> queue;
+
+    private static final String queueName = BerkeleyDbQueueBlockingTest.class.getSimpleName();
+    private static final String queueDirName = "build/" + queueName;
+    private static final File queueDir = new File(queueDirName);
+
+    private BerkeleyDbQueue<SimplePayload> berkeleyDbQueue(BerkeleyDbQueueConfig config) {
+        return new BerkeleyDbQueue<>(queueDirName, queueName, config);
+    }
+
+    private static SimplePayload payload(int number) {
+        return new SimplePayload("test" + number, number, BigInteger.valueOf(number));
+    }
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDeleteOnExit(queueDir);
+        }
+    }
+
+    @AfterMethod
+    public void after() {
+        while (!queue.isEmpty()) {
+            queue.poll();
+        }
+        queue.close();
+    }
+
+    @Test
+    public void shouldRejectOfferWhenCapacityReached() throws InterruptedException {
+        queue = berkeleyDbQueue(new BerkeleyDbQueueConfig.Builder()
+                .capacity(3)
+                .build());
+
+        assertTrue(queue.offer(payload(1)));
+        assertTrue(queue.offer(payload(2)));
+        assertTrue(queue.offer(payload(3)));
+        assertFalse(queue.offer(payload(4)));
+        assertFalse(queue.offer(payload(4), 10, TimeUnit.MILLISECONDS));
+        assertEquals(queue.size(), 3);
+
+        queue.poll();
+        assertTrue(queue.offer(payload(4)));
+    }
+
+    @Test(expectedExceptions = EnqueueException.class)
+    public void shouldPushThrowExceptionWhenCapacityReached() {
+        queue = berkeleyDbQueue(new BerkeleyDbQueueConfig.Builder()
+                .capacity(1)
+                .build());
+
+        queue.push(payload(1));
+        queue.push(payload(2));
+    }
+
+    @Test
+    public void shouldRequeueIgnoringCapacity() {
+        queue = berkeleyDbQueue(new BerkeleyDbQueueConfig.Builder()
+                .capacity(1)
+                .build());
+
+        queue.push(payload(1));
+        queue.requeue(payload(2));
+
+        assertEquals(queue.size(), 2);
+    }
+
+    @Test
+    public void shouldRejectOfferWhenCapacityBytesReached() {
+        int payloadSize = payload(1).serialize().length;
+        queue = berkeleyDbQueue(new BerkeleyDbQueueConfig.Builder()
+                .capacityBytes(2 * payloadSize)
+                .build());
+
+        assertTrue(queue.offer(payload(1)));
+        assertTrue(queue.offer(payload(2)));
+        assertFalse(queue.offer(payload(3)));
+        assertEquals(queue.sizeInBytes(), 2 * payloadSize);
+
+        queue.poll();
+        assertEquals(queue.sizeInBytes(), payloadSize);
+        assertTrue(queue.offer(payload(3)));
+    }
+
+    @Test
+    public void shouldAcceptPayloadLargerThanCapacityBytesWhenEmpty() {
+        queue = berkeleyDbQueue(new BerkeleyDbQueueConfig.Builder()
+                .capacityBytes(1)
+                .build());
+
+        assertTrue(queue.offer(payload(1)));
+        assertFalse(queue.offer(payload(2)));
+    }
+
+    @Test
+    public void shouldUnblockPutWhenSpaceFreed() throws InterruptedException {
+        queue = berkeleyDbQueue(new BerkeleyDbQueueConfig.Builder()
+                .capacity(1)
+                .build());
+        queue.put(payload(1));
+
+        CountDownLatch putStarted = new CountDownLatch(1);
+        CountDownLatch putFinished = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                putStarted.countDown();
+                queue.put(payload(2));
+                putFinished.countDown();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+
+        putStarted.await();
+        assertFalse(putFinished.await(100, TimeUnit.MILLISECONDS));
+
+        assertEquals(queue.poll().getNumber(), Integer.valueOf(1));
+        assertTrue(putFinished.await(5, TimeUnit.SECONDS));
+        producer.join();
+        assertEquals(queue.poll().getNumber(), Integer.valueOf(2));
+    }
+
+    @Test
+    public void shouldPollWithTimeoutReturnNullForEmptyQueue() throws InterruptedException {
+        queue = berkeleyDbQueue(new BerkeleyDbQueueConfig.Builder()
+                .build());
+
+        long start = System.nanoTime();
+        assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void shouldWakeUpTakeOnPush() throws InterruptedException {
+        queue = berkeleyDbQueue(new BerkeleyDbQueueConfig.Builder()
+                .build());
+
+        CountDownLatch taken = new CountDownLatch(1);
+        SimplePayload[] result = new SimplePayload[1];
+        Thread consumer = new Thread(() -> {
+            try {
+                result[0] = queue.take();
+                taken.countDown();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+
+        assertFalse(taken.await(100, TimeUnit.MILLISECONDS));
+        queue.push(payload(7));
+
+        assertTrue(taken.await(5, TimeUnit.SECONDS));
+        consumer.join();
+        assertEquals(result[0].getNumber(), Integer.valueOf(7));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void shouldPollWithTimeoutReturnPushedPayload() throws InterruptedException {
+        queue = berkeleyDbQueue(new BerkeleyDbQueueConfig.Builder()
+                .build());
+
+        Thread producer = new Thread(() -> queue.push(payload(8)));
+        producer.start();
+
+        SimplePayload polled = queue.poll(5, TimeUnit.SECONDS);
+        producer.join();
+        assertEquals(polled.getNumber(), Integer.valueOf(8));
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.mstawowiak.persistent.queue;
+
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link BerkeleyDbQueueConfig}
+ */
+public class BerkeleyDbQueueConfigTest {
+
+    @Test
+    public void shouldBuildDefaultConfig() {
+        BerkeleyDbQueueConfig config = new BerkeleyDbQueueConfig.Builder()
+                .build();
+
+        assertNotNull(config);
+        assertEquals(config.getBatchSize(), 1);
+        assertEquals(config.getCleanerMinUtilization(), 50);
+        assertEquals(config.getLogFileMaxBytes(), 10_000_000L);
+        assertFalse(config.isCompactionEnabled());
+        assertFalse(config.isDeduplicationEnabled());
+        assertEquals(config.getTimeToLiveMillis(), 0L);
+        assertFalse(config.isExpiryPurgeEnabled());
+    }
+
+    @Test
+    public void shouldEnableExpiryPurgeWithTimeToLive() {
+        BerkeleyDbQueueConfig config = new BerkeleyDbQueueConfig.Builder()
+                .timeToLive(5, TimeUnit.MINUTES)
+                .build();
+
+        assertEquals(config.getTimeToLiveMillis(), 300_000L);
+        assertTrue(config.isExpiryPurgeEnabled());
+        assertEquals(config.getExpiryPurgeIntervalMillis(), 60_000L);
+    }
+
+    @Test
+    public void shouldBuildConfigWithAllParameters() {
+        BerkeleyDbQueueConfig config = new BerkeleyDbQueueConfig.Builder()
+                .batchSize(100)
+                .cleanerMinUtilization(75)
+                .logFileMaxBytes(2_000_000L)
+                .compactionThreshold(30)
+                .compactionInterval(10, TimeUnit.SECONDS)
+                .capacity(1000)
+                .capacityBytes(1_000_000L)
+                .deduplicationRetention(1, TimeUnit.HOURS)
+                .deduplicationExpectedKeys(10_000)
+                .build();
+
+        assertEquals(config.getBatchSize(), 100);
+        assertEquals(config.getCleanerMinUtilization(), 75);
+        assertEquals(config.getLogFileMaxBytes(), 2_000_000L);
+        assertEquals(config.getCompactionThreshold(), 30);
+        assertEquals(config.getCompactionIntervalMillis(), 10_000L);
+        assertTrue(config.isCompactionEnabled());
+        assertEquals(config.getCapacity(), 1000L);
+        assertEquals(config.getCapacityBytes(), 1_000_000L);
+        assertTrue(config.isDeduplicationEnabled());
+        assertEquals(config.getDeduplicationRetentionMillis(), 3_600_000L);
+        assertEquals(config.getDeduplicationExpectedKeys(), 10_000L);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenBatchSizeNotPositive() {
+        new BerkeleyDbQueueConfig.Builder()
+                .batchSize(0)
+                .build();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenCleanerMinUtilizationOutOfRange() {
+        new BerkeleyDbQueueConfig.Builder()
+                .cleanerMinUtilization(95)
+                .build();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenCompactionThresholdOutOfRange() {
+        new BerkeleyDbQueueConfig.Builder()
+                .compactionThreshold(101)
+                .build();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenCapacityNotPositive() {
+        new BerkeleyDbQueueConfig.Builder()
+                .capacity(0)
+                .build();
+    }
+
+    @Test
+    public void shouldBuildConfigWithMirror() {
+        BerkeleyDbQueueConfig config = new BerkeleyDbQueueConfig.Builder()
+                .mirror("build/mirror")
+                .mirrorMaxLag(500)
+                .mirrorBatchSize(50)
+                .build();
+
+        assertTrue(config.isMirrorEnabled());
+        assertEquals(config.getMirrorEnvPath(), "build/mirror");
+        assertEquals(config.getMirrorMaxLag(), 500);
+        assertEquals(config.getMirrorBatchSize(), 50);
+        assertFalse(new BerkeleyDbQueueConfig.Builder().build().isMirrorEnabled());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenMirrorMaxLagNotPositive() {
+        new BerkeleyDbQueueConfig.Builder()
+                .mirrorMaxLag(0)
+                .build();
+    }
+
+    @Test
+    public void shouldBuildConfigWithBlobThreshold() {
+        BerkeleyDbQueueConfig config = new BerkeleyDbQueueConfig.Builder()
+                .blobThreshold(1_000_000)
+                .build();
+
+        assertTrue(config.isBlobOffloadEnabled());
+        assertEquals(config.getBlobThreshold(), 1_000_000);
+        assertFalse(new BerkeleyDbQueueConfig.Builder().build().isBlobOffloadEnabled());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenBlobThresholdNegative() {
+        new BerkeleyDbQueueConfig.Builder()
+                .blobThreshold(-1)
+                .build();
+    }
+}
@@ -0,0 +1,214 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.consumer.BlockingQueueUnloader;
+import com.github.mstawowiak.persistent.queue.consumer.QueueUnloader;
+import com.github.mstawowiak.persistent.queue.consumer.QueueUnloaderConfig;
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for consumer groups of {@link BerkeleyDbQueue}
+ */
+public class BerkeleyDbQueueConsumerGroupTest {
+
+    private BerkeleyDbQueue<SimplePayload> queue;
+
+    private static final String queueName = BerkeleyDbQueueConsumerGroupTest.class.getSimpleName();
+    private static final String queueDirName = "build/" + queueName;
+    private static final File queueDir = new File(queueDirName);
+
+    private BerkeleyDbQueue<SimplePayload> berkeleyDbQueue() {
+        return new BerkeleyDbQueue<>(queueDirName, queueName);
+    }
+
+    private static SimplePayload payload(int number) {
+        return new SimplePayload("test" + number, number, BigInteger.valueOf(number));
+    }
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDeleteOnExit(queueDir);
+        }
+    }
+
+    @AfterMethod
+    public void after() {
+        for (String groupName : queue.consumerGroupNames()) {
+            queue.removeConsumerGroup(groupName);
+        }
+        while (!queue.isEmpty()) {
+            queue.poll();
+        }
+        queue.close();
+    }
+
+    @Test
+    public void shouldDeliverAllPayloadsToEachGroup() {
+        queue = berkeleyDbQueue();
+        Queue<SimplePayload> groupA = queue.consumerGroup("a");
+        Queue<SimplePayload> groupB = queue.consumerGroup("b");
+
+        for (int i = 0; i < 10; i++) {
+            queue.push(payload(i));
+        }
+        assertEquals(groupA.size(), 10);
+        assertEquals(groupB.size(), 10);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(groupA.poll().getNumber(), Integer.valueOf(i));
+        }
+        assertNull(groupA.poll());
+        assertEquals(queue.size(), 10);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(groupB.poll().getNumber(), Integer.valueOf(i));
+        }
+        assertEquals(queue.size(), 5);
+        assertEquals(groupB.peek().getNumber(), Integer.valueOf(5));
+    }
+
+    @Test
+    public void shouldScanPayloadsNotReadByGroup() {
+        queue = berkeleyDbQueue();
+        Queue<SimplePayload> groupA = queue.consumerGroup("a");
+        queue.consumerGroup("b");
+
+        for (int i = 0; i < 5; i++) {
+            queue.push(payload(i));
+        }
+        groupA.poll();
+        groupA.poll();
+        groupA.requeue(payload(1));
+
+        assertEquals(groupA.stream().map(SimplePayload::getNumber).toArray(), new Integer[] {1, 2, 3, 4});
+        assertEquals(queue.stream().count(), 5);
+    }
+
+    @Test
+    public void shouldRequeueToSingleGroup() {
+        queue = berkeleyDbQueue();
+        Queue<SimplePayload> groupA = queue.consumerGroup("a");
+        Queue<SimplePayload> groupB = queue.consumerGroup("b");
+
+        groupA.push(payload(1));
+        groupA.push(payload(2));
+
+        SimplePayload first = groupA.poll();
+        groupA.requeue(first);
+
+        assertEquals(groupA.size(), 2);
+        assertEquals(groupB.size(), 2);
+        assertEquals(groupA.poll().getNumber(), Integer.valueOf(1));
+        assertEquals(groupA.poll().getNumber(), Integer.valueOf(2));
+        assertNull(groupA.poll());
+
+        assertEquals(groupB.poll().getNumber(), Integer.valueOf(1));
+        assertEquals(groupB.poll().getNumber(), Integer.valueOf(2));
+        assertNull(groupB.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void shouldRestoreGroupPositionsAfterReopen() {
+        queue = berkeleyDbQueue();
+        Queue<SimplePayload> groupA = queue.consumerGroup("a");
+        queue.consumerGroup("b");
+
+        for (int i = 0; i < 10; i++) {
+            queue.push(payload(i));
+        }
+        for (int i = 0; i < 3; i++) {
+            groupA.poll();
+        }
+        groupA.requeue(payload(100));
+        queue.close();
+
+        queue = berkeleyDbQueue();
+        assertEquals(queue.consumerGroupNames().size(), 2);
+        groupA = queue.consumerGroup("a");
+        Queue<SimplePayload> groupB = queue.consumerGroup("b");
+
+        assertEquals(groupA.size(), 8);
+        assertEquals(groupB.size(), 10);
+        assertEquals(groupA.poll().getNumber(), Integer.valueOf(100));
+        assertEquals(groupA.poll().getNumber(), Integer.valueOf(3));
+        assertEquals(groupB.poll().getNumber(), Integer.valueOf(0));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void shouldNotPollQueueReadByGroups() {
+        queue = berkeleyDbQueue();
+        queue.consumerGroup("a");
+        queue.push(payload(1));
+
+        queue.poll();
+    }
+
+    @Test
+    public void shouldPollQueueAfterGroupsRemoved() {
+        queue = berkeleyDbQueue();
+        Queue<SimplePayload> groupA = queue.consumerGroup("a");
+        queue.push(payload(1));
+        queue.push(payload(2));
+        groupA.poll();
+        assertEquals(queue.size(), 1);
+
+        queue.removeConsumerGroup("a");
+
+        assertEquals(queue.poll().getNumber(), Integer.valueOf(2));
+    }
+
+    @Test
+    public void shouldUnloadEachGroupIndependently() throws InterruptedException {
+        queue = berkeleyDbQueue();
+        AtomicInteger consumedByA = new AtomicInteger();
+        AtomicInteger consumedByB = new AtomicInteger();
+
+        QueueUnloader unloaderA = new BlockingQueueUnloader<>(queue.consumerGroup("a"),
+                new QueueUnloaderConfig.Builder<SimplePayload>()
+                        .consumer(payload -> consumedByA.incrementAndGet())
+                        .build());
+        QueueUnloader unloaderB = new BlockingQueueUnloader<>(queue.consumerGroup("b"),
+                new QueueUnloaderConfig.Builder<SimplePayload>()
+                        .consumer(payload -> consumedByB.incrementAndGet())
+                        .build());
+        unloaderA.start();
+        unloaderB.start();
+
+        for (int i = 0; i < 100; i++) {
+            queue.push(payload(i));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!queue.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        unloaderA.stop();
+        unloaderB.stop();
+
+        assertTrue(queue.isEmpty());
+        assertEquals(consumedByA.get(), 100);
+        assertEquals(consumedByB.get(), 100);
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+
+public class BerkeleyDbQueueDeduplicationPerformanceTest {
+
+    private static final int NUM_OF_PAYLOADS = 200_000;
+    private static final int BATCH_SIZE = 1000;
+    private static final int DUPLICATE_EVERY = 10;
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("-----------------------------------------------------------");
+        System.out.println("Start deduplication performance tests of persistent-queue");
+        System.out.println("-----------------------------------------------------------");
+
+        BerkeleyDbQueueConfig plainConfig = new BerkeleyDbQueueConfig.Builder()
+                .batchSize(BATCH_SIZE)
+                .build();
+        BerkeleyDbQueueConfig dedupConfig = new BerkeleyDbQueueConfig.Builder()
+                .batchSize(BATCH_SIZE)
+                .deduplicationRetention(1, TimeUnit.HOURS)
+                .deduplicationExpectedKeys(NUM_OF_PAYLOADS)
+                .build();
+
+        measure("push", plainConfig, (queue, i) -> queue.push(payload(i)));
+        measure("push with unique keys", dedupConfig, (queue, i) -> queue.push(payload(i), "key-" + i));
+        measure("push with 10% duplicates", dedupConfig, (queue, i) -> queue.push(payload(i),
+                "key-" + (i % DUPLICATE_EVERY == 0 ? i - DUPLICATE_EVERY / 2 : i)));
+    }
+
+    private static SimplePayload payload(int number) {
+        return new SimplePayload("test", number, BigInteger.valueOf(number));
+    }
+
+    private static void measure(String name, BerkeleyDbQueueConfig config, PushOperation operation)
+            throws IOException {
+        final String queueName = BerkeleyDbQueueDeduplicationPerformanceTest.class.getSimpleName();
+        final String queueDirName = "build/" + queueName;
+        final File queueDir = new File(queueDirName);
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+
+        BerkeleyDbQueue<SimplePayload> queue = new BerkeleyDbQueue<>(queueDirName, queueName, config);
+        long start = System.nanoTime();
+        for (int i = 0; i < NUM_OF_PAYLOADS; i++) {
+            operation.push(queue, i);
+        }
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println(String.format("%s: %,d payloads in %d ms, %,d payloads/s, queue size: %,d",
+                name, NUM_OF_PAYLOADS, durationMillis, NUM_OF_PAYLOADS * 1000L / Math.max(1, durationMillis),
+                queue.size()));
+
+        queue.close();
+        FileUtils.forceDelete(queueDir);
+    }
+
+    private interface PushOperation {
+        void push(BerkeleyDbQueue<SimplePayload> queue, int number);
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for deduplication of {@link BerkeleyDbQueue}
+ */
+public class BerkeleyDbQueueDeduplicationTest {
+
+    private BerkeleyDbQueue<SimplePayload> queue;
+
+    private static final String queueName = BerkeleyDbQueueDeduplicationTest.class.getSimpleName();
+    private static final String queueDirName = "build/" + queueName;
+    private static final File queueDir = new File(queueDirName);
+
+    private BerkeleyDbQueue<SimplePayload> berkeleyDbQueue(long retentionMillis) {
+        return new BerkeleyDbQueue<>(queueDirName, queueName, new BerkeleyDbQueueConfig.Builder()
+                .deduplicationRetention(retentionMillis, TimeUnit.MILLISECONDS)
+                .deduplicationExpectedKeys(1000)
+                .build());
+    }
+
+    private static SimplePayload payload(int number) {
+        return new SimplePayload("test" + number, number, BigInteger.valueOf(number));
+    }
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDeleteOnExit(queueDir);
+        }
+    }
+
+    @AfterMethod
+    public void after() throws IOException {
+        queue.close();
+        FileUtils.forceDelete(queueDir);
+    }
+
+    @Test
+    public void shouldRejectDuplicates() {
+        queue = berkeleyDbQueue(TimeUnit.HOURS.toMillis(1));
+
+        assertTrue(queue.push(payload(1), "a"));
+        assertTrue(queue.push(payload(2), "b"));
+        assertFalse(queue.push(payload(1), "a"));
+        assertEquals(queue.size(), 2);
+
+        queue.poll();
+        assertFalse(queue.push(payload(1), "a"));
+        assertEquals(queue.size(), 1);
+    }
+
+    @Test
+    public void shouldRejectDuplicatesAfterReopen() {
+        queue = berkeleyDbQueue(TimeUnit.HOURS.toMillis(1));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(queue.push(payload(i), "key" + i));
+        }
+        queue.close();
+
+        queue = berkeleyDbQueue(TimeUnit.HOURS.toMillis(1));
+        for (int i = 0; i < 100; i++) {
+            assertFalse(queue.push(payload(i), "key" + i));
+        }
+        assertTrue(queue.push(payload(100), "key100"));
+        assertEquals(queue.size(), 101);
+    }
+
+    @Test
+    public void shouldAcceptKeyAfterRetention() throws InterruptedException {
+        queue = berkeleyDbQueue(200);
+
+        assertTrue(queue.push(payload(1), "a"));
+        assertFalse(queue.push(payload(1), "a"));
+        Thread.sleep(500);
+
+        assertTrue(queue.push(payload(1), "a"));
+        assertEquals(queue.size(), 2);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void shouldNotPushWithKeyWhenDeduplicationDisabled() {
+        queue = new BerkeleyDbQueue<>(queueDirName, queueName);
+
+        queue.push(payload(1), "a");
+    }
+}
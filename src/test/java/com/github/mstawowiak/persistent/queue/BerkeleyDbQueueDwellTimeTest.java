@@ -0,0 +1,97 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for dwell time tracking of {@link BerkeleyDbQueue}
+ */
+public class BerkeleyDbQueueDwellTimeTest {
+
+    private BerkeleyDbQueue<SimplePayload> queue;
+
+    private static final String queueName = BerkeleyDbQueueDwellTimeTest.class.getSimpleName();
+    private static final String queueDirName = "build/" + queueName;
+    private static final File queueDir = new File(queueDirName);
+
+    private static SimplePayload payload(int number) {
+        return new SimplePayload("test" + number, number, BigInteger.valueOf(number));
+    }
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDeleteOnExit(queueDir);
+        }
+    }
+
+    @BeforeMethod
+    public void before() {
+        queue = new BerkeleyDbQueue<>(queueDirName, queueName);
+    }
+
+    @AfterMethod
+    public void after() {
+        while (queue.poll() != null) {
+            // drain payloads left by the test
+        }
+        queue.close();
+    }
+
+    @Test
+    public void shouldReturnAgeOfOldestPayload() throws InterruptedException {
+        assertEquals(queue.getOldestAgeMillis(), -1);
+
+        queue.push(payload(1));
+        Thread.sleep(100);
+        queue.push(payload(2));
+
+        assertTrue(queue.getOldestAgeMillis() >= 100);
+        queue.poll();
+        assertTrue(queue.getOldestAgeMillis() < 100);
+        queue.poll();
+        assertEquals(queue.getOldestAgeMillis(), -1);
+    }
+
+    @Test
+    public void shouldRecordDwellTimeOfPolledPayloads() throws InterruptedException {
+        queue.push(payload(1));
+        queue.push(payload(2));
+        Thread.sleep(100);
+
+        assertEquals(queue.poll().getNumber(), Integer.valueOf(1));
+        assertEquals(queue.poll().getNumber(), Integer.valueOf(2));
+
+        assertEquals(queue.getDwellTime().getCount(), 2);
+        assertTrue(queue.getDwellTime().getValueAtPercentile(50) >= 100);
+        assertTrue(queue.getDwellTime().getMax() >= 100);
+    }
+
+    @Test
+    public void shouldRecordDwellTimeOfConsumerGroups() {
+        Queue<SimplePayload> group = queue.consumerGroup("group");
+        queue.push(payload(1));
+
+        assertEquals(group.poll().getNumber(), Integer.valueOf(1));
+        assertEquals(queue.getDwellTime().getCount(), 1);
+        queue.removeConsumerGroup("group");
+    }
+}
@@ -0,0 +1,137 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for expiry of payloads in {@link BerkeleyDbQueue}
+ */
+public class BerkeleyDbQueueExpiryTest {
+
+    private BerkeleyDbQueue<SimplePayload> queue;
+
+    private static final String queueName = BerkeleyDbQueueExpiryTest.class.getSimpleName();
+    private static final String queueDirName = "build/" + queueName;
+    private static final File queueDir = new File(queueDirName);
+
+    private BerkeleyDbQueue<SimplePayload> berkeleyDbQueue(BerkeleyDbQueueConfig config) {
+        return new BerkeleyDbQueue<>(queueDirName, queueName, config);
+    }
+
+    private static SimplePayload payload(int number) {
+        return new SimplePayload("test" + number, number, BigInteger.valueOf(number));
+    }
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDeleteOnExit(queueDir);
+        }
+    }
+
+    @AfterMethod
+    public void after() {
+        while (queue.poll() != null) {
+            // drain payloads left by the test
+        }
+        queue.close();
+    }
+
+    @Test
+    public void shouldSkipExpiredPayloads() throws InterruptedException {
+        queue = berkeleyDbQueue(new BerkeleyDbQueueConfig.Builder()
+                .timeToLive(200, TimeUnit.MILLISECONDS)
+                .expiryPurgeInterval(1, TimeUnit.HOURS)
+                .build());
+
+        for (int i = 0; i < 10; i++) {
+            queue.push(payload(i));
+        }
+        Thread.sleep(400);
+        queue.push(payload(10));
+        assertEquals(queue.size(), 11);
+
+        assertEquals(queue.stream().count(), 1);
+        assertEquals(queue.peek().getNumber(), Integer.valueOf(10));
+        assertEquals(queue.poll().getNumber(), Integer.valueOf(10));
+        assertNull(queue.poll());
+        assertEquals(queue.getExpiredCount(), 10);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void shouldExpirePayloadsWithOwnTimeToLive() throws InterruptedException {
+        queue = berkeleyDbQueue(new BerkeleyDbQueueConfig.Builder().build());
+
+        queue.push(payload(1));
+        queue.pushExpiring(payload(2), 100, TimeUnit.MILLISECONDS);
+        queue.pushExpiring(payload(3), 1, TimeUnit.HOURS);
+        queue.push(payload(4));
+        Thread.sleep(300);
+
+        assertEquals(queue.poll().getNumber(), Integer.valueOf(1));
+        assertEquals(queue.poll().getNumber(), Integer.valueOf(3));
+        assertEquals(queue.poll(10, TimeUnit.MILLISECONDS).getNumber(), Integer.valueOf(4));
+        assertEquals(queue.getExpiredCount(), 1);
+    }
+
+    @Test
+    public void shouldWaitForUnexpiredPayload() throws InterruptedException {
+        queue = berkeleyDbQueue(new BerkeleyDbQueueConfig.Builder().build());
+
+        queue.pushExpiring(payload(1), 50, TimeUnit.MILLISECONDS);
+        Thread.sleep(100);
+
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                queue.push(payload(2));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+
+        assertEquals(queue.take().getNumber(), Integer.valueOf(2));
+        producer.join();
+    }
+
+    @Test
+    public void shouldPurgeExpiredPayloadsInBackground() throws InterruptedException {
+        queue = berkeleyDbQueue(new BerkeleyDbQueueConfig.Builder()
+                .timeToLive(100, TimeUnit.MILLISECONDS)
+                .expiryPurgeInterval(100, TimeUnit.MILLISECONDS)
+                .build());
+
+        for (int i = 0; i < 2500; i++) {
+            queue.push(payload(i));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!queue.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(queue.isEmpty());
+        assertEquals(queue.sizeInBytes(), 0);
+        assertEquals(queue.getExpiredCount(), 2500);
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for export and import of {@link BerkeleyDbQueue}
+ */
+public class BerkeleyDbQueueExportTest {
+
+    private BerkeleyDbQueue<SimplePayload> source;
+    private BerkeleyDbQueue<SimplePayload> target;
+
+    private static final String queueName = BerkeleyDbQueueExportTest.class.getSimpleName();
+    private static final String queueDirName = "build/" + queueName;
+    private static final File queueDir = new File(queueDirName);
+
+    private static SimplePayload payload(int number) {
+        return new SimplePayload("test" + number, number, BigInteger.valueOf(number));
+    }
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDeleteOnExit(queueDir);
+        }
+    }
+
+    @BeforeMethod
+    public void before() {
+        source = new BerkeleyDbQueue<>(queueDirName + "/source", queueName);
+        target = new BerkeleyDbQueue<>(queueDirName + "/target", queueName);
+    }
+
+    @AfterMethod
+    public void after() {
+        for (BerkeleyDbQueue<SimplePayload> queue : Arrays.asList(source, target)) {
+            while (!queue.isEmpty()) {
+                queue.poll();
+            }
+            queue.close();
+        }
+    }
+
+    @Test
+    public void shouldExportAndImportPayloads() throws IOException {
+        shouldExportAndImportPayloads(false);
+    }
+
+    @Test
+    public void shouldExportAndImportCompressedPayloads() throws IOException {
+        shouldExportAndImportPayloads(true);
+    }
+
+    private void shouldExportAndImportPayloads(boolean compressed) throws IOException {
+        for (int i = 0; i < 2500; i++) {
+            source.push(payload(i));
+        }
+        source.poll();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(source.exportTo(out, compressed), 2499);
+        assertEquals(source.size(), 2499);
+
+        target.push(payload(-1));
+        assertEquals(target.importFrom(new ByteArrayInputStream(out.toByteArray())), 2499);
+
+        assertEquals(target.size(), 2500);
+        assertEquals(target.sizeInBytes(), source.sizeInBytes() + payload(-1).serialize().length);
+        for (int i = -1; i < 2500; i++) {
+            if (i != 0) {
+                assertEquals(target.poll().getNumber(), Integer.valueOf(i));
+            }
+        }
+        assertTrue(target.isEmpty());
+    }
+
+    @Test
+    public void shouldExportToAndImportFromFile() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            source.push(payload(i));
+        }
+        Path file = new File(queueDir, "queue.export").toPath();
+
+        assertEquals(source.exportTo(file, true), 10);
+        assertEquals(target.importFrom(file), 10);
+        assertEquals(target.size(), 10);
+
+        target.close();
+        target = new BerkeleyDbQueue<>(queueDirName + "/target", queueName);
+        assertEquals(target.size(), 10);
+        assertEquals(target.peek().getNumber(), Integer.valueOf(0));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void shouldRejectUnknownFormat() throws IOException {
+        target.importFrom(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5, 6}));
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for mirroring of {@link BerkeleyDbQueue}
+ */
+public class BerkeleyDbQueueMirrorTest {
+
+    private static final String queueName = BerkeleyDbQueueMirrorTest.class.getSimpleName();
+    private static final String queueDirName = "build/" + queueName;
+    private static final File queueDir = new File(queueDirName);
+    private static final String primaryDirName = queueDirName + "/primary";
+    private static final String mirrorDirName = queueDirName + "/mirror";
+
+    private static final BerkeleyDbQueueConfig MIRRORED_CONFIG = new BerkeleyDbQueueConfig.Builder()
+            .mirror(mirrorDirName)
+            .mirrorBatchSize(10)
+            .build();
+
+    private static SimplePayload payload(int number) {
+        return new SimplePayload("test" + number, number, BigInteger.valueOf(number));
+    }
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDeleteOnExit(queueDir);
+        }
+    }
+
+    @BeforeMethod
+    public void before() throws IOException {
+        FileUtils.deleteDirectory(queueDir);
+    }
+
+    @Test
+    public void shouldPromoteMirrorWithPushesAndPolls() {
+        BerkeleyDbQueue<SimplePayload> queue = new BerkeleyDbQueue<>(primaryDirName, queueName, MIRRORED_CONFIG);
+        for (int i = 0; i < 100; i++) {
+            queue.push(payload(i));
+        }
+        for (int i = 0; i < 40; i++) {
+            queue.poll();
+        }
+        queue.close();
+
+        BerkeleyDbQueue<SimplePayload> promoted = BerkeleyDbQueue.promoteMirror(mirrorDirName, queueName,
+                new BerkeleyDbQueueConfig.Builder().build());
+        try {
+            assertEquals(promoted.size(), 60);
+            assertEquals(promoted.sizeInBytes(), 60 * payload(99).serialize().length);
+            for (int i = 40; i < 100; i++) {
+                assertEquals(promoted.poll().getNumber(), Integer.valueOf(i));
+            }
+            assertTrue(promoted.isEmpty());
+        } finally {
+            promoted.close();
+        }
+    }
+
+    @Test
+    public void shouldCopyExistingBacklogToNewMirror() {
+        BerkeleyDbQueue<SimplePayload> queue = new BerkeleyDbQueue<>(primaryDirName, queueName);
+        for (int i = 0; i < 10; i++) {
+            queue.push(payload(i));
+        }
+        queue.poll();
+        queue.close();
+
+        queue = new BerkeleyDbQueue<>(primaryDirName, queueName, MIRRORED_CONFIG);
+        queue.push(payload(10));
+        queue.close();
+
+        BerkeleyDbQueue<SimplePayload> promoted = BerkeleyDbQueue.promoteMirror(mirrorDirName, queueName,
+                new BerkeleyDbQueueConfig.Builder().build());
+        try {
+            assertEquals(promoted.size(), 10);
+            assertEquals(promoted.peek().getNumber(), Integer.valueOf(1));
+        } finally {
+            promoted.close();
+        }
+    }
+
+    @Test
+    public void shouldMirrorRemovalOfExpiredPayloads() throws InterruptedException {
+        BerkeleyDbQueue<SimplePayload> queue = new BerkeleyDbQueue<>(primaryDirName, queueName, MIRRORED_CONFIG);
+        queue.pushExpiring(payload(1), 1, TimeUnit.MILLISECONDS);
+        queue.push(payload(2));
+        Thread.sleep(10);
+        assertEquals(queue.poll().getNumber(), Integer.valueOf(2));
+        queue.push(payload(3));
+        queue.close();
+
+        BerkeleyDbQueue<SimplePayload> promoted = BerkeleyDbQueue.promoteMirror(mirrorDirName, queueName,
+                new BerkeleyDbQueueConfig.Builder().build());
+        try {
+            assertEquals(promoted.size(), 1);
+            assertEquals(promoted.poll().getNumber(), Integer.valueOf(3));
+        } finally {
+            promoted.close();
+        }
+    }
+
+    @Test
+    public void shouldReportMirrorLag() throws InterruptedException {
+        BerkeleyDbQueue<SimplePayload> plainQueue = new BerkeleyDbQueue<>(primaryDirName, queueName);
+        assertEquals(plainQueue.getMirrorLag(), -1);
+        assertEquals(plainQueue.getMirrorLagMillis(), -1);
+        plainQueue.close();
+
+        BerkeleyDbQueue<SimplePayload> queue = new BerkeleyDbQueue<>(primaryDirName, queueName, MIRRORED_CONFIG);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                queue.push(payload(i));
+                assertTrue(queue.getMirrorLag() <= MIRRORED_CONFIG.getMirrorMaxLag());
+            }
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (queue.getMirrorLag() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(queue.getMirrorLag(), 0);
+            assertEquals(queue.getMirrorLagMillis(), 0);
+        } finally {
+            queue.close();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenMirroringToOwnEnvironment() {
+        new BerkeleyDbQueue<SimplePayload>(mirrorDirName, queueName, MIRRORED_CONFIG);
+    }
+}
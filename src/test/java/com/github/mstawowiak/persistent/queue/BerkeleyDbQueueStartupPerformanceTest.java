@@ -0,0 +1,59 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import com.github.mstawowiak.persistent.queue.data.TestPayload;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import org.apache.commons.io.FileUtils;
+
+public class BerkeleyDbQueueStartupPerformanceTest {
+
+    private static final int[] BACKLOG_SIZES = {10_000, 100_000, 1_000_000};
+    private static final int BATCH_SIZE = 1000;
+    private static final long PRELOAD_BYTES = 16 * 1024 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("-----------------------------------------------------------");
+        System.out.println("Start startup performance tests of persistent-queue");
+        System.out.println("-----------------------------------------------------------");
+
+        for (int backlogSize : BACKLOG_SIZES) {
+            final String queueName = BerkeleyDbQueueStartupPerformanceTest.class.getSimpleName() + "-" + backlogSize;
+            final String queueDirName = "build/" + queueName;
+            final File queueDir = new File(queueDirName);
+            if (queueDir.exists()) {
+                FileUtils.forceDelete(queueDir);
+            }
+
+            Queue<TestPayload> queue = new BerkeleyDbQueue<>(queueDirName, queueName, BATCH_SIZE);
+            for (int i = 0; i < backlogSize; i++) {
+                queue.push(new SimplePayload("t", i, BigInteger.valueOf(i)));
+            }
+            queue.close();
+
+            long openMillis = measureOpen(queueDirName, queueName, new BerkeleyDbQueueConfig.Builder()
+                    .batchSize(BATCH_SIZE)
+                    .build());
+            long openWithPreloadMillis = measureOpen(queueDirName, queueName, new BerkeleyDbQueueConfig.Builder()
+                    .batchSize(BATCH_SIZE)
+                    .preloadBytes(PRELOAD_BYTES)
+                    .build());
+
+            System.out.println(String.format("Backlog: %,d, open: %d ms, open with preload: %d ms",
+                    backlogSize, openMillis, openWithPreloadMillis));
+
+            FileUtils.forceDelete(queueDir);
+        }
+    }
+
+    private static long measureOpen(String queueDirName, String queueName, BerkeleyDbQueueConfig config) {
+        long start = System.currentTimeMillis();
+        Queue<TestPayload> queue = new BerkeleyDbQueue<>(queueDirName, queueName, config);
+        queue.peek();
+        long duration = System.currentTimeMillis() - start;
+        queue.close();
+        return duration;
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import com.github.mstawowiak.persistent.queue.kit.QueueStorageConformanceTest;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link BerkeleyDbQueueStorage}
+ */
+public class BerkeleyDbQueueStorageTest extends QueueStorageConformanceTest {
+
+    private static final String queueDirName = "build/" + BerkeleyDbQueueStorageTest.class.getSimpleName();
+    private static final File queueDir = new File(queueDirName);
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDeleteOnExit(queueDir);
+        }
+    }
+
+    @Override
+    protected QueueStorage openStorage(String storageName) {
+        return new BerkeleyDbQueueStorage(queueDirName, storageName);
+    }
+
+    @Test
+    public void shouldCountRecordsWhenMetadataIsMissing() {
+        QueueStorage storage = openStorage("missingMetadata");
+        for (long key = 0; key < 50; key++) {
+            storage.append(key, new byte[] {(byte) key});
+        }
+        storage.deleteRange(0, 5);
+        storage.close();
+
+        EnvironmentConfig envConfig = new EnvironmentConfig();
+        Environment environment = new Environment(queueDir, envConfig);
+        environment.removeDatabase(null, "missingMetadata" + BerkeleyDbQueueStorage.METADATA_DATABASE_SUFFIX);
+        environment.close();
+
+        storage = openStorage("missingMetadata");
+        try {
+            assertEquals(storage.count(), 45);
+            assertEquals(storage.lastKey(), 49);
+            assertEquals(storage.readHead(0).getKey(), 5);
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void shouldOpenStorageWrittenByQueue() {
+        BerkeleyDbQueue<SimplePayload> queue = new BerkeleyDbQueue<>(queueDirName, "writtenByQueue");
+        for (int i = 0; i < 10; i++) {
+            queue.push(new SimplePayload(String.valueOf(i), i, BigInteger.valueOf(i)));
+        }
+        queue.poll();
+        long sizeInBytes = queue.sizeInBytes();
+        assertTrue(sizeInBytes > 0);
+        queue.close();
+
+        QueueStorage storage = openStorage("writtenByQueue");
+        try {
+            assertEquals(storage.count(), 9);
+            assertEquals(storage.bytes(), sizeInBytes);
+            assertEquals(storage.lastKey(), 9);
+            assertEquals(storage.readHead(0).getKey(), 1);
+        } finally {
+            storage.close();
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package com.github.mstawowiak.persistent.queue;
 
 import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 import org.apache.commons.io.FileUtils;
 import org.testng.annotations.AfterClass;
@@ -12,6 +15,7 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
@@ -216,4 +220,99 @@ public class BerkeleyDbQueueTest {
         }
         assertTrue(queue.isEmpty());
     }
+
+    @Test(dependsOnMethods = {"shouldPushAndPoll"})
+    public void shouldCompactObsoleteRecords() {
+        BerkeleyDbQueue<SimplePayload> berkeleyDbQueue = new BerkeleyDbQueue<>(queueDirName, queueName,
+                new BerkeleyDbQueueConfig.Builder()
+                        .batchSize(100)
+                        .logFileMaxBytes(1_000_000L)
+                        .build());
+        queue = berkeleyDbQueue;
+
+        char[] name = new char[1000];
+        Arrays.fill(name, 'x');
+        for (int i = 0; i < 5000; i++) {
+            queue.push(new SimplePayload(new String(name), i, BigInteger.valueOf(i)));
+        }
+        while (!queue.isEmpty()) {
+            queue.poll();
+        }
+
+        DiskUsage beforeCompaction = berkeleyDbQueue.diskUsage();
+        assertTrue(beforeCompaction.getObsoleteBytes() > beforeCompaction.getLiveBytes());
+
+        assertTrue(berkeleyDbQueue.compact() > 0);
+        assertTrue(berkeleyDbQueue.diskUsage().getTotalBytes() < beforeCompaction.getTotalBytes());
+    }
+
+    @Test(dependsOnMethods = {"shouldCompactObsoleteRecords"})
+    public void shouldRestoreSizeWhenMetadataIsMissing() {
+        queue = berkeleyDbQueue();
+        for (int i = 0; i < 10; i++) {
+            queue.push(new SimplePayload("test" + i, i, BigInteger.valueOf(i)));
+        }
+        queue.close();
+
+        Environment environment = new Environment(queueDir, new EnvironmentConfig());
+        environment.removeDatabase(null, queueName + ".metadata");
+        environment.close();
+
+        queue = berkeleyDbQueue();
+        assertEquals(queue.size(), 10);
+        assertEquals(queue.poll().getNumber(), Integer.valueOf(0));
+        queue.push(new SimplePayload("test10", 10, BigInteger.TEN));
+        assertEquals(queue.size(), 10);
+
+        queue.close();
+        queue = berkeleyDbQueue();
+        assertEquals(queue.size(), 10);
+        while (!queue.isEmpty()) {
+            queue.poll();
+        }
+    }
+
+    @Test(dependsOnMethods = {"shouldRestoreSizeWhenMetadataIsMissing"})
+    public void shouldPushAndPollRaw() {
+        queue = berkeleyDbQueue();
+
+        SimplePayload payload = new SimplePayload("testRaw", 236, BigInteger.valueOf(236));
+        byte[] data = payload.serialize();
+
+        queue.pushRaw(data);
+        queue.push(payload);
+        assertEquals(((BerkeleyDbQueue<SimplePayload>) queue).sizeInBytes(), 2L * data.length);
+
+        assertEquals(queue.poll().getName(), payload.getName());
+        assertEquals(queue.pollRaw(), data);
+        assertNull(queue.pollRaw());
+
+        queue.requeueRaw(data);
+        assertEquals(queue.poll().getNumber(), payload.getNumber());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test(dependsOnMethods = {"shouldPushAndPollRaw"})
+    public void shouldScanWithoutRemoving() {
+        queue = berkeleyDbQueue();
+
+        for (int i = 0; i < 2000; i++) {
+            queue.push(new SimplePayload("test" + i, i, BigInteger.valueOf(i)));
+        }
+        queue.poll();
+
+        int expected = 1;
+        for (SimplePayload payload : queue) {
+            assertEquals(payload.getNumber(), Integer.valueOf(expected++));
+        }
+        assertEquals(expected, 2000);
+        assertEquals(queue.stream().count(), 1999);
+        assertEquals(queue.stream().parallel().mapToLong(SimplePayload::getNumber).sum(), 1999L * 2000 / 2);
+        assertEquals(queue.size(), 1999);
+
+        while (!queue.isEmpty()) {
+            queue.poll();
+        }
+        assertFalse(queue.iterator().hasNext());
+    }
 }
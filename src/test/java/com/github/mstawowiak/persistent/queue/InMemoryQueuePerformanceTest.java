@@ -0,0 +1,108 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+
+public class InMemoryQueuePerformanceTest {
+
+    private static final int NUM_OF_PAYLOADS = 1_000_000;
+    private static final int NUM_OF_PERSISTENT_PAYLOADS = 20_000;
+    private static final int CAPACITY = 1024;
+    private static final int[][] THREADS = {{1, 1}, {4, 4}, {8, 2}};
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("-----------------------------------------------------------");
+        System.out.println("Start in-memory queue performance tests of persistent-queue");
+        System.out.println("-----------------------------------------------------------");
+
+        for (int[] threads : THREADS) {
+            final int producers = threads[0];
+            final int consumers = threads[1];
+
+            InMemoryQueue<SimplePayload> inMemoryQueue = new InMemoryQueue<>("test", CAPACITY);
+            measure("InMemoryQueue", NUM_OF_PAYLOADS, producers, consumers, inMemoryQueue::put,
+                    () -> inMemoryQueue.poll(10, TimeUnit.MILLISECONDS));
+
+            BlockingQueue<SimplePayload> arrayQueue = new ArrayBlockingQueue<>(CAPACITY);
+            measure("ArrayBlockingQueue", NUM_OF_PAYLOADS, producers, consumers, arrayQueue::put,
+                    () -> arrayQueue.poll(10, TimeUnit.MILLISECONDS));
+
+            measureBerkeleyDb(producers, consumers);
+        }
+    }
+
+    private static void measureBerkeleyDb(int producers, int consumers) throws Exception {
+        final String queueName = InMemoryQueuePerformanceTest.class.getSimpleName();
+        final String queueDirName = "build/" + queueName;
+        final File queueDir = new File(queueDirName);
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+
+        BerkeleyDbQueue<SimplePayload> queue = new BerkeleyDbQueue<>(queueDirName, queueName,
+                new BerkeleyDbQueueConfig.Builder().capacity(CAPACITY).build());
+        measure("BerkeleyDbQueue", NUM_OF_PERSISTENT_PAYLOADS, producers, consumers, queue::put,
+                () -> queue.poll(10, TimeUnit.MILLISECONDS));
+        queue.close();
+        FileUtils.forceDelete(queueDir);
+    }
+
+    private static void measure(String name, int numOfPayloads, int producers, int consumers, PutOperation put, PollOperation poll)
+            throws InterruptedException, IOException {
+        final int payloadsPerProducer = numOfPayloads / producers;
+        final int total = payloadsPerProducer * producers;
+        final SimplePayload payload = new SimplePayload("test", 1, BigInteger.ONE);
+        final AtomicInteger consumed = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(producers + consumers);
+
+        long start = System.nanoTime();
+        for (int p = 0; p < producers; p++) {
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < payloadsPerProducer; i++) {
+                        put.put(payload);
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }).start();
+        }
+        for (int c = 0; c < consumers; c++) {
+            new Thread(() -> {
+                try {
+                    while (consumed.get() < total) {
+                        if (poll.poll() != null) {
+                            consumed.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        System.out.println(String.format("%s, %d producers, %d consumers: %,d payloads in %d ms, %,d payloads/s",
+                name, producers, consumers, total, durationMillis, total * 1000L / Math.max(1, durationMillis)));
+    }
+
+    private interface PutOperation {
+        void put(SimplePayload payload) throws InterruptedException;
+    }
+
+    private interface PollOperation {
+        SimplePayload poll() throws InterruptedException;
+    }
+
+}
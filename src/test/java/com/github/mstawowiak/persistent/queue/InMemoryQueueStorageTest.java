@@ -0,0 +1,19 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.kit.QueueStorageConformanceTest;
+
+/**
+ * Tests for {@link InMemoryQueueStorage}
+ */
+public class InMemoryQueueStorageTest extends QueueStorageConformanceTest {
+
+    @Override
+    protected QueueStorage openStorage(String storageName) {
+        return new InMemoryQueueStorage();
+    }
+
+    @Override
+    protected boolean isDurable() {
+        return false;
+    }
+}
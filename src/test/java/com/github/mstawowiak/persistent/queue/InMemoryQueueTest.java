@@ -0,0 +1,246 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import com.github.mstawowiak.persistent.queue.exception.EnqueueException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link InMemoryQueue}
+ */
+public class InMemoryQueueTest {
+
+    private static SimplePayload payload(int number) {
+        return new SimplePayload("test" + number, number, BigInteger.valueOf(number));
+    }
+
+    @Test
+    public void shouldPushAndPollInOrder() {
+        Queue<SimplePayload> queue = new InMemoryQueue<>("test", 8);
+
+        assertNull(queue.peek());
+        assertNull(queue.poll());
+        for (int i = 0; i < 20; i++) {
+            queue.push(payload(i));
+            queue.push(payload(i + 100));
+            assertEquals(queue.size(), 2);
+            assertEquals(queue.peek().getNumber(), Integer.valueOf(i));
+            assertEquals(queue.poll().getNumber(), Integer.valueOf(i));
+            assertEquals(queue.poll().getNumber(), Integer.valueOf(i + 100));
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void shouldRoundCapacityUpToPowerOfTwo() {
+        assertEquals(new InMemoryQueue<SimplePayload>("test", 1).getCapacity(), 2);
+        assertEquals(new InMemoryQueue<SimplePayload>("test", 5).getCapacity(), 8);
+        assertEquals(new InMemoryQueue<SimplePayload>("test", 8).getCapacity(), 8);
+    }
+
+    @Test
+    public void shouldRejectPayloadsWhenFull() throws InterruptedException {
+        Queue<SimplePayload> queue = new InMemoryQueue<>("test", 2);
+
+        assertTrue(queue.offer(payload(1)));
+        assertTrue(queue.offer(payload(2)));
+        assertFalse(queue.offer(payload(3)));
+        assertFalse(queue.offer(payload(3), 10, TimeUnit.MILLISECONDS));
+        assertEquals(queue.size(), 2);
+    }
+
+    @Test(expectedExceptions = EnqueueException.class)
+    public void shouldThrowExceptionWhenPushingToFullQueue() {
+        Queue<SimplePayload> queue = new InMemoryQueue<>("test", 2);
+
+        queue.push(payload(1));
+        queue.push(payload(2));
+        queue.push(payload(3));
+    }
+
+    @Test
+    public void shouldRequeueBeyondCapacity() {
+        Queue<SimplePayload> queue = new InMemoryQueue<>("test", 2);
+        queue.push(payload(1));
+        queue.push(payload(2));
+
+        queue.requeue(payload(3));
+
+        assertEquals(queue.size(), 3);
+        assertEquals(queue.stream().map(SimplePayload::getNumber).collect(Collectors.toList()),
+                Arrays.asList(1, 2, 3));
+        assertEquals(queue.poll().getNumber(), Integer.valueOf(1));
+        assertEquals(queue.poll().getNumber(), Integer.valueOf(2));
+        assertEquals(queue.poll().getNumber(), Integer.valueOf(3));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void shouldNotStarveRequeuedPayloadWhileProducersKeepQueueFull() {
+        Queue<SimplePayload> queue = new InMemoryQueue<>("test", 2);
+        queue.push(payload(1));
+        queue.push(payload(2));
+        queue.requeue(payload(3));
+
+        List<Integer> polled = new ArrayList<>();
+        for (int i = 4; i < 10; i++) {
+            polled.add(queue.poll().getNumber());
+            queue.offer(payload(i));
+        }
+
+        assertEquals(polled.subList(0, 3), Arrays.asList(1, 2, 3));
+    }
+
+    @Test
+    public void shouldKeepOrderOfPayloadsRequeuedBeyondCapacity() {
+        Queue<SimplePayload> queue = new InMemoryQueue<>("test", 4);
+        for (int i = 1; i <= 4; i++) {
+            queue.push(payload(i));
+        }
+        queue.requeue(payload(5));
+        queue.requeue(payload(6));
+
+        List<Integer> polled = new ArrayList<>();
+        for (int i = 7; i < 15; i++) {
+            polled.add(queue.poll().getNumber());
+            queue.offer(payload(i));
+        }
+        assertEquals(polled.subList(0, 6), Arrays.asList(1, 2, 3, 4, 5, 6));
+    }
+
+    @Test
+    public void shouldConvertBetweenRawAndDeserializedPayloads() {
+        Queue<SimplePayload> queue = new InMemoryQueue<>("test");
+
+        queue.pushRaw(payload(1).serialize());
+        queue.push(payload(2));
+
+        assertEquals(queue.poll().getNumber(), Integer.valueOf(1));
+        assertEquals(Payload.<SimplePayload>deserialize(queue.pollRaw()).getNumber(), Integer.valueOf(2));
+    }
+
+    @Test
+    public void shouldWaitForPayload() throws Exception {
+        Queue<SimplePayload> queue = new InMemoryQueue<>("test");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<SimplePayload> taken = executor.submit(queue::take);
+            Thread.sleep(50);
+            assertFalse(taken.isDone());
+
+            queue.push(payload(1));
+
+            assertEquals(taken.get(1, TimeUnit.SECONDS).getNumber(), Integer.valueOf(1));
+            assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldWaitForSpace() throws Exception {
+        Queue<SimplePayload> queue = new InMemoryQueue<>("test", 2);
+        queue.push(payload(1));
+        queue.push(payload(2));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> put = executor.submit(() -> {
+                queue.put(payload(3));
+                return null;
+            });
+            Thread.sleep(50);
+            assertFalse(put.isDone());
+
+            queue.poll();
+
+            put.get(1, TimeUnit.SECONDS);
+            assertEquals(queue.size(), 2);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expectedExceptions = NoSuchElementException.class)
+    public void shouldRemoveThrowExceptionForEmptyQueue() {
+        new InMemoryQueue<SimplePayload>("test").remove();
+    }
+
+    @Test
+    public void shouldDeliverEveryPayloadOnceWithManyProducersAndConsumers() throws Exception {
+        final int producers = 4;
+        final int consumers = 4;
+        final int payloadsPerProducer = 50_000;
+        Queue<SimplePayload> queue = new InMemoryQueue<>("test", 64);
+        ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+        CountDownLatch produced = new CountDownLatch(producers);
+        try {
+            for (int p = 0; p < producers; p++) {
+                final int first = p * payloadsPerProducer;
+                executor.execute(() -> {
+                    try {
+                        for (int i = first; i < first + payloadsPerProducer; i++) {
+                            queue.put(payload(i));
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    produced.countDown();
+                });
+            }
+            List<Future<BitSet>> consumed = new ArrayList<>();
+            for (int c = 0; c < consumers; c++) {
+                consumed.add(executor.submit(() -> {
+                    BitSet numbers = new BitSet();
+                    SimplePayload payload;
+                    while ((payload = queue.poll(100, TimeUnit.MILLISECONDS)) != null || produced.getCount() > 0) {
+                        if (payload != null) {
+                            assertFalse(numbers.get(payload.getNumber()));
+                            numbers.set(payload.getNumber());
+                        }
+                    }
+                    return numbers;
+                }));
+            }
+
+            BitSet all = new BitSet();
+            int total = 0;
+            for (Future<BitSet> numbers : consumed) {
+                BitSet consumerNumbers = numbers.get(30, TimeUnit.SECONDS);
+                total += consumerNumbers.cardinality();
+                all.or(consumerNumbers);
+            }
+            assertEquals(total, producers * payloadsPerProducer);
+            assertEquals(all.cardinality(), producers * payloadsPerProducer);
+            assertTrue(queue.isEmpty());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldOpenQueueOfConfiguredBackend() {
+        BerkeleyDbQueueConfig config = new BerkeleyDbQueueConfig.Builder().capacity(100).build();
+
+        Queue<SimplePayload> queue = QueueBackend.valueOf("IN_MEMORY").open("unused", "test", config);
+
+        assertTrue(queue instanceof InMemoryQueue);
+        assertEquals(((InMemoryQueue<SimplePayload>) queue).getCapacity(), 128);
+        assertEquals(queue.name(), "test");
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.mstawowiak.persistent.queue;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests for {@link KeyCodec}
+ */
+public class KeyCodecTest {
+
+    private static final long[] EDGE_VALUES = {0, 1, -1, 127, 128, -128, -129, 255, 256, 32767, 32768,
+            Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE - 1};
+
+    @Test
+    public void shouldEncodeKeysAsBigInteger() {
+        final byte[] buffer = new byte[KeyCodec.MAX_KEY_LENGTH];
+        for (long value : values()) {
+            final byte[] expected = BigInteger.valueOf(value).toByteArray();
+
+            assertEquals(KeyCodec.toKey(value), expected, "Key " + value);
+            assertEquals(Arrays.copyOf(buffer, KeyCodec.writeKey(value, buffer)), expected, "Key " + value);
+            assertEquals(KeyCodec.fromKey(expected), value);
+        }
+    }
+
+    @Test
+    public void shouldCompareKeysAsBigInteger() {
+        final long[] values = values();
+        for (int i = 1; i < values.length; i++) {
+            final byte[] key1 = BigInteger.valueOf(values[i - 1]).toByteArray();
+            final byte[] key2 = BigInteger.valueOf(values[i]).toByteArray();
+
+            assertEquals(Integer.signum(KeyCodec.compare(key1, key2)),
+                    new BigInteger(key1).compareTo(new BigInteger(key2)));
+        }
+    }
+
+    private static long[] values() {
+        final Random random = new Random(42);
+        final long[] values = Arrays.copyOf(EDGE_VALUES, EDGE_VALUES.length + 1000);
+        for (int i = EDGE_VALUES.length; i < values.length; i++) {
+            values[i] = random.nextLong() >> random.nextInt(Long.SIZE);
+        }
+        return values;
+    }
+}
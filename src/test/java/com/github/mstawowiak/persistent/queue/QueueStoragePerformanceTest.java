@@ -0,0 +1,46 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.kit.QueueStorageWorkload;
+import java.io.File;
+import java.util.function.Supplier;
+import org.apache.commons.io.FileUtils;
+
+public class QueueStoragePerformanceTest {
+
+    private static final int NUM_OF_RECORDS = 100_000;
+    private static final int[] RECORD_SIZES = {100, 1000, 10_000};
+    private static final int[] SYNC_INTERVALS = {10, 1000};
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("------------------------------------------------------------");
+        System.out.println("Start queue storage performance tests of persistent-queue");
+        System.out.println("------------------------------------------------------------");
+
+        final String storageName = QueueStoragePerformanceTest.class.getSimpleName();
+        final String storageDirName = "build/" + storageName;
+        final File storageDir = new File(storageDirName);
+        if (storageDir.exists()) {
+            FileUtils.forceDelete(storageDir);
+        }
+
+        for (int recordSize : RECORD_SIZES) {
+            for (int syncInterval : SYNC_INTERVALS) {
+                measure("InMemoryQueueStorage", InMemoryQueueStorage::new, recordSize, syncInterval);
+                measure("BerkeleyDbQueueStorage", () -> new BerkeleyDbQueueStorage(storageDirName, storageName),
+                        recordSize, syncInterval);
+            }
+        }
+        FileUtils.forceDelete(storageDir);
+    }
+
+    private static void measure(String name, Supplier<QueueStorage> storageSupplier, int recordSize,
+            int syncInterval) {
+        try (QueueStorage storage = storageSupplier.get()) {
+            QueueStorageWorkload.Result result = QueueStorageWorkload.run(storage, NUM_OF_RECORDS, recordSize,
+                    syncInterval);
+            System.out.println(String.format("%s, %d B records, sync every %d: %s",
+                    name, recordSize, syncInterval, result));
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link RecordFormat}
+ */
+public class RecordFormatTest {
+
+    private final byte[] payload = new SimplePayload("test", 1, BigInteger.ONE).serialize();
+
+    @Test
+    public void shouldReadRecordWithEnqueueTime() {
+        byte[] record = RecordFormat.toRecord(payload, 1000, RecordFormat.NO_EXPIRY);
+
+        assertEquals(RecordFormat.payloadOf(record), payload);
+        assertEquals(RecordFormat.payloadSize(record), payload.length);
+        assertEquals(RecordFormat.enqueuedAt(record, record.length), 1000);
+        assertEquals(RecordFormat.enqueuedAt(Arrays.copyOf(record, RecordFormat.MAX_HEADER_SIZE),
+                RecordFormat.MAX_HEADER_SIZE), 1000);
+        assertEquals(RecordFormat.expireAt(record), RecordFormat.NO_EXPIRY);
+    }
+
+    @Test
+    public void shouldReadRecordWithEnqueueAndExpiryTime() {
+        byte[] record = RecordFormat.toRecord(payload, 1000, 2000);
+
+        assertEquals(RecordFormat.payloadOf(record), payload);
+        assertEquals(RecordFormat.payloadSize(record), payload.length);
+        assertEquals(RecordFormat.enqueuedAt(record, record.length), 1000);
+        assertEquals(RecordFormat.expireAt(record), 2000);
+        assertFalse(RecordFormat.isExpired(record, 1999));
+        assertTrue(RecordFormat.isExpired(record, 2000));
+    }
+
+    @Test
+    public void shouldSplitRecordIntoHeaderAndPayload() {
+        byte[] header = RecordFormat.header(1000, 2000);
+        byte[] record = RecordFormat.toRecord(header, payload);
+
+        assertEquals(record, RecordFormat.toRecord(payload, 1000, 2000));
+        assertEquals(RecordFormat.headerOf(record), header);
+        assertEquals(RecordFormat.toBlobReference(header, payload.length, 7),
+                RecordFormat.toBlobReference(record, 7));
+    }
+
+    @Test
+    public void shouldConvertHeaderOfRecordWithoutEnqueueTime() {
+        byte[] header = RecordFormat.headerOf(payload);
+        byte[] record = RecordFormat.toRecord(header, payload);
+
+        assertEquals(RecordFormat.enqueuedAt(record, record.length), RecordFormat.UNKNOWN_ENQUEUE_TIME);
+        assertEquals(RecordFormat.expireAt(record), RecordFormat.NO_EXPIRY);
+        assertTrue(RecordFormat.isBlobReference(RecordFormat.toBlobReference(header, payload.length, 7)));
+    }
+
+    @Test
+    public void shouldReadRecordOfSerializedPayloadOnly() {
+        assertEquals(RecordFormat.payloadOf(payload), payload);
+        assertEquals(RecordFormat.payloadSize(payload), payload.length);
+        assertEquals(RecordFormat.enqueuedAt(payload, payload.length), RecordFormat.UNKNOWN_ENQUEUE_TIME);
+        assertEquals(RecordFormat.expireAt(payload), RecordFormat.NO_EXPIRY);
+    }
+
+    @Test
+    public void shouldReadRecordWithExpiryTimeOnly() {
+        byte[] record = ByteBuffer.allocate(2 + Long.BYTES + payload.length)
+                .put((byte) 0xE1)
+                .put((byte) 1)
+                .putLong(2000)
+                .put(payload)
+                .array();
+
+        assertEquals(RecordFormat.payloadOf(record), payload);
+        assertEquals(RecordFormat.payloadSize(record), payload.length);
+        assertEquals(RecordFormat.enqueuedAt(record, record.length), RecordFormat.UNKNOWN_ENQUEUE_TIME);
+        assertEquals(RecordFormat.expireAt(record), 2000);
+    }
+
+    @Test
+    public void shouldReplacePayloadWithBlobReference() {
+        byte[] record = RecordFormat.toRecord(payload, 1000, 2000);
+        byte[] reference = RecordFormat.toBlobReference(record, 42);
+
+        assertTrue(RecordFormat.isBlobReference(reference));
+        assertFalse(RecordFormat.isBlobReference(record));
+        assertEquals(RecordFormat.blobId(reference), 42);
+        assertEquals(RecordFormat.payloadSize(reference), payload.length);
+        assertEquals(RecordFormat.enqueuedAt(reference, reference.length), 1000);
+        assertEquals(RecordFormat.expireAt(reference), 2000);
+        assertEquals(RecordFormat.withPayload(reference, payload), record);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void shouldNotReturnPayloadOfBlobReference() {
+        RecordFormat.payloadOf(RecordFormat.toBlobReference(RecordFormat.toRecord(payload, 1000,
+                RecordFormat.NO_EXPIRY), 42));
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.mstawowiak.persistent.queue;
+
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import com.github.mstawowiak.persistent.queue.exception.EnqueueException;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link StorageQueue}
+ */
+public class StorageQueueTest {
+
+    private static final String queueName = StorageQueueTest.class.getSimpleName();
+    private static final String queueDirName = "build/" + queueName;
+    private static final File queueDir = new File(queueDirName);
+
+    private static SimplePayload payload(int number) {
+        return new SimplePayload("test" + number, number, BigInteger.valueOf(number));
+    }
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDeleteOnExit(queueDir);
+        }
+    }
+
+    @Test
+    public void shouldPushAndPollInOrder() {
+        Queue<SimplePayload> queue = new StorageQueue<>("test", new InMemoryQueueStorage());
+
+        assertNull(queue.peek());
+        assertNull(queue.poll());
+        for (int i = 0; i < 10; i++) {
+            queue.push(payload(i));
+        }
+        assertEquals(queue.size(), 10);
+        List<Integer> iterated = new ArrayList<>();
+        queue.forEach(payload -> iterated.add(payload.getNumber()));
+        assertEquals(iterated.size(), 10);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(queue.peek().getNumber(), Integer.valueOf(i));
+            assertEquals(queue.poll().getNumber(), Integer.valueOf(i));
+        }
+        assertTrue(queue.isEmpty());
+        queue.close();
+    }
+
+    @Test
+    public void shouldRejectPayloadsWhenFullAndRequeueBeyondCapacity() throws InterruptedException {
+        Queue<SimplePayload> queue = new StorageQueue<>("test", new InMemoryQueueStorage(),
+                new BerkeleyDbQueueConfig.Builder().capacity(2).build());
+
+        assertTrue(queue.offer(payload(1)));
+        assertTrue(queue.offer(payload(2)));
+        assertFalse(queue.offer(payload(3)));
+        assertFalse(queue.offer(payload(3), 10, TimeUnit.MILLISECONDS));
+
+        queue.requeue(payload(3));
+        assertEquals(queue.size(), 3);
+        assertEquals(queue.poll().getNumber(), Integer.valueOf(1));
+        queue.close();
+    }
+
+    @Test(expectedExceptions = EnqueueException.class)
+    public void shouldThrowExceptionWhenPushingToFullQueue() {
+        Queue<SimplePayload> queue = new StorageQueue<>("test", new InMemoryQueueStorage(),
+                new BerkeleyDbQueueConfig.Builder().capacity(1).build());
+
+        queue.push(payload(1));
+        queue.push(payload(2));
+    }
+
+    @Test
+    public void shouldRejectPayloadsOverCapacityInBytes() {
+        Queue<SimplePayload> queue = new StorageQueue<>("test", new InMemoryQueueStorage(),
+                new BerkeleyDbQueueConfig.Builder().capacityBytes(10).build());
+
+        assertTrue(queue.offer(payload(1)));
+        assertFalse(queue.offer(payload(2)));
+        assertEquals(queue.size(), 1);
+
+        queue.poll();
+        assertTrue(queue.offer(payload(2)));
+        queue.close();
+    }
+
+    @Test
+    public void shouldSkipExpiredPayloads() throws InterruptedException {
+        StorageQueue<SimplePayload> queue = new StorageQueue<>("test", new InMemoryQueueStorage(),
+                new BerkeleyDbQueueConfig.Builder().timeToLive(100, TimeUnit.MILLISECONDS).build());
+
+        for (int i = 0; i < 5; i++) {
+            queue.push(payload(i));
+        }
+        Thread.sleep(200);
+        queue.push(payload(5));
+
+        assertEquals(queue.stream().count(), 1);
+        assertEquals(queue.peek().getNumber(), Integer.valueOf(5));
+        assertEquals(queue.poll().getNumber(), Integer.valueOf(5));
+        assertNull(queue.poll());
+        assertEquals(queue.getExpiredCount(), 5);
+        assertTrue(queue.isEmpty());
+        queue.close();
+    }
+
+    @Test
+    public void shouldKeepPayloadsAfterReopen() {
+        Queue<SimplePayload> queue = new StorageQueue<>(queueName,
+                new BerkeleyDbQueueStorage(queueDirName, queueName));
+        for (int i = 0; i < 20; i++) {
+            queue.push(payload(i));
+        }
+        for (int i = 0; i < 5; i++) {
+            queue.poll();
+        }
+        queue.close();
+
+        queue = new StorageQueue<>(queueName, new BerkeleyDbQueueStorage(queueDirName, queueName));
+        assertEquals(queue.size(), 15);
+        queue.push(payload(20));
+        for (int i = 5; i <= 20; i++) {
+            assertEquals(queue.poll().getNumber(), Integer.valueOf(i));
+        }
+        assertTrue(queue.isEmpty());
+        queue.close();
+    }
+
+    @Test
+    public void shouldHandOverPayloadsBetweenThreads() throws Exception {
+        Queue<SimplePayload> queue = new StorageQueue<>("test", new InMemoryQueueStorage(),
+                new BerkeleyDbQueueConfig.Builder().capacity(16).build());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicInteger consumed = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < 2; p++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    queue.put(payload(i));
+                }
+                return null;
+            }));
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    queue.take();
+                    consumed.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        assertEquals(consumed.get(), 2000);
+        assertTrue(queue.isEmpty());
+        queue.close();
+    }
+}
@@ -1,14 +1,22 @@
 package com.github.mstawowiak.persistent.queue.consumer;
 
 import com.github.mstawowiak.persistent.queue.BerkeleyDbQueue;
+import com.github.mstawowiak.persistent.queue.InMemoryQueue;
 import com.github.mstawowiak.persistent.queue.Queue;
 import com.github.mstawowiak.persistent.queue.data.DoNothingTestPayloadConsumer;
 import com.github.mstawowiak.persistent.queue.data.RandomErrorTestPayloadConsumer;
 import com.github.mstawowiak.persistent.queue.data.SimplePayload;
 import com.github.mstawowiak.persistent.queue.data.TestPayload;
+import com.github.mstawowiak.persistent.queue.strategy.IdleStrategyFactory;
+import com.github.mstawowiak.persistent.queue.strategy.WaitStrategyFactory;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.io.FileUtils;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
@@ -67,6 +75,98 @@ public class BlockingQueueUnloaderTest {
         shouldLoadAndUnloadQueue(queue, unloader);
     }
 
+    @Test
+    public void shouldUnloadAllPayloadsFromInMemoryQueue() throws InterruptedException {
+        Queue<TestPayload> queue = new InMemoryQueue<>(queueName);
+
+        QueueUnloader unloader = new BlockingQueueUnloader<>(queue,
+                new QueueUnloaderConfig.Builder<TestPayload>()
+                        .consumer(new RandomErrorTestPayloadConsumer(15))
+                        .build());
+
+        shouldLoadAndUnloadQueue(queue, unloader);
+    }
+
+    @Test
+    public void shouldUnloadAllPayloadsWithBackoffParkIdleStrategy() throws InterruptedException {
+        Queue<TestPayload> queue = berkeleyDbQueue();
+
+        QueueUnloader unloader = new BlockingQueueUnloader<>(queue,
+                new QueueUnloaderConfig.Builder<TestPayload>()
+                        .consumer(new DoNothingTestPayloadConsumer())
+                        .idleStrategy(IdleStrategyFactory.backoffPark(100, 10, 1, 10, TimeUnit.MILLISECONDS))
+                        .build());
+
+        shouldLoadAndUnloadQueue(queue, unloader);
+    }
+
+    @Test
+    public void shouldUnloadAllPayloadsWithRawConsumer() throws InterruptedException {
+        Queue<TestPayload> queue = berkeleyDbQueue();
+        AtomicLong consumedBytes = new AtomicLong();
+
+        QueueUnloader unloader = new BlockingQueueUnloader<>(queue,
+                new QueueUnloaderConfig.Builder<TestPayload>()
+                        .rawConsumer(data -> consumedBytes.addAndGet(data.length))
+                        .build());
+
+        long expectedBytes = 0;
+        for (int i = 0; i < 100; i++) {
+            expectedBytes += new SimplePayload("test" + i, i, BigInteger.valueOf(i)).serialize().length;
+        }
+
+        shouldLoadAndUnloadQueue(queue, unloader);
+        assertEquals(consumedBytes.get(), expectedBytes);
+    }
+
+    @Test
+    public void shouldContinueUnloadingWhenConsumerHangs() throws InterruptedException {
+        Queue<TestPayload> queue = berkeleyDbQueue();
+        CountDownLatch hangRelease = new CountDownLatch(1);
+        AtomicBoolean hung = new AtomicBoolean();
+        AtomicInteger consumed = new AtomicInteger();
+
+        BlockingQueueUnloader<TestPayload> unloader = new BlockingQueueUnloader<>(queue,
+                new QueueUnloaderConfig.Builder<TestPayload>()
+                        .processingTimeout(100, TimeUnit.MILLISECONDS)
+                        .waitStrategy(WaitStrategyFactory.fixedWait(10, TimeUnit.MILLISECONDS))
+                        .consumer(payload -> {
+                            if (hung.compareAndSet(false, true)) {
+                                awaitIgnoringInterrupts(hangRelease);
+                            } else {
+                                consumed.incrementAndGet();
+                            }
+                        })
+                        .build());
+
+        for (int i = 0; i < 100; i++) {
+            queue.push(new SimplePayload("test" + i, i, BigInteger.valueOf(i)));
+        }
+        unloader.start();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (consumed.get() < 100 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(consumed.get(), 100);
+        assertEquals(queue.size(), 0);
+        assertEquals(unloader.getTimeoutCount(), 1);
+
+        hangRelease.countDown();
+        unloader.stop();
+    }
+
+    private static void awaitIgnoringInterrupts(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException ex) {
+                // a hung consumer does not respond to interrupts
+            }
+        }
+    }
+
     private void shouldLoadAndUnloadQueue(Queue<TestPayload> queue, QueueUnloader unloader) throws InterruptedException {
         assertEquals(queue.size(), 0);
         for (int i = 0; i < 100; i++) {
@@ -0,0 +1,74 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests for {@link ConcurrencyController}
+ */
+public class ConcurrencyControllerTest {
+
+    private static final long LATENCY = 1_000_000L;
+
+    @Test
+    public void shouldStartWithMinLimit() {
+        ConcurrencyController controller = new ConcurrencyController(2, 10);
+
+        assertEquals(controller.getLimit(), 2);
+    }
+
+    @Test
+    public void shouldIncreaseAdditivelyWhenBacklogGrows() {
+        ConcurrencyController controller = new ConcurrencyController(2, 10);
+
+        assertEquals(controller.update(1000, 2, 100, 100 * LATENCY), 3);
+        assertEquals(controller.update(1000, 3, 100, 100 * LATENCY), 4);
+        assertEquals(controller.update(1000, 4, 100, 100 * LATENCY), 5);
+    }
+
+    @Test
+    public void shouldNotExceedMaxLimit() {
+        ConcurrencyController controller = new ConcurrencyController(1, 3);
+
+        for (int i = 0; i < 10; i++) {
+            controller.update(1000, controller.getLimit(), 10, 10 * LATENCY);
+        }
+
+        assertEquals(controller.getLimit(), 3);
+    }
+
+    @Test
+    public void shouldNotIncreaseWhenBacklogDrainedWithinInterval() {
+        ConcurrencyController controller = new ConcurrencyController(2, 10);
+
+        assertEquals(controller.update(50, 2, 100, 100 * LATENCY), 2);
+    }
+
+    @Test
+    public void shouldBackOffMultiplicativelyWhenLatencyRises() {
+        ConcurrencyController controller = new ConcurrencyController(1, 20);
+        for (int i = 0; i < 8; i++) {
+            controller.update(1000, controller.getLimit(), 100, 100 * LATENCY);
+        }
+        assertEquals(controller.getLimit(), 9);
+
+        assertEquals(controller.update(1000, 9, 100, 100 * 3 * LATENCY), 6);
+        assertEquals(controller.update(1000, 6, 100, 100 * 3 * LATENCY), 4);
+    }
+
+    @Test
+    public void shouldShrinkWhenQueueIsEmpty() {
+        ConcurrencyController controller = new ConcurrencyController(1, 10);
+        for (int i = 0; i < 4; i++) {
+            controller.update(1000, controller.getLimit(), 100, 100 * LATENCY);
+        }
+        assertEquals(controller.getLimit(), 5);
+
+        assertEquals(controller.update(0, 0, 0, 0), 4);
+        assertEquals(controller.update(0, 0, 0, 0), 3);
+        assertEquals(controller.update(0, 0, 0, 0), 2);
+        assertEquals(controller.update(0, 0, 0, 0), 1);
+        assertEquals(controller.update(0, 0, 0, 0), 1);
+    }
+}
@@ -0,0 +1,222 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+import com.github.mstawowiak.persistent.queue.BerkeleyDbQueue;
+import com.github.mstawowiak.persistent.queue.Queue;
+import com.github.mstawowiak.persistent.queue.data.DoNothingTestPayloadConsumer;
+import com.github.mstawowiak.persistent.queue.data.RandomErrorTestPayloadConsumer;
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import com.github.mstawowiak.persistent.queue.data.TestPayload;
+import com.github.mstawowiak.persistent.queue.strategy.WaitStrategyFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.math.BigInteger;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link ConcurrentQueueUnloader}
+ */
+public class ConcurrentQueueUnloaderTest {
+
+    private static final String queueName = ConcurrentQueueUnloaderTest.class.getSimpleName();
+    private static final String queueDirName = "build/" + queueName;
+    private static final File queueDir = new File(queueDirName);
+
+    private Queue<TestPayload> berkeleyDbQueue() {
+        return new BerkeleyDbQueue<>(queueDirName, queueName);
+    }
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDeleteOnExit(queueDir);
+        }
+    }
+
+    @Test
+    public void shouldUnloadAllPayloads() throws InterruptedException {
+        Queue<TestPayload> queue = berkeleyDbQueue();
+
+        QueueUnloader unloader = new ConcurrentQueueUnloader<>(queue,
+                new QueueUnloaderConfig.Builder<TestPayload>()
+                        .numOfThreads(4)
+                        .consumer(new DoNothingTestPayloadConsumer())
+                        .build());
+
+        shouldLoadAndUnloadQueue(queue, unloader);
+    }
+
+    @Test
+    public void shouldUnloadAllPayloadsDespiteRandomErrors() throws InterruptedException {
+        Queue<TestPayload> queue = berkeleyDbQueue();
+
+        QueueUnloader unloader = new ConcurrentQueueUnloader<>(queue,
+                new QueueUnloaderConfig.Builder<TestPayload>()
+                        .numOfThreads(4)
+                        .consumer(new RandomErrorTestPayloadConsumer(15))
+                        .build());
+
+        shouldLoadAndUnloadQueue(queue, unloader);
+    }
+
+    @Test
+    public void shouldScaleUpConcurrencyForBacklog() throws InterruptedException {
+        Queue<TestPayload> queue = berkeleyDbQueue();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicInteger inFlight = new AtomicInteger();
+
+        ConcurrentQueueUnloader<TestPayload> unloader = new ConcurrentQueueUnloader<>(queue,
+                new QueueUnloaderConfig.Builder<TestPayload>()
+                        .autoscaling(1, 8)
+                        .autoscalingInterval(50, TimeUnit.MILLISECONDS)
+                        .consumer(payload -> {
+                            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                            sleep(5);
+                            inFlight.decrementAndGet();
+                        })
+                        .build());
+        assertEquals(unloader.getConcurrency(), 1);
+
+        shouldLoadAndUnloadQueue(queue, unloader);
+
+        assertTrue(maxInFlight.get() > 1);
+    }
+
+    @Test
+    public void shouldReleaseThreadOfTimedOutConsumer() throws InterruptedException {
+        Queue<TestPayload> queue = berkeleyDbQueue();
+        AtomicBoolean hung = new AtomicBoolean();
+
+        ConcurrentQueueUnloader<TestPayload> unloader = new ConcurrentQueueUnloader<>(queue,
+                new QueueUnloaderConfig.Builder<TestPayload>()
+                        .numOfThreads(1)
+                        .processingTimeout(100, TimeUnit.MILLISECONDS)
+                        .waitStrategy(WaitStrategyFactory.fixedWait(10, TimeUnit.MILLISECONDS))
+                        .consumer(payload -> {
+                            if (hung.compareAndSet(false, true)) {
+                                sleep(TimeUnit.MINUTES.toMillis(1));
+                            }
+                        })
+                        .build());
+
+        shouldLoadAndUnloadQueue(queue, unloader);
+
+        assertEquals(unloader.getTimeoutCount(), 1);
+    }
+
+    @Test
+    public void shouldDeserializePayloadsOnConsumerThreads() throws InterruptedException {
+        Queue<TestPayload> queue = berkeleyDbQueue();
+        Set<String> consumerThreads = ConcurrentHashMap.newKeySet();
+        ThreadRecordingPayload.deserializingThreads.clear();
+
+        QueueUnloader unloader = new ConcurrentQueueUnloader<>(queue,
+                new QueueUnloaderConfig.Builder<TestPayload>()
+                        .numOfThreads(4)
+                        .consumer(payload -> consumerThreads.add(Thread.currentThread().getName()))
+                        .build());
+        for (int i = 0; i < 100; i++) {
+            queue.push(new ThreadRecordingPayload(i));
+        }
+
+        unloader.start();
+        while (!queue.isEmpty()) {
+            Thread.sleep(100);
+        }
+        unloader.stop();
+
+        assertFalse(ThreadRecordingPayload.deserializingThreads.isEmpty());
+        assertTrue(consumerThreads.containsAll(ThreadRecordingPayload.deserializingThreads),
+                ThreadRecordingPayload.deserializingThreads + " not in " + consumerThreads);
+    }
+
+    @Test
+    public void shouldSkipPayloadsWhichCannotBeDeserialized() throws InterruptedException {
+        Queue<TestPayload> queue = berkeleyDbQueue();
+        AtomicInteger consumed = new AtomicInteger();
+
+        QueueUnloader unloader = new ConcurrentQueueUnloader<>(queue,
+                new QueueUnloaderConfig.Builder<TestPayload>()
+                        .numOfThreads(4)
+                        .consumer(payload -> consumed.incrementAndGet())
+                        .build());
+        for (int i = 0; i < 100; i++) {
+            if (i % 10 == 0) {
+                queue.pushRaw(new byte[] {1, 2, 3});
+            }
+            queue.push(new SimplePayload("test" + i, i, BigInteger.valueOf(i)));
+        }
+
+        unloader.start();
+        while (!queue.isEmpty()) {
+            Thread.sleep(100);
+        }
+        unloader.stop();
+
+        assertEquals(consumed.get(), 100);
+        queue = berkeleyDbQueue();
+        assertEquals(queue.size(), 0);
+        queue.close();
+    }
+
+    private void shouldLoadAndUnloadQueue(Queue<TestPayload> queue, QueueUnloader unloader) throws InterruptedException {
+        assertEquals(queue.size(), 0);
+        for (int i = 0; i < 300; i++) {
+            queue.push(new SimplePayload("test" + i, i, BigInteger.valueOf(i)));
+        }
+        assertEquals(queue.size(), 300);
+
+        unloader.start();
+
+        while (!queue.isEmpty()) {
+            Thread.sleep(100);
+        }
+
+        assertEquals(queue.size(), 0);
+
+        unloader.stop();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class ThreadRecordingPayload extends SimplePayload {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final Set<String> deserializingThreads = ConcurrentHashMap.newKeySet();
+
+        ThreadRecordingPayload(int number) {
+            super("test" + number, number, BigInteger.valueOf(number));
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            deserializingThreads.add(Thread.currentThread().getName());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+import com.github.mstawowiak.persistent.queue.BerkeleyDbQueue;
+import com.github.mstawowiak.persistent.queue.Queue;
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import com.github.mstawowiak.persistent.queue.data.TestPayload;
+import com.github.mstawowiak.persistent.queue.strategy.IdleStrategy;
+import com.github.mstawowiak.persistent.queue.strategy.IdleStrategyFactory;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Measures enqueue-to-consume latency of the unloader for each idle strategy. Payloads are pushed one by one
+ * with a pause, so the dispatcher is idle when each of them arrives.
+ */
+public class IdleStrategyLatencyPerformanceTest {
+
+    private static final int PAYLOADS_COUNT = 20_000;
+    private static final long PAUSE_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    private static final int BATCH_SIZE = 1000;
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        Map<String, IdleStrategy> strategies = new LinkedHashMap<>();
+        strategies.put("blocking", IdleStrategyFactory.blocking());
+        strategies.put("busySpin", IdleStrategyFactory.busySpin());
+        strategies.put("spinThenYield", IdleStrategyFactory.spinThenYield(1000));
+        strategies.put("backoffPark", IdleStrategyFactory.backoffPark(1000, 100, 1, 1000, TimeUnit.MICROSECONDS));
+
+        System.out.println("-----------------------------------------------------------");
+        System.out.println("Start enqueue-to-consume latency tests of persistent-queue");
+        System.out.println(String.format("Payloads count: %,d, Pause: %d us", PAYLOADS_COUNT,
+                TimeUnit.NANOSECONDS.toMicros(PAUSE_NANOS)));
+        System.out.println("-----------------------------------------------------------");
+
+        for (Map.Entry<String, IdleStrategy> strategy : strategies.entrySet()) {
+            long[] latencies = measure(strategy.getKey(), strategy.getValue());
+            Arrays.sort(latencies);
+            System.out.println(String.format("%-15s p50: %6d us, p99: %6d us, p99.9: %6d us, max: %6d us",
+                    strategy.getKey(),
+                    percentile(latencies, 50.0), percentile(latencies, 99.0),
+                    percentile(latencies, 99.9), percentile(latencies, 100.0)));
+        }
+    }
+
+    private static long[] measure(String strategyName, IdleStrategy idleStrategy)
+            throws InterruptedException, IOException {
+        final String queueName = IdleStrategyLatencyPerformanceTest.class.getSimpleName() + "-" + strategyName;
+        final File queueDir = new File("build/" + queueName);
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+
+        Queue<TestPayload> queue = new BerkeleyDbQueue<>(queueDir.getPath(), queueName, BATCH_SIZE);
+        long[] latencies = new long[PAYLOADS_COUNT];
+        CountDownLatch consumed = new CountDownLatch(PAYLOADS_COUNT);
+
+        QueueUnloader unloader = new BlockingQueueUnloader<>(queue,
+                new QueueUnloaderConfig.Builder<TestPayload>()
+                        .idleStrategy(idleStrategy)
+                        .consumer(payload -> {
+                            latencies[payload.getNumber()] = System.nanoTime()
+                                    - ((SimplePayload) payload).getBigNumber().longValue();
+                            consumed.countDown();
+                        })
+                        .build());
+        unloader.start();
+
+        for (int i = 0; i < PAYLOADS_COUNT; i++) {
+            queue.push(new SimplePayload("t", i, BigInteger.valueOf(System.nanoTime())));
+            LockSupport.parkNanos(PAUSE_NANOS);
+        }
+        consumed.await();
+        unloader.stop();
+
+        FileUtils.forceDelete(queueDir);
+        return latencies;
+    }
+
+    private static long percentile(long[] sortedLatencies, double percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedLatencies.length) - 1;
+        return TimeUnit.NANOSECONDS.toMicros(sortedLatencies[Math.max(index, 0)]);
+    }
+
+}
@@ -0,0 +1,196 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+import com.github.mstawowiak.persistent.queue.BerkeleyDbQueue;
+import com.github.mstawowiak.persistent.queue.Queue;
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import com.github.mstawowiak.persistent.queue.data.TestPayload;
+import com.github.mstawowiak.persistent.queue.strategy.WaitStrategyFactory;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link KeyOrderedQueueUnloader}
+ */
+public class KeyOrderedQueueUnloaderTest {
+
+    private static final int NUM_OF_PAYLOADS = 300;
+    private static final int NUM_OF_KEYS = 5;
+
+    private static final String queueName = KeyOrderedQueueUnloaderTest.class.getSimpleName();
+    private static final String queueDirName = "build/" + queueName;
+    private static final File queueDir = new File(queueDirName);
+
+    private Queue<TestPayload> berkeleyDbQueue() {
+        return new BerkeleyDbQueue<>(queueDirName, queueName);
+    }
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDeleteOnExit(queueDir);
+        }
+    }
+
+    @Test
+    public void shouldConsumePayloadsOfKeyInOrder() throws InterruptedException {
+        shouldConsumePayloadsOfKeyInOrder(0);
+    }
+
+    @Test
+    public void shouldConsumePayloadsOfKeyInOrderDespiteRandomErrors() throws InterruptedException {
+        shouldConsumePayloadsOfKeyInOrder(15);
+    }
+
+    @Test
+    public void shouldConsumeDifferentKeysInParallel() throws InterruptedException {
+        Queue<TestPayload> queue = berkeleyDbQueue();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger consumed = new AtomicInteger();
+
+        QueueUnloader unloader = new KeyOrderedQueueUnloader<>(queue,
+                new QueueUnloaderConfig.Builder<TestPayload>()
+                        .numOfThreads(4)
+                        .orderingKey(payload -> payload.getNumber() % NUM_OF_KEYS)
+                        .consumer(payload -> {
+                            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                            sleep(2);
+                            inFlight.decrementAndGet();
+                            consumed.incrementAndGet();
+                        })
+                        .build());
+
+        pushPayloads(queue);
+        unloader.start();
+        awaitConsumed(consumed);
+        assertEquals(queue.size(), 0);
+        unloader.stop();
+
+        assertTrue(maxInFlight.get() > 1);
+    }
+
+    @Test
+    public void shouldRetryTimedOutPayloadInOrderOfKey() throws InterruptedException {
+        Queue<TestPayload> queue = berkeleyDbQueue();
+        Map<Object, List<Integer>> consumedByKey = new ConcurrentHashMap<>();
+        AtomicInteger consumed = new AtomicInteger();
+        AtomicBoolean hung = new AtomicBoolean();
+
+        KeyOrderedQueueUnloader<TestPayload> unloader = new KeyOrderedQueueUnloader<>(queue,
+                new QueueUnloaderConfig.Builder<TestPayload>()
+                        .numOfThreads(2)
+                        .processingTimeout(100, TimeUnit.MILLISECONDS)
+                        .waitStrategy(WaitStrategyFactory.fixedWait(1, TimeUnit.MILLISECONDS))
+                        .orderingKey(payload -> payload.getName())
+                        .consumer(payload -> {
+                            if (hung.compareAndSet(false, true)) {
+                                sleep(TimeUnit.MINUTES.toMillis(1));
+                                return;
+                            }
+                            consumedByKey.computeIfAbsent(payload.getName(), key -> new ArrayList<>())
+                                    .add(payload.getNumber());
+                            consumed.incrementAndGet();
+                        })
+                        .build());
+
+        pushPayloads(queue);
+        unloader.start();
+        awaitConsumed(consumed);
+        unloader.stop();
+
+        assertEquals(unloader.getTimeoutCount(), 1);
+        for (List<Integer> numbers : consumedByKey.values()) {
+            assertEquals(numbers.size(), NUM_OF_PAYLOADS / NUM_OF_KEYS);
+            for (int i = 1; i < numbers.size(); i++) {
+                assertTrue(numbers.get(i - 1) < numbers.get(i), "Out of order: " + numbers);
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenNoOrderingKey() {
+        new KeyOrderedQueueUnloader<>(berkeleyDbQueue(),
+                new QueueUnloaderConfig.Builder<TestPayload>()
+                        .consumer(payload -> { })
+                        .build());
+    }
+
+    private void shouldConsumePayloadsOfKeyInOrder(int errorPercentage) throws InterruptedException {
+        Queue<TestPayload> queue = berkeleyDbQueue();
+        Map<Object, List<Integer>> consumedByKey = new ConcurrentHashMap<>();
+        AtomicInteger consumed = new AtomicInteger();
+
+        QueueUnloader unloader = new KeyOrderedQueueUnloader<>(queue,
+                new QueueUnloaderConfig.Builder<TestPayload>()
+                        .numOfThreads(4)
+                        .waitStrategy(WaitStrategyFactory.fixedWait(1, TimeUnit.MILLISECONDS))
+                        .orderingKey(payload -> payload.getName())
+                        .consumer(payload -> {
+                            if (ThreadLocalRandom.current().nextInt(100) < errorPercentage) {
+                                throw new IllegalStateException("Random error");
+                            }
+                            consumedByKey.computeIfAbsent(payload.getName(), key -> new ArrayList<>())
+                                    .add(payload.getNumber());
+                            consumed.incrementAndGet();
+                        })
+                        .build());
+
+        pushPayloads(queue);
+        unloader.start();
+        awaitConsumed(consumed);
+        unloader.stop();
+
+        assertEquals(consumedByKey.size(), NUM_OF_KEYS);
+        for (List<Integer> numbers : consumedByKey.values()) {
+            assertEquals(numbers.size(), NUM_OF_PAYLOADS / NUM_OF_KEYS);
+            for (int i = 1; i < numbers.size(); i++) {
+                assertTrue(numbers.get(i - 1) < numbers.get(i), "Out of order: " + numbers);
+            }
+        }
+    }
+
+    private static void pushPayloads(Queue<TestPayload> queue) {
+        assertEquals(queue.size(), 0);
+        for (int i = 0; i < NUM_OF_PAYLOADS; i++) {
+            queue.push(new SimplePayload("key" + i % NUM_OF_KEYS, i, BigInteger.valueOf(i)));
+        }
+        assertEquals(queue.size(), NUM_OF_PAYLOADS);
+    }
+
+    private static void awaitConsumed(AtomicInteger consumed) throws InterruptedException {
+        while (consumed.get() < NUM_OF_PAYLOADS) {
+            Thread.sleep(50);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
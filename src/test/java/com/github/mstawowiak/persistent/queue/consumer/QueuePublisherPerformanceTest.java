@@ -0,0 +1,101 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+import com.github.mstawowiak.persistent.queue.BerkeleyDbQueue;
+import com.github.mstawowiak.persistent.queue.Queue;
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import com.github.mstawowiak.persistent.queue.data.TestPayload;
+import java.math.BigInteger;
+import java.util.concurrent.CountDownLatch;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Compares throughput of {@link QueuePublisher} with different request sizes against a plain poll loop
+ */
+public class QueuePublisherPerformanceTest {
+
+    private static final int PAYLOADS_COUNT = 100_000;
+    private static final int BATCH_SIZE = 100;
+    private static final int[] REQUEST_SIZES = {1, 16, 256};
+
+    public static void main(String[] args) throws InterruptedException {
+        final String queueName = QueuePublisherPerformanceTest.class.getSimpleName();
+        Queue<TestPayload> queue = new BerkeleyDbQueue<>("build/" + queueName, queueName, BATCH_SIZE);
+
+        System.out.println("-----------------------------------------------------------");
+        System.out.println("Start performance tests of QueuePublisher");
+        System.out.println(String.format("Payloads count: %,d, Batch size: %d", PAYLOADS_COUNT, BATCH_SIZE));
+        System.out.println("-----------------------------------------------------------");
+
+        fill(queue);
+        long timestamp = System.nanoTime();
+        while (queue.poll() != null) {
+            // drain
+        }
+        printTps("poll loop", timestamp);
+
+        for (int requestSize : REQUEST_SIZES) {
+            fill(queue);
+            timestamp = System.nanoTime();
+            CountingSubscriber subscriber = new CountingSubscriber(requestSize);
+            new QueuePublisher<>(queue).subscribe(subscriber);
+            subscriber.done.await();
+            subscriber.subscription.cancel();
+            printTps("publisher, request(" + requestSize + ")", timestamp);
+        }
+
+        queue.close();
+    }
+
+    private static void fill(Queue<TestPayload> queue) {
+        for (int i = 0; i < PAYLOADS_COUNT; i++) {
+            queue.push(new SimplePayload("t", i, BigInteger.valueOf(i)));
+        }
+    }
+
+    private static void printTps(String mode, long startNanos) {
+        long tps = PAYLOADS_COUNT * 1_000_000_000L / (System.nanoTime() - startNanos);
+        System.out.println(String.format("TPS [%s]: %,d", mode, tps));
+    }
+
+    /**
+     * Requests the next batch of payloads when the previous one was received
+     */
+    private static final class CountingSubscriber implements Subscriber<TestPayload> {
+
+        private final int requestSize;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Subscription subscription;
+        private long received;
+
+        CountingSubscriber(int requestSize) {
+            this.requestSize = requestSize;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(requestSize);
+        }
+
+        @Override
+        public void onNext(TestPayload payload) {
+            if (++received == PAYLOADS_COUNT) {
+                done.countDown();
+            } else if (received % requestSize == 0) {
+                subscription.request(requestSize);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            throwable.printStackTrace();
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+}
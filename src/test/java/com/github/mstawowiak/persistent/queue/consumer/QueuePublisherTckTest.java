@@ -0,0 +1,71 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+import com.github.mstawowiak.persistent.queue.BerkeleyDbQueue;
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import com.github.mstawowiak.persistent.queue.data.TestPayload;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.tck.PublisherVerification;
+import org.reactivestreams.tck.TestEnvironment;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+
+/**
+ * Reactive Streams specification conformance of {@link QueuePublisher}
+ */
+public class QueuePublisherTckTest extends PublisherVerification<TestPayload> {
+
+    private static final String queueName = QueuePublisherTckTest.class.getSimpleName();
+    private static final String queueDirName = "build/" + queueName;
+    private static final File queueDir = new File(queueDirName);
+
+    private final List<BerkeleyDbQueue<TestPayload>> queues = new ArrayList<>();
+
+    public QueuePublisherTckTest() {
+        super(new TestEnvironment(500));
+    }
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+    }
+
+    @AfterClass
+    public void afterClass() throws IOException {
+        queues.forEach(BerkeleyDbQueue::close);
+        if (queueDir.exists()) {
+            FileUtils.forceDeleteOnExit(queueDir);
+        }
+    }
+
+    @Override
+    public Publisher<TestPayload> createPublisher(long elements) {
+        BerkeleyDbQueue<TestPayload> queue = new BerkeleyDbQueue<>(queueDirName + "/" + queues.size(), queueName);
+        queues.add(queue);
+        for (int i = 0; i < elements; i++) {
+            queue.push(new SimplePayload("test" + i, i, BigInteger.valueOf(i)));
+        }
+        return new QueuePublisher<>(queue, new QueuePublisherConfig.Builder()
+                .pollTimeout(10, TimeUnit.MILLISECONDS)
+                .completeWhenEmpty(true)
+                .build());
+    }
+
+    @Override
+    public Publisher<TestPayload> createFailedPublisher() {
+        return null;
+    }
+
+    @Override
+    public long maxElementsFromPublisher() {
+        return 1000;
+    }
+}
@@ -0,0 +1,200 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+import com.github.mstawowiak.persistent.queue.BerkeleyDbQueue;
+import com.github.mstawowiak.persistent.queue.Queue;
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import com.github.mstawowiak.persistent.queue.data.TestPayload;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link QueuePublisher}
+ */
+public class QueuePublisherTest {
+
+    private Queue<TestPayload> queue;
+
+    private static final String queueName = QueuePublisherTest.class.getSimpleName();
+    private static final String queueDirName = "build/" + queueName;
+    private static final File queueDir = new File(queueDirName);
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDeleteOnExit(queueDir);
+        }
+    }
+
+    @BeforeMethod
+    public void before() {
+        queue = new BerkeleyDbQueue<>(queueDirName, queueName);
+        for (int i = 0; i < 10; i++) {
+            queue.push(new SimplePayload("test" + i, i, BigInteger.valueOf(i)));
+        }
+    }
+
+    @AfterMethod
+    public void after() {
+        while (!queue.isEmpty()) {
+            queue.poll();
+        }
+        queue.close();
+    }
+
+    @Test
+    public void shouldRemovePayloadsOnlyAsRequested() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber(3, -1);
+        new QueuePublisher<>(queue).subscribe(subscriber);
+
+        subscriber.awaitReceived();
+        Thread.sleep(100);
+
+        assertEquals(subscriber.received.size(), 3);
+        assertEquals(queue.size(), 7);
+        assertEquals(queue.peek().getNumber(), Integer.valueOf(3));
+        subscriber.subscription.cancel();
+    }
+
+    @Test
+    public void shouldKeepPayloadInQueueWhenSubscriberFails() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber(3, 1);
+        new QueuePublisher<>(queue).subscribe(subscriber);
+
+        subscriber.awaitReceived();
+        Thread.sleep(100);
+
+        assertEquals(subscriber.received.size(), 1);
+        assertEquals(queue.size(), 9);
+        assertEquals(queue.peek().getNumber(), Integer.valueOf(1));
+    }
+
+    @Test
+    public void shouldRemovePayloadOnlyAfterOnNextReturns() throws InterruptedException {
+        CountDownLatch receiving = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        new QueuePublisher<>(queue).subscribe(new Subscriber<TestPayload>() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(TestPayload payload) {
+                receiving.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        assertTrue(receiving.await(5, TimeUnit.SECONDS));
+        assertEquals(queue.size(), 10);
+        assertEquals(queue.peek().getNumber(), Integer.valueOf(0));
+
+        release.countDown();
+        Thread.sleep(100);
+        assertEquals(queue.size(), 9);
+        assertEquals(queue.peek().getNumber(), Integer.valueOf(1));
+    }
+
+    @Test
+    public void shouldCompleteWhenQueueIsEmpty() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE, -1);
+        new QueuePublisher<>(queue, new QueuePublisherConfig.Builder()
+                .completeWhenEmpty(true)
+                .build())
+                .subscribe(subscriber);
+
+        assertTrue(subscriber.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(subscriber.received.size(), 10);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenPollTimeoutIsNotPositive() {
+        new QueuePublisherConfig.Builder()
+                .pollTimeout(0, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Requests the given number of payloads on subscribe and fails on payload of the given number,
+     * {@code -1} for none
+     */
+    private static final class RecordingSubscriber implements Subscriber<TestPayload> {
+
+        private final long request;
+        private final int failOn;
+        private final List<TestPayload> received = new CopyOnWriteArrayList<>();
+        private final CountDownLatch signalled;
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile Subscription subscription;
+
+        RecordingSubscriber(long request, int failOn) {
+            this.request = request;
+            this.failOn = failOn;
+            this.signalled = new CountDownLatch((int) Math.min(failOn >= 0 ? failOn + 1 : request, Integer.MAX_VALUE));
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(request);
+        }
+
+        @Override
+        public void onNext(TestPayload payload) {
+            signalled.countDown();
+            if (payload.getNumber() == failOn) {
+                throw new IllegalStateException("Subscriber error");
+            }
+            received.add(payload);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+
+        void awaitReceived() throws InterruptedException {
+            assertTrue(signalled.await(5, TimeUnit.SECONDS));
+        }
+    }
+}
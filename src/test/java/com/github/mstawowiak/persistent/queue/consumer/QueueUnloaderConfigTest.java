@@ -3,6 +3,7 @@ package com.github.mstawowiak.persistent.queue.consumer;
 import com.github.mstawowiak.persistent.queue.data.DoNothingTestPayloadConsumer;
 import com.github.mstawowiak.persistent.queue.data.SimplePayload;
 import com.github.mstawowiak.persistent.queue.data.TestPayload;
+import com.github.mstawowiak.persistent.queue.strategy.IdleStrategyFactory;
 import com.github.mstawowiak.persistent.queue.strategy.WaitStrategyFactory;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
@@ -11,6 +12,7 @@ import org.testng.annotations.Test;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
 /**
@@ -30,6 +32,8 @@ public class QueueUnloaderConfigTest {
         assertNotNull(config.getThreadFactory());
         assertNotNull(config.getConsumer());
         assertNotNull(config.getWaitStrategy());
+        assertTrue(config.getIdleStrategy().isBlocking());
+        assertNull(config.getRateLimiter());
     }
 
     @Test
@@ -40,6 +44,8 @@ public class QueueUnloaderConfigTest {
                 .threadFactory(new NamedThreadFactory("unit-test"))
                 .consumer(new DoNothingTestPayloadConsumer())
                 .waitStrategy(WaitStrategyFactory.exponentialWait(5, TimeUnit.MINUTES))
+                .idleStrategy(IdleStrategyFactory.busySpin())
+                .rateLimit(1000, 10)
                 .build();
 
         assertNotNull(config);
@@ -47,6 +53,31 @@ public class QueueUnloaderConfigTest {
         assertTrue(config.getThreadFactory() instanceof  NamedThreadFactory);
         assertTrue(config.getConsumer() instanceof DoNothingTestPayloadConsumer);
         assertNotNull(config.getWaitStrategy());
+        assertEquals(config.getIdleStrategy(), IdleStrategyFactory.busySpin());
+        assertEquals(config.getRateLimiter().getRate(), 1000, 0.001);
+    }
+
+    @Test
+    public void shouldBuildAutoscalingConfig() {
+        QueueUnloaderConfig<TestPayload> config
+                = new QueueUnloaderConfig.Builder<TestPayload>()
+                .autoscaling(2, 16)
+                .autoscalingInterval(500, TimeUnit.MILLISECONDS)
+                .consumer(new DoNothingTestPayloadConsumer())
+                .build();
+
+        assertTrue(config.isAutoscaling());
+        assertEquals(2, config.getMinThreads());
+        assertEquals(16, config.getMaxThreads());
+        assertEquals(500L, config.getAutoscalingIntervalMillis());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenMaxThreadsLTMinThreads() {
+        new QueueUnloaderConfig.Builder<TestPayload>()
+                .autoscaling(4, 2)
+                .consumer(new DoNothingTestPayloadConsumer())
+                .build();
     }
 
     @Test(expectedExceptions = IllegalArgumentException.class)
@@ -55,6 +86,64 @@ public class QueueUnloaderConfigTest {
                 .build();
     }
 
+    @Test
+    public void shouldBuildRawConfig() {
+        QueueUnloaderConfig<TestPayload> config
+                = new QueueUnloaderConfig.Builder<TestPayload>()
+                .rawConsumer(data -> { })
+                .build();
+
+        assertTrue(config.isRaw());
+        assertNull(config.getConsumer());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenBothConsumerAndRawConsumer() {
+        new QueueUnloaderConfig.Builder<TestPayload>()
+                .consumer(new DoNothingTestPayloadConsumer())
+                .rawConsumer(data -> { })
+                .build();
+    }
+
+    @Test
+    public void shouldBuildConfigWithOrderingKey() {
+        QueueUnloaderConfig<TestPayload> config
+                = new QueueUnloaderConfig.Builder<TestPayload>()
+                .consumer(new DoNothingTestPayloadConsumer())
+                .orderingKey(TestPayload::getNumber)
+                .build();
+
+        assertNotNull(config.getOrderingKey());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenOrderingKeyWithRawConsumer() {
+        new QueueUnloaderConfig.Builder<TestPayload>()
+                .rawConsumer(data -> { })
+                .orderingKey(TestPayload::getNumber)
+                .build();
+    }
+
+    @Test
+    public void shouldBuildConfigWithProcessingTimeout() {
+        QueueUnloaderConfig<TestPayload> config
+                = new QueueUnloaderConfig.Builder<TestPayload>()
+                .consumer(new DoNothingTestPayloadConsumer())
+                .processingTimeout(30, TimeUnit.SECONDS)
+                .build();
+
+        assertTrue(config.isProcessingTimeoutEnabled());
+        assertEquals(config.getProcessingTimeoutMillis(), 30_000);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenProcessingTimeoutNegative() {
+        new QueueUnloaderConfig.Builder<TestPayload>()
+                .consumer(new DoNothingTestPayloadConsumer())
+                .processingTimeout(-1, TimeUnit.SECONDS)
+                .build();
+    }
+
     private static class NamedThreadFactory implements ThreadFactory {
 
         private final AtomicInteger threadNumber = new AtomicInteger(1);
@@ -0,0 +1,81 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link RateLimiter}
+ */
+public class RateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void shouldAllowBurstWithoutWaiting() {
+        RateLimiter rateLimiter = new RateLimiter(10, 5);
+        long now = System.nanoTime();
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(rateLimiter.reserve(now), 0L);
+        }
+        assertEquals(rateLimiter.reserve(now), SECOND / 10);
+        assertEquals(rateLimiter.reserve(now), 2 * SECOND / 10);
+    }
+
+    @Test
+    public void shouldRefillBucketOverTime() {
+        RateLimiter rateLimiter = new RateLimiter(10, 1);
+        long now = System.nanoTime();
+
+        assertEquals(rateLimiter.reserve(now), 0L);
+        assertEquals(rateLimiter.reserve(now + SECOND / 10), 0L);
+        assertEquals(rateLimiter.reserve(now + SECOND / 10), SECOND / 10);
+    }
+
+    @Test
+    public void shouldNotStoreMoreThanBurstSize() {
+        RateLimiter rateLimiter = new RateLimiter(1000, 2);
+        long now = System.nanoTime() + 10 * SECOND;
+
+        assertEquals(rateLimiter.reserve(now), 0L);
+        assertEquals(rateLimiter.reserve(now), 0L);
+        assertEquals(rateLimiter.reserve(now), SECOND / 1000);
+    }
+
+    @Test
+    public void shouldChangeRateAtRuntime() {
+        RateLimiter rateLimiter = new RateLimiter(10, 1);
+        rateLimiter.setRate(20_000);
+
+        assertEquals(rateLimiter.getRate(), 20_000, 0.001);
+        long now = System.nanoTime() + SECOND;
+        assertEquals(rateLimiter.reserve(now), 0L);
+        assertEquals(rateLimiter.reserve(now), SECOND / 20_000);
+    }
+
+    @Test
+    public void shouldLimitRateOfAcquire() throws InterruptedException {
+        RateLimiter rateLimiter = new RateLimiter(10_000, 1);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 2001; i++) {
+            rateLimiter.acquire();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(199), "Elapsed: " + elapsed);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenRateNotPositive() {
+        new RateLimiter(0, 1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenBurstSizeNotPositive() {
+        new RateLimiter(10, 0);
+    }
+}
@@ -0,0 +1,282 @@
+package com.github.mstawowiak.persistent.queue.consumer;
+
+import com.github.mstawowiak.persistent.queue.BerkeleyDbQueue;
+import com.github.mstawowiak.persistent.queue.InMemoryQueue;
+import com.github.mstawowiak.persistent.queue.Queue;
+import com.github.mstawowiak.persistent.queue.data.RandomErrorTestPayloadConsumer;
+import com.github.mstawowiak.persistent.queue.data.SimplePayload;
+import com.github.mstawowiak.persistent.queue.data.TestPayload;
+import com.github.mstawowiak.persistent.queue.strategy.WaitStrategyFactory;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link UnloaderRuntime}
+ */
+public class UnloaderRuntimeTest {
+
+    private static final String queueName = UnloaderRuntimeTest.class.getSimpleName();
+    private static final String queueDirName = "build/" + queueName;
+    private static final File queueDir = new File(queueDirName);
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException {
+        if (queueDir.exists()) {
+            FileUtils.forceDeleteOnExit(queueDir);
+        }
+    }
+
+    private static void pushPayloads(Queue<TestPayload> queue, int numOfPayloads) {
+        for (int i = 0; i < numOfPayloads; i++) {
+            queue.push(new SimplePayload(queue.name(), i, BigInteger.valueOf(i)));
+        }
+    }
+
+    private static QueueUnloaderConfig<TestPayload> config(int maxThreads, Consumer<TestPayload> consumer) {
+        return new QueueUnloaderConfig.Builder<TestPayload>()
+                .numOfThreads(maxThreads)
+                .consumer(consumer)
+                .build();
+    }
+
+    @Test
+    public void shouldUnloadAllQueuesDespiteRandomErrors() throws InterruptedException {
+        UnloaderRuntime runtime = new UnloaderRuntime(4);
+        List<Queue<TestPayload>> queues = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Queue<TestPayload> queue = new BerkeleyDbQueue<>(queueDirName + "/" + i, queueName + i);
+            pushPayloads(queue, 100);
+            queues.add(queue);
+            runtime.register(queue, new QueueUnloaderConfig.Builder<TestPayload>()
+                    .numOfThreads(2)
+                    .waitStrategy(WaitStrategyFactory.fixedWait(1, TimeUnit.MILLISECONDS))
+                    .consumer(new RandomErrorTestPayloadConsumer(15))
+                    .build(), i + 1).start();
+        }
+
+        for (Queue<TestPayload> queue : queues) {
+            long deadline = System.currentTimeMillis() + 30_000;
+            while (!queue.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(queue.size(), 0);
+        }
+
+        runtime.shutdown();
+    }
+
+    @Test
+    public void shouldShareThreadsAccordingToWeights() throws InterruptedException {
+        UnloaderRuntime runtime = new UnloaderRuntime(1);
+        List<String> consumed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(400);
+        Consumer<TestPayload> consumer = payload -> {
+            await(started);
+            consumed.add(payload.getName());
+            done.countDown();
+        };
+
+        Queue<TestPayload> heavy = new InMemoryQueue<>("heavy");
+        Queue<TestPayload> light = new InMemoryQueue<>("light");
+        pushPayloads(heavy, 1000);
+        pushPayloads(light, 1000);
+        UnloaderRuntime.Registration<TestPayload> heavyUnloader = runtime.register(heavy, config(1, consumer), 3);
+        UnloaderRuntime.Registration<TestPayload> lightUnloader = runtime.register(light, config(1, consumer), 1);
+        heavyUnloader.start();
+        lightUnloader.start();
+        started.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        runtime.shutdown();
+
+        long heavyCount = consumed.subList(0, 400).stream().filter("heavy"::equals).count();
+        assertTrue(heavyCount >= 280 && heavyCount <= 320, "heavy queue consumed " + heavyCount + " of 400");
+    }
+
+    @Test
+    public void shouldPreferQueueWithLargerBacklog() throws InterruptedException {
+        UnloaderRuntime runtime = new UnloaderRuntime(1);
+        List<String> consumed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(100);
+        Consumer<TestPayload> consumer = payload -> {
+            await(started);
+            consumed.add(payload.getName());
+            done.countDown();
+        };
+
+        Queue<TestPayload> large = new InMemoryQueue<>("large");
+        Queue<TestPayload> small = new InMemoryQueue<>("small");
+        pushPayloads(large, 50_000);
+        pushPayloads(small, 100);
+        UnloaderRuntime.Registration<TestPayload> largeUnloader = runtime.register(large, config(1, consumer), 1);
+        UnloaderRuntime.Registration<TestPayload> smallUnloader = runtime.register(small, config(1, consumer), 1);
+        largeUnloader.start();
+        smallUnloader.start();
+        started.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        runtime.shutdown();
+
+        long largeCount = consumed.subList(0, 100).stream().filter("large"::equals).count();
+        assertTrue(largeCount >= 55 && largeCount <= 65, "large queue consumed " + largeCount + " of 100");
+    }
+
+    @Test
+    public void shouldRespectConcurrencyLimitOfQueue() throws InterruptedException {
+        UnloaderRuntime runtime = new UnloaderRuntime(8);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicInteger maxBusyThreads = new AtomicInteger();
+
+        Queue<TestPayload> capped = new InMemoryQueue<>("capped");
+        Queue<TestPayload> other = new InMemoryQueue<>("other");
+        pushPayloads(capped, 100);
+        pushPayloads(other, 100);
+        runtime.register(capped, config(2, payload -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            maxBusyThreads.accumulateAndGet(runtime.getBusyThreads(), Math::max);
+            sleep(5);
+            inFlight.decrementAndGet();
+        }), 1).start();
+        runtime.register(other, config(8, payload -> sleep(5)), 1).start();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while ((!capped.isEmpty() || !other.isEmpty()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        runtime.shutdown();
+
+        assertTrue(capped.isEmpty());
+        assertEquals(maxInFlight.get(), 2);
+        assertTrue(maxBusyThreads.get() > 2);
+    }
+
+    @Test
+    public void shouldNotHoldOtherQueuesWhileRetryingFailedPayload() throws InterruptedException {
+        UnloaderRuntime runtime = new UnloaderRuntime(1);
+        AtomicInteger failures = new AtomicInteger();
+
+        Queue<TestPayload> failing = new InMemoryQueue<>("failing");
+        Queue<TestPayload> healthy = new InMemoryQueue<>("healthy");
+        pushPayloads(failing, 1);
+        pushPayloads(healthy, 100);
+        UnloaderRuntime.Registration<TestPayload> failingUnloader = runtime.register(failing,
+                new QueueUnloaderConfig.Builder<TestPayload>()
+                        .waitStrategy(WaitStrategyFactory.fixedWait(200, TimeUnit.MILLISECONDS))
+                        .consumer(payload -> {
+                            if (failures.incrementAndGet() <= 2) {
+                                throw new IllegalStateException("Test failure");
+                            }
+                        })
+                        .build(), 1);
+        UnloaderRuntime.Registration<TestPayload> healthyUnloader = runtime.register(healthy,
+                config(1, payload -> sleep(1)), 1);
+        failingUnloader.start();
+        healthyUnloader.start();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!healthy.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(healthy.isEmpty());
+        assertEquals(failingUnloader.getConsumed(), 0);
+
+        deadline = System.currentTimeMillis() + 10_000;
+        while (failingUnloader.getConsumed() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(failingUnloader.getConsumed(), 1);
+        assertEquals(failures.get(), 3);
+        runtime.shutdown();
+    }
+
+    @Test
+    public void shouldReleaseThreadOfTimedOutConsumer() throws InterruptedException {
+        UnloaderRuntime runtime = new UnloaderRuntime(1);
+        AtomicInteger attempts = new AtomicInteger();
+
+        Queue<TestPayload> queue = new InMemoryQueue<>("timeout");
+        pushPayloads(queue, 10);
+        UnloaderRuntime.Registration<TestPayload> unloader = runtime.register(queue,
+                new QueueUnloaderConfig.Builder<TestPayload>()
+                        .processingTimeout(100, TimeUnit.MILLISECONDS)
+                        .waitStrategy(WaitStrategyFactory.fixedWait(10, TimeUnit.MILLISECONDS))
+                        .consumer(payload -> {
+                            if (attempts.incrementAndGet() == 1) {
+                                sleep(TimeUnit.MINUTES.toMillis(1));
+                            }
+                        })
+                        .build(), 1);
+        unloader.start();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (unloader.getConsumed() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(unloader.getConsumed(), 10);
+        assertEquals(unloader.getTimeoutCount(), 1);
+        runtime.shutdown();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenRegisteringOrderedQueue() {
+        UnloaderRuntime runtime = new UnloaderRuntime(1);
+        try {
+            runtime.register(new InMemoryQueue<>("ordered"), new QueueUnloaderConfig.Builder<TestPayload>()
+                    .consumer(payload -> { })
+                    .orderingKey(TestPayload::getName)
+                    .build(), 1);
+        } finally {
+            runtime.shutdown();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenWeightNotPositive() {
+        UnloaderRuntime runtime = new UnloaderRuntime(1);
+        try {
+            runtime.register(new InMemoryQueue<>("weightless"), config(1, payload -> { }), 0);
+        } finally {
+            runtime.shutdown();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
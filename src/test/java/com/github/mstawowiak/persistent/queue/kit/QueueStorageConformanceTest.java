@@ -0,0 +1,299 @@
+package com.github.mstawowiak.persistent.queue.kit;
+
+import com.github.mstawowiak.persistent.queue.QueueStorage;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Conformance tests of a {@link QueueStorage} engine, checking ordering, durability, concurrency and
+ * baseline performance. A new engine is tested by extending this class and opening the engine
+ * in {@link #openStorage(String)}.
+ */
+public abstract class QueueStorageConformanceTest {
+
+    private static final int CONCURRENT_RECORDS = 10_000;
+    private static final int WORKLOAD_RECORDS = 20_000;
+    private static final int WORKLOAD_RECORD_SIZE = 256;
+    private static final int WORKLOAD_SYNC_INTERVAL = 100;
+
+    /**
+     * Opens storage of the given name, reopening it if it was opened and closed before.
+     */
+    protected abstract QueueStorage openStorage(String storageName);
+
+    /**
+     * Tells whether the engine keeps synced records when closed and reopened.
+     */
+    protected boolean isDurable() {
+        return true;
+    }
+
+    /**
+     * Minimum throughput of appends and removals expected from the engine in the baseline workload.
+     */
+    protected long minOperationsPerSecond() {
+        return 1_000;
+    }
+
+    private static byte[] record(long key) {
+        return ByteBuffer.allocate(2 * Long.BYTES).putLong(key).putLong(~key).array();
+    }
+
+    private static void assertRecord(QueueStorage.Record record, long expectedKey) {
+        assertNotNull(record, "record " + expectedKey);
+        assertEquals(record.getKey(), expectedKey);
+        assertEquals(record.getData(), record(expectedKey));
+    }
+
+    @Test
+    public void shouldReadRecordsInOrderOfKeys() {
+        QueueStorage storage = openStorage("ordering");
+        try {
+            for (long key = 0; key < 300; key++) {
+                storage.append(key, record(key));
+            }
+            assertEquals(storage.count(), 300);
+            assertEquals(storage.lastKey(), 299);
+
+            long expectedKey = 0;
+            QueueStorage.Record record = storage.readHead(0);
+            while (record != null) {
+                assertRecord(record, expectedKey++);
+                record = storage.readHead(record.getKey() + 1);
+            }
+            assertEquals(expectedKey, 300);
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void shouldReadHeadFromGivenKey() {
+        QueueStorage storage = openStorage("readHead");
+        try {
+            assertNull(storage.readHead(0));
+            assertEquals(storage.lastKey(), -1);
+
+            storage.append(0, record(0));
+            storage.append(200, record(200));
+            storage.append(70_000, record(70_000));
+
+            assertRecord(storage.readHead(0), 0);
+            assertRecord(storage.readHead(1), 200);
+            assertRecord(storage.readHead(201), 70_000);
+            assertNull(storage.readHead(70_001));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void shouldDeleteRange() {
+        QueueStorage storage = openStorage("deleteRange");
+        try {
+            for (long key = 0; key < 10; key++) {
+                storage.append(key, record(key));
+            }
+
+            assertEquals(storage.deleteRange(0, 3), 3);
+            assertEquals(storage.count(), 7);
+            assertRecord(storage.readHead(0), 3);
+
+            assertEquals(storage.deleteRange(5, 7), 2);
+            assertEquals(storage.count(), 5);
+            assertRecord(storage.readHead(5), 7);
+
+            assertEquals(storage.deleteRange(0, 5), 2);
+            assertEquals(storage.deleteRange(0, 5), 0);
+            assertEquals(storage.deleteRange(0, 100), 3);
+            assertEquals(storage.count(), 0);
+            assertNull(storage.readHead(0));
+            assertEquals(storage.lastKey(), 9);
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void shouldReadRangeOfKeys() {
+        QueueStorage storage = openStorage("readRange");
+        try {
+            for (long key = 0; key < 10; key++) {
+                storage.append(key, record(key));
+            }
+            storage.deleteRange(4, 6);
+
+            List<QueueStorage.Record> range = storage.readRange(2, 8, 100);
+            assertEquals(range.size(), 5);
+            assertRecord(range.get(0), 2);
+            assertRecord(range.get(1), 3);
+            assertRecord(range.get(2), 6);
+            assertRecord(range.get(4), 8);
+
+            range = storage.readRange(0, 100, 3);
+            assertEquals(range.size(), 3);
+            assertRecord(range.get(2), 2);
+
+            assertTrue(storage.readRange(10, 100, 100).isEmpty());
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void shouldReadHeadPartially() {
+        QueueStorage storage = openStorage("readHeadPartially");
+        try {
+            storage.append(5, record(5));
+
+            QueueStorage.Record head = storage.readHead(0, Long.BYTES);
+            assertEquals(head.getKey(), 5);
+            assertTrue(head.getData().length >= Long.BYTES);
+            assertEquals(ByteBuffer.wrap(head.getData()).getLong(), 5);
+            assertNull(storage.readHead(6, Long.BYTES));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void shouldRemoveHead() {
+        QueueStorage storage = openStorage("removeHead");
+        try {
+            storage.append(0, record(0));
+            storage.append(3, record(3));
+
+            assertRecord(storage.removeHead(0), 0);
+            assertEquals(storage.count(), 1);
+            assertRecord(storage.removeHead(0), 3);
+            assertNull(storage.removeHead(0));
+            assertEquals(storage.count(), 0);
+            assertEquals(storage.lastKey(), 3);
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void shouldTrackPayloadBytes() {
+        QueueStorage storage = openStorage("bytes");
+        try {
+            for (long key = 0; key < 10; key++) {
+                storage.append(key, record(key));
+            }
+            assertEquals(storage.bytes(), 10L * QueueStorage.payloadSize(record(0)));
+
+            storage.deleteRange(0, 4);
+            storage.removeHead(0);
+            assertEquals(storage.bytes(), 5L * QueueStorage.payloadSize(record(0)));
+
+            storage.deleteRange(0, 10);
+            assertEquals(storage.bytes(), 0);
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void shouldKeepSyncedRecordsAfterReopen() {
+        if (!isDurable()) {
+            throw new SkipException("Storage is not durable");
+        }
+        QueueStorage storage = openStorage("durability");
+        for (long key = 0; key < 100; key++) {
+            storage.append(key, record(key));
+        }
+        storage.deleteRange(0, 10);
+        storage.sync();
+        storage.close();
+
+        storage = openStorage("durability");
+        try {
+            assertEquals(storage.count(), 90);
+            assertEquals(storage.lastKey(), 99);
+            assertEquals(storage.bytes(), 90L * QueueStorage.payloadSize(record(0)));
+            for (long key = 10; key < 100; key++) {
+                assertRecord(storage.readHead(key), key);
+            }
+            assertNull(storage.readHead(100));
+
+            storage.deleteRange(0, 100);
+        } finally {
+            storage.close();
+        }
+
+        storage = openStorage("durability");
+        try {
+            assertEquals(storage.count(), 0);
+            assertEquals(storage.lastKey(), 99);
+            assertNull(storage.readHead(0));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void shouldReadAndDeleteConcurrentlyWithAppends() throws Exception {
+        QueueStorage storage = openStorage("concurrency");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> appender = executor.submit(() -> {
+                for (long key = 0; key < CONCURRENT_RECORDS; key++) {
+                    storage.append(key, record(key));
+                    if (key % 1000 == 0) {
+                        storage.sync();
+                    }
+                }
+            });
+            Future<Long> remover = executor.submit(() -> {
+                long expectedKey = 0;
+                while (expectedKey < CONCURRENT_RECORDS) {
+                    QueueStorage.Record record = storage.readHead(expectedKey);
+                    if (record == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    assertRecord(record, expectedKey);
+                    assertEquals(storage.deleteRange(expectedKey, expectedKey + 1), 1);
+                    expectedKey++;
+                }
+                return expectedKey;
+            });
+
+            appender.get(1, TimeUnit.MINUTES);
+            assertEquals(remover.get(1, TimeUnit.MINUTES).longValue(), CONCURRENT_RECORDS);
+            assertEquals(storage.count(), 0);
+            assertEquals(storage.lastKey(), CONCURRENT_RECORDS - 1);
+        } finally {
+            executor.shutdownNow();
+            storage.close();
+        }
+    }
+
+    @Test
+    public void shouldMeetBaselinePerformance() {
+        QueueStorage storage = openStorage("performance");
+        try {
+            QueueStorageWorkload.Result result = QueueStorageWorkload.run(storage, WORKLOAD_RECORDS,
+                    WORKLOAD_RECORD_SIZE, WORKLOAD_SYNC_INTERVAL);
+            System.out.println(getClass().getSimpleName() + ": " + result);
+
+            assertEquals(storage.count(), 0);
+            assertTrue(result.getAppendsPerSecond() >= minOperationsPerSecond(), result.toString());
+            assertTrue(result.getRemovalsPerSecond() >= minOperationsPerSecond(), result.toString());
+        } finally {
+            storage.close();
+        }
+    }
+}
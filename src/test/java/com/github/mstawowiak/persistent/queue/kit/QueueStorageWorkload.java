@@ -0,0 +1,88 @@
+package com.github.mstawowiak.persistent.queue.kit;
+
+import com.github.mstawowiak.persistent.queue.QueueStorage;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Baseline workload of a {@link QueueStorage}: appends records at the tail, then reads and deletes them
+ * one by one from the head, the way a queue uses its storage. Used to compare engines with each other.
+ */
+public final class QueueStorageWorkload {
+
+    private QueueStorageWorkload() {
+    }
+
+    /**
+     * Runs the workload on the storage, which is empty afterwards.
+     *
+     * @param storage      storage to measure
+     * @param records      number of records to append and delete
+     * @param recordSize   size of a record in bytes
+     * @param syncInterval number of operations between syncs
+     * @return throughput of appends and removals
+     */
+    public static Result run(QueueStorage storage, int records, int recordSize, int syncInterval) {
+        final byte[] record = new byte[recordSize];
+        Arrays.fill(record, (byte) 7);
+        final long firstKey = storage.lastKey() + 1;
+
+        final long appendStart = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            storage.append(firstKey + i, record);
+            if ((i + 1) % syncInterval == 0) {
+                storage.sync();
+            }
+        }
+        storage.sync();
+        final long appendNanos = System.nanoTime() - appendStart;
+
+        final long removeStart = System.nanoTime();
+        long headKey = firstKey;
+        for (int i = 0; i < records; i++) {
+            final QueueStorage.Record head = storage.readHead(headKey);
+            if (head == null) {
+                throw new AssertionError("Record missing [key=" + headKey + "]");
+            }
+            storage.deleteRange(headKey, head.getKey() + 1);
+            headKey = head.getKey() + 1;
+            if ((i + 1) % syncInterval == 0) {
+                storage.sync();
+            }
+        }
+        storage.sync();
+        final long removeNanos = System.nanoTime() - removeStart;
+
+        return new Result(records, appendNanos, removeNanos);
+    }
+
+    /**
+     * Throughput measured by the workload.
+     */
+    public static final class Result {
+
+        private final int records;
+        private final long appendNanos;
+        private final long removeNanos;
+
+        Result(int records, long appendNanos, long removeNanos) {
+            this.records = records;
+            this.appendNanos = appendNanos;
+            this.removeNanos = removeNanos;
+        }
+
+        public long getAppendsPerSecond() {
+            return records * TimeUnit.SECONDS.toNanos(1) / Math.max(1, appendNanos);
+        }
+
+        public long getRemovalsPerSecond() {
+            return records * TimeUnit.SECONDS.toNanos(1) / Math.max(1, removeNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d records: %,d appends/s, %,d removals/s",
+                    records, getAppendsPerSecond(), getRemovalsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.mstawowiak.persistent.queue.load;
+
+import com.github.mstawowiak.persistent.queue.util.Preconditions;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parameters of {@link QueueLoadGenerator}, given as {@code name=value} arguments
+ */
+final class LoadGeneratorConfig {
+
+    private final Map<String, String> parameters = new LinkedHashMap<>();
+
+    private final int producers;
+    private final int consumers;
+    private final long rate;
+    private final PayloadSizeDistribution payloadSize;
+    private final int batchSize;
+    private final long durationSeconds;
+    private final long warmUpSeconds;
+    private final String queueDir;
+    private final String output;
+
+    private LoadGeneratorConfig(String[] args) {
+        parameters.put("producers", "2");
+        parameters.put("consumers", "4");
+        parameters.put("rate", "10000");
+        parameters.put("payloadSize", "fixed:256");
+        parameters.put("batchSize", "100");
+        parameters.put("duration", "60");
+        parameters.put("warmUp", "10");
+        parameters.put("queueDir", "build/QueueLoadGenerator");
+        parameters.put("output", "build/load-results.json");
+
+        for (String arg : args) {
+            final String[] nameAndValue = arg.split("=", 2);
+            Preconditions.checkArgument(nameAndValue.length == 2 && parameters.containsKey(nameAndValue[0]),
+                    "Unknown argument '" + arg + "', expected one of " + parameters.keySet());
+            parameters.put(nameAndValue[0], nameAndValue[1]);
+        }
+
+        this.producers = Integer.parseInt(parameters.get("producers"));
+        this.consumers = Integer.parseInt(parameters.get("consumers"));
+        this.rate = Long.parseLong(parameters.get("rate"));
+        this.payloadSize = PayloadSizeDistribution.parse(parameters.get("payloadSize"));
+        this.batchSize = Integer.parseInt(parameters.get("batchSize"));
+        this.durationSeconds = Long.parseLong(parameters.get("duration"));
+        this.warmUpSeconds = Long.parseLong(parameters.get("warmUp"));
+        this.queueDir = parameters.get("queueDir");
+        this.output = parameters.get("output");
+
+        Preconditions.checkArgument(producers > 0, "producers must be > 0 but is " + producers);
+        Preconditions.checkArgument(consumers > 0, "consumers must be > 0 but is " + consumers);
+        Preconditions.checkArgument(rate >= 0, "rate must be >= 0 but is " + rate);
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be > 0 but is " + batchSize);
+        Preconditions.checkArgument(durationSeconds > 0, "duration must be > 0 but is " + durationSeconds);
+        Preconditions.checkArgument(warmUpSeconds >= 0, "warmUp must be >= 0 but is " + warmUpSeconds);
+    }
+
+    static LoadGeneratorConfig fromArgs(String... args) {
+        return new LoadGeneratorConfig(args);
+    }
+
+    Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    int getProducers() {
+        return producers;
+    }
+
+    int getConsumers() {
+        return consumers;
+    }
+
+    /**
+     * Returns target rate of all producers in payloads per second, {@code 0} for as fast as possible
+     */
+    long getRate() {
+        return rate;
+    }
+
+    PayloadSizeDistribution getPayloadSize() {
+        return payloadSize;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    long getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    long getWarmUpSeconds() {
+        return warmUpSeconds;
+    }
+
+    String getQueueDir() {
+        return queueDir;
+    }
+
+    String getOutput() {
+        return output;
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.mstawowiak.persistent.queue.load;
+
+import java.util.Random;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link LoadGeneratorConfig} and {@link PayloadSizeDistribution}
+ */
+public class LoadGeneratorConfigTest {
+
+    @Test
+    public void shouldOverrideDefaults() {
+        LoadGeneratorConfig config = LoadGeneratorConfig.fromArgs("producers=3", "rate=0", "payloadSize=fixed:10");
+
+        assertEquals(config.getProducers(), 3);
+        assertEquals(config.getConsumers(), 4);
+        assertEquals(config.getRate(), 0);
+        assertEquals(config.getPayloadSize().nextSize(new Random()), 10);
+        assertEquals(config.getParameters().get("producers"), "3");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionForUnknownArgument() {
+        LoadGeneratorConfig.fromArgs("threads=3");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionForNonPositiveDuration() {
+        LoadGeneratorConfig.fromArgs("duration=0");
+    }
+
+    @Test
+    public void shouldDrawSizesWithinUniformRange() {
+        PayloadSizeDistribution distribution = PayloadSizeDistribution.parse("uniform:100-200");
+        Random random = new Random(1);
+
+        for (int i = 0; i < 1000; i++) {
+            int size = distribution.nextSize(random);
+            assertTrue(size >= 100 && size <= 200, "Size " + size);
+        }
+    }
+
+    @Test
+    public void shouldDrawSizesWithExponentialMean() {
+        PayloadSizeDistribution distribution = PayloadSizeDistribution.parse("exponential:1000");
+        Random random = new Random(1);
+
+        long total = 0;
+        for (int i = 0; i < 10000; i++) {
+            total += distribution.nextSize(random);
+        }
+        assertEquals(total / 10000.0, 1000, 50);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionForInvalidUniformRange() {
+        PayloadSizeDistribution.parse("uniform:200-100");
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.mstawowiak.persistent.queue.load;
+
+import com.github.mstawowiak.persistent.queue.Payload;
+
+/**
+ * Payload of the load generator carrying times of its planned and actual push
+ */
+final class LoadPayload implements Payload {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long intendedNanos;
+    private final long pushedNanos;
+    private final byte[] body;
+
+    LoadPayload(long intendedNanos, long pushedNanos, byte[] body) {
+        this.intendedNanos = intendedNanos;
+        this.pushedNanos = pushedNanos;
+        this.body = body;
+    }
+
+    /**
+     * Returns {@link System#nanoTime()} at which the payload was scheduled to be pushed
+     */
+    long getIntendedNanos() {
+        return intendedNanos;
+    }
+
+    long getPushedNanos() {
+        return pushedNanos;
+    }
+
+    int getBodySize() {
+        return body.length;
+    }
+}
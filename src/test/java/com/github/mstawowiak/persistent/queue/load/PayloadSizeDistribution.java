@@ -0,0 +1,58 @@
+package com.github.mstawowiak.persistent.queue.load;
+
+import com.github.mstawowiak.persistent.queue.util.Preconditions;
+import java.util.Random;
+
+/**
+ * Distribution of payload body sizes, given as {@code fixed:SIZE}, {@code uniform:MIN-MAX}
+ * or {@code exponential:MEAN} in bytes
+ */
+final class PayloadSizeDistribution {
+
+    private enum Type {FIXED, UNIFORM, EXPONENTIAL}
+
+    private final String spec;
+    private final Type type;
+    private final int first;
+    private final int second;
+
+    private PayloadSizeDistribution(String spec, Type type, int first, int second) {
+        this.spec = spec;
+        this.type = type;
+        this.first = first;
+        this.second = second;
+    }
+
+    static PayloadSizeDistribution parse(String spec) {
+        final String[] parts = spec.split(":", 2);
+        Preconditions.checkArgument(parts.length == 2, "Invalid payload size distribution: " + spec);
+        final Type type = Type.valueOf(parts[0].trim().toUpperCase());
+        if (type == Type.UNIFORM) {
+            final String[] range = parts[1].split("-", 2);
+            Preconditions.checkArgument(range.length == 2, "Invalid uniform range: " + parts[1]);
+            final int min = Integer.parseInt(range[0].trim());
+            final int max = Integer.parseInt(range[1].trim());
+            Preconditions.checkArgument(min >= 0 && min <= max, "Invalid uniform range: " + parts[1]);
+            return new PayloadSizeDistribution(spec, type, min, max);
+        }
+        final int size = Integer.parseInt(parts[1].trim());
+        Preconditions.checkArgument(size >= 0, "Payload size must be >= 0 but is " + size);
+        return new PayloadSizeDistribution(spec, type, size, size);
+    }
+
+    int nextSize(Random random) {
+        switch (type) {
+            case UNIFORM:
+                return first + random.nextInt(second - first + 1);
+            case EXPONENTIAL:
+                return (int) Math.min(Integer.MAX_VALUE / 2, Math.round(-first * Math.log(1 - random.nextDouble())));
+            default:
+                return first;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
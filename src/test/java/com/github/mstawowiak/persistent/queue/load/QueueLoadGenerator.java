@@ -0,0 +1,236 @@
+package com.github.mstawowiak.persistent.queue.load;
+
+import com.github.mstawowiak.persistent.queue.BerkeleyDbQueue;
+import com.github.mstawowiak.persistent.queue.Queue;
+import com.github.mstawowiak.persistent.queue.consumer.ConcurrentQueueUnloader;
+import com.github.mstawowiak.persistent.queue.consumer.QueueUnloader;
+import com.github.mstawowiak.persistent.queue.consumer.QueueUnloaderConfig;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Soak and load test of {@link BerkeleyDbQueue} unloaded by {@link ConcurrentQueueUnloader}. Producers push
+ * payloads at a target rate for the given duration, consumers record enqueue-to-consume latency of payloads
+ * pushed after the warm-up.
+ * <p>
+ * Latency is recorded twice. The corrected latency is measured from the time a payload was scheduled to be
+ * pushed, so a stalled producer does not hide the delay of payloads it should have pushed meanwhile
+ * (coordinated omission). The uncorrected latency is measured from the actual push. With an unbounded
+ * rate both are equal.
+ * <p>
+ * Results are printed and written as JSON to {@code output}, the corrected latency distribution also as
+ * {@code .hgrm} file next to it. Arguments are {@code name=value} pairs, see {@link LoadGeneratorConfig}:
+ * <pre>
+ * producers=2 consumers=4 rate=10000 payloadSize=uniform:100-2000 batchSize=100 duration=60 warmUp=10
+ * </pre>
+ */
+public class QueueLoadGenerator {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private final LoadGeneratorConfig config;
+
+    private final Histogram correctedLatency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+    private final Histogram uncorrectedLatency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+    private final AtomicLong pushed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final AtomicLong measuredPushed = new AtomicLong();
+    private final AtomicLong measuredBytes = new AtomicLong();
+
+    private long startNanos;
+    private long measureFromNanos;
+    private long endNanos;
+
+    QueueLoadGenerator(LoadGeneratorConfig config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new QueueLoadGenerator(LoadGeneratorConfig.fromArgs(args)).run();
+    }
+
+    void run() throws InterruptedException, IOException {
+        final File queueDir = new File(config.getQueueDir());
+        if (queueDir.exists()) {
+            FileUtils.forceDelete(queueDir);
+        }
+        final Queue<LoadPayload> queue = new BerkeleyDbQueue<>(config.getQueueDir(),
+                QueueLoadGenerator.class.getSimpleName(), config.getBatchSize());
+
+        System.out.println("-----------------------------------------------------------");
+        System.out.println("Start load test of persistent-queue");
+        System.out.println("Parameters: " + config.getParameters());
+        System.out.println("-----------------------------------------------------------");
+
+        final QueueUnloader unloader = new ConcurrentQueueUnloader<>(queue,
+                new QueueUnloaderConfig.Builder<LoadPayload>()
+                        .numOfThreads(config.getConsumers())
+                        .consumer(this::consume)
+                        .build());
+
+        startNanos = System.nanoTime();
+        measureFromNanos = startNanos + TimeUnit.SECONDS.toNanos(config.getWarmUpSeconds());
+        endNanos = measureFromNanos + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+
+        unloader.start();
+        final ExecutorService producers = Executors.newFixedThreadPool(config.getProducers());
+        for (int i = 0; i < config.getProducers(); i++) {
+            final int producer = i;
+            producers.execute(() -> produce(queue, producer));
+        }
+        producers.shutdown();
+        while (!producers.awaitTermination(10, TimeUnit.SECONDS)) {
+            printProgress(queue);
+        }
+
+        final long drainDeadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+        while (consumed.get() < pushed.get() && System.nanoTime() < drainDeadline) {
+            Thread.sleep(100);
+        }
+        final long backlog = pushed.get() - consumed.get();
+        unloader.stop();
+
+        writeResults(System.out, backlog);
+        writeResults(backlog);
+    }
+
+    /**
+     * Pushes payloads at equal intervals planned from the start, so a producer stalled by the queue catches
+     * up instead of shifting its schedule.
+     */
+    private void produce(Queue<LoadPayload> queue, int producer) {
+        final Random random = new Random(producer);
+        final long intervalNanos = config.getRate() == 0 ? 0 : TimeUnit.SECONDS.toNanos(config.getProducers())
+                / config.getRate();
+        long intendedNanos = startNanos + intervalNanos * producer / config.getProducers();
+
+        while (intendedNanos < endNanos) {
+            if (intervalNanos == 0) {
+                intendedNanos = System.nanoTime();
+            } else {
+                waitUntil(intendedNanos);
+            }
+            final byte[] body = new byte[config.getPayloadSize().nextSize(random)];
+            queue.push(new LoadPayload(intendedNanos, System.nanoTime(), body));
+            pushed.incrementAndGet();
+            if (intendedNanos >= measureFromNanos) {
+                measuredPushed.incrementAndGet();
+                measuredBytes.addAndGet(body.length);
+            }
+            intendedNanos += intervalNanos;
+        }
+    }
+
+    private static void waitUntil(long nanos) {
+        long remaining;
+        while ((remaining = nanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private void consume(LoadPayload payload) {
+        final long nowNanos = System.nanoTime();
+        if (payload.getIntendedNanos() >= measureFromNanos) {
+            correctedLatency.recordValue(toMicros(nowNanos - payload.getIntendedNanos()));
+            uncorrectedLatency.recordValue(toMicros(nowNanos - payload.getPushedNanos()));
+        }
+        consumed.incrementAndGet();
+    }
+
+    private static long toMicros(long nanos) {
+        return Math.min(HIGHEST_TRACKABLE_MICROS, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+    private void printProgress(Queue<LoadPayload> queue) {
+        System.out.println(String.format("Elapsed: %ds, pushed: %,d, consumed: %,d, queue size: %,d",
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos),
+                pushed.get(), consumed.get(), queue.size()));
+    }
+
+    private void writeResults(PrintStream out, long backlog) {
+        final double seconds = config.getDurationSeconds();
+        out.println("-----------------------------------------------------------");
+        out.println(String.format("Pushed: %,d (%,.0f/s), consumed: %,d (%,.0f/s), not consumed: %,d",
+                measuredPushed.get(), measuredPushed.get() / seconds,
+                correctedLatency.getTotalCount(), correctedLatency.getTotalCount() / seconds, backlog));
+        out.println("Latency [us]     corrected  uncorrected");
+        for (double percentile : PERCENTILES) {
+            out.println(String.format("  p%-12s %,10d %,12d", percentile,
+                    correctedLatency.getValueAtPercentile(percentile),
+                    uncorrectedLatency.getValueAtPercentile(percentile)));
+        }
+        out.println(String.format("  %-13s %,10d %,12d", "max",
+                correctedLatency.getMaxValue(), uncorrectedLatency.getMaxValue()));
+    }
+
+    private void writeResults(long backlog) throws IOException {
+        final Path output = Paths.get(config.getOutput());
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+
+        final StringBuilder json = new StringBuilder(1024)
+                .append("{\n")
+                .append("  \"timestamp\": \"").append(Instant.now()).append("\",\n")
+                .append("  \"javaVersion\": \"").append(System.getProperty("java.version")).append("\",\n")
+                .append("  \"parameters\": {");
+        String separator = "\n";
+        for (Map.Entry<String, String> parameter : config.getParameters().entrySet()) {
+            json.append(separator).append("    \"").append(parameter.getKey()).append("\": \"")
+                    .append(parameter.getValue().replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            separator = ",\n";
+        }
+        json.append("\n  },\n")
+                .append("  \"pushed\": ").append(measuredPushed.get()).append(",\n")
+                .append("  \"pushedBytes\": ").append(measuredBytes.get()).append(",\n")
+                .append("  \"consumed\": ").append(correctedLatency.getTotalCount()).append(",\n")
+                .append("  \"notConsumed\": ").append(backlog).append(",\n")
+                .append("  \"pushRate\": ").append(measuredPushed.get() / config.getDurationSeconds()).append(",\n")
+                .append("  \"latencyMicros\": {\n")
+                .append("    \"corrected\": ").append(toJson(correctedLatency)).append(",\n")
+                .append("    \"uncorrected\": ").append(toJson(uncorrectedLatency)).append('\n')
+                .append("  }\n")
+                .append("}\n");
+        Files.write(output, json.toString().getBytes(StandardCharsets.UTF_8));
+
+        final String fileName = output.getFileName().toString();
+        final Path distribution = output.resolveSibling(fileName.replaceFirst("\\.json$", "") + ".hgrm");
+        try (PrintStream out = new PrintStream(Files.newOutputStream(distribution), false, "UTF-8")) {
+            correctedLatency.outputPercentileDistribution(out, 1.0);
+        }
+        System.out.println("Results written to " + output.toAbsolutePath());
+    }
+
+    private static String toJson(Histogram histogram) {
+        final StringBuilder json = new StringBuilder("{");
+        for (double percentile : PERCENTILES) {
+            json.append("\"p").append(percentile).append("\": ").append(histogram.getValueAtPercentile(percentile))
+                    .append(", ");
+        }
+        return json.append("\"max\": ").append(histogram.getMaxValue())
+                .append(", \"mean\": ").append(String.format(Locale.ROOT, "%.1f", histogram.getMean()))
+                .append(", \"count\": ").append(histogram.getTotalCount())
+                .append('}')
+                .toString();
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.mstawowiak.persistent.queue.strategy;
+
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link IdleStrategyFactory}
+ */
+public class IdleStrategyFactoryTest {
+
+    @Test
+    public void testBlocking() {
+        IdleStrategy blocking = IdleStrategyFactory.blocking();
+        assertTrue(blocking.isBlocking());
+    }
+
+    @Test
+    public void testBusySpin() {
+        IdleStrategy busySpin = IdleStrategyFactory.busySpin();
+        assertFalse(busySpin.isBlocking());
+        idle(busySpin, 1000);
+    }
+
+    @Test
+    public void testSpinThenYield() {
+        IdleStrategy spinThenYield = IdleStrategyFactory.spinThenYield(100);
+        assertFalse(spinThenYield.isBlocking());
+        idle(spinThenYield, 1000);
+    }
+
+    @Test
+    public void testBackoffParkParksAfterSpinsAndYields() {
+        IdleStrategy backoffPark = IdleStrategyFactory.backoffPark(10, 10,
+                1, 20, TimeUnit.MILLISECONDS);
+        assertFalse(backoffPark.isBlocking());
+        idle(backoffPark, 20);
+
+        long start = System.nanoTime();
+        backoffPark.idle(25);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(16));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void spinThenYieldMaxSpinsLTZero() {
+        IdleStrategyFactory.spinThenYield(-1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void backoffParkNullTimeUnit() {
+        IdleStrategyFactory.backoffPark(0, 0, 1, 1, null);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void backoffParkMinParkTimeNotPositive() {
+        IdleStrategyFactory.backoffPark(0, 0, 0, 1, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void backoffParkMaxParkTimeLTMinParkTime() {
+        IdleStrategyFactory.backoffPark(0, 0, 10, 1, TimeUnit.MILLISECONDS);
+    }
+
+    private static void idle(IdleStrategy idleStrategy, int idleCount) {
+        for (int i = 1; i <= idleCount; i++) {
+            idleStrategy.idle(i);
+        }
+    }
+}
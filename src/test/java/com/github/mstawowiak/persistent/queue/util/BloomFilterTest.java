@@ -0,0 +1,58 @@
+package com.github.mstawowiak.persistent.queue.util;
+
+import java.nio.charset.StandardCharsets;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link BloomFilter}
+ */
+public final class BloomFilterTest {
+
+    private static byte[] key(int number) {
+        return ("key-" + number).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void shouldSizeFilter() {
+        BloomFilter filter = new BloomFilter(1_000_000, 0.01);
+
+        assertTrue(filter.getNumOfBits() >= 9_585_059L);
+        assertEquals(filter.getNumOfHashes(), 7);
+    }
+
+    @Test
+    public void shouldContainAddedKeys() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add(key(i));
+        }
+
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain(key(i)));
+        }
+    }
+
+    @Test
+    public void shouldKeepFalsePositiveProbability() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add(key(i));
+        }
+
+        int falsePositives = 0;
+        for (int i = 10_000; i < 110_000; i++) {
+            if (filter.mightContain(key(i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2_000, "False positives: " + falsePositives);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionWhenProbabilityOutOfRange() {
+        new BloomFilter(100, 1.0);
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.mstawowiak.persistent.queue.util;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link Histogram}
+ */
+public class HistogramTest {
+
+    @Test
+    public void shouldReturnZeroWhenEmpty() {
+        Histogram histogram = new Histogram();
+
+        assertEquals(histogram.getCount(), 0);
+        assertEquals(histogram.getValueAtPercentile(99), 0);
+        assertEquals(histogram.getMean(), 0.0);
+    }
+
+    @Test
+    public void shouldReturnExactSmallValues() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 8; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(histogram.getValueAtPercentile(50), 3);
+        assertEquals(histogram.getValueAtPercentile(100), 7);
+        assertEquals(histogram.getMean(), 3.5);
+    }
+
+    @Test
+    public void shouldReturnPercentilesWithinRelativeError() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100_000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(histogram.getCount(), 100_000);
+        assertEquals(histogram.getMax(), 100_000);
+        for (double percentile : new double[] {50, 90, 99, 99.9}) {
+            long expected = (long) (percentile * 1000);
+            long actual = histogram.getValueAtPercentile(percentile);
+            assertTrue(actual >= expected && actual <= expected * 1.125, percentile + ": " + actual);
+        }
+        assertEquals(histogram.getValueAtPercentile(100), 100_000);
+    }
+
+    @Test
+    public void shouldRecordLargeValues() {
+        Histogram histogram = new Histogram();
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(histogram.getValueAtPercentile(50), Long.MAX_VALUE);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldThrowExceptionForInvalidPercentile() {
+        new Histogram().getValueAtPercentile(101);
+    }
+}